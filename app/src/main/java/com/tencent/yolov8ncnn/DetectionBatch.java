@@ -0,0 +1,109 @@
+package com.tencent.yolov8ncnn;
+
+/**
+ * 一帧检测结果的只读视图
+ *
+ * 数据按列存放在一个float数组中，由native一次整体拷贝填充，读取时不创建任何对象。
+ * native轮流填充两个实例，回调返回后该实例内容在下一帧回调结束前保持不变，
+ * 需要更久保留时请自行拷贝。
+ */
+public final class DetectionBatch {
+
+    // 默认容量，与native默认的最大检测数一致
+    public static final int DEFAULT_CAPACITY = 100;
+
+    // 布局需与yolov8ncnn.cpp中的fill_detection_batch保持一致
+    // 头部：目标数、帧宽、帧高、帧序号，均为int位模式
+    static final int HEADER_COUNT = 0;
+    static final int HEADER_FRAME_WIDTH = 1;
+    static final int HEADER_FRAME_HEIGHT = 2;
+    static final int HEADER_FRAME_SEQ = 3;
+    static final int HEADER_SIZE = 4;
+
+    // 每列capacity个元素，label和trackId列为int位模式
+    static final int COLUMN_X = 0;
+    static final int COLUMN_Y = 1;
+    static final int COLUMN_WIDTH = 2;
+    static final int COLUMN_HEIGHT = 3;
+    static final int COLUMN_PROB = 4;
+    static final int COLUMN_LABEL = 5;
+    static final int COLUMN_TRACK_ID = 6;
+    static final int COLUMN_COUNT = 7;
+
+    private final int capacity;
+
+    // native通过字段名写入
+    private final float[] data;
+
+    DetectionBatch(int capacity) {
+        this.capacity = capacity;
+        this.data = new float[HEADER_SIZE + COLUMN_COUNT * capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // 目标数，超过容量的部分被丢弃
+    public int size() {
+        return Float.floatToRawIntBits(data[HEADER_COUNT]);
+    }
+
+    public int frameWidth() {
+        return Float.floatToRawIntBits(data[HEADER_FRAME_WIDTH]);
+    }
+
+    public int frameHeight() {
+        return Float.floatToRawIntBits(data[HEADER_FRAME_HEIGHT]);
+    }
+
+    public int frameSeq() {
+        return Float.floatToRawIntBits(data[HEADER_FRAME_SEQ]);
+    }
+
+    public float x(int i) {
+        return data[HEADER_SIZE + COLUMN_X * capacity + i];
+    }
+
+    public float y(int i) {
+        return data[HEADER_SIZE + COLUMN_Y * capacity + i];
+    }
+
+    public float width(int i) {
+        return data[HEADER_SIZE + COLUMN_WIDTH * capacity + i];
+    }
+
+    public float height(int i) {
+        return data[HEADER_SIZE + COLUMN_HEIGHT * capacity + i];
+    }
+
+    public float prob(int i) {
+        return data[HEADER_SIZE + COLUMN_PROB * capacity + i];
+    }
+
+    public int label(int i) {
+        return Float.floatToRawIntBits(data[HEADER_SIZE + COLUMN_LABEL * capacity + i]);
+    }
+
+    // 跟踪id，未跟踪时为-1
+    public int trackId(int i) {
+        return Float.floatToRawIntBits(data[HEADER_SIZE + COLUMN_TRACK_ID * capacity + i]);
+    }
+
+    /**
+     * 复制第i个目标为独立对象，会分配内存
+     */
+    public Yolov8Ncnn.DetectedObject toDetectedObject(int i) {
+        Yolov8Ncnn.DetectedObject obj = new Yolov8Ncnn.DetectedObject();
+        obj.x = x(i);
+        obj.y = y(i);
+        obj.width = width(i);
+        obj.height = height(i);
+        obj.label = label(i);
+        obj.prob = prob(i);
+        obj.frameWidth = frameWidth();
+        obj.frameHeight = frameHeight();
+        obj.trackId = trackId(i);
+        return obj;
+    }
+}
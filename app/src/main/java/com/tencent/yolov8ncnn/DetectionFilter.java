@@ -0,0 +1,60 @@
+package com.tencent.yolov8ncnn;
+
+/**
+ * 每帧检测结果的筛选
+ *
+ * 不依赖Android，jmh模块直接编译本文件做基准测试。
+ */
+final class DetectionFilter {
+
+    private DetectionFilter() {
+    }
+
+    /**
+     * 有targetLabel的目标时返回全部这些目标，否则返回置信度最高的一个，没有检测结果时返回null
+     * 只为返回的目标创建对象
+     */
+    static Yolov8Ncnn.DetectedObject[] selectTargets(DetectionBatch batch, int targetLabel) {
+        final int count = batch.size();
+        if (count == 0) {
+            return null;
+        }
+        
+        // 统计目标物体，同时记录置信度最高的物体（用于没有目标物体时）
+        int targetCount = 0;
+        int highestIndex = 0;
+        for (int i = 0; i < count; i++) {
+            if (batch.prob(i) > batch.prob(highestIndex)) {
+                highestIndex = i;
+            }
+            if (batch.label(i) == targetLabel) {
+                targetCount++;
+            }
+        }
+        
+        // 如果找到了目标物体，返回所有目标物体
+        if (targetCount > 0) {
+            Yolov8Ncnn.DetectedObject[] result = new Yolov8Ncnn.DetectedObject[targetCount];
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                if (batch.label(i) == targetLabel) {
+                    result[j++] = batch.toDetectedObject(i);
+                }
+            }
+            return result;
+        }
+        
+        // 否则返回置信度最高的物体
+        return new Yolov8Ncnn.DetectedObject[] { batch.toDetectedObject(highestIndex) };
+    }
+
+    // 是否全部都是targetLabel
+    static boolean allMatch(Yolov8Ncnn.DetectedObject[] objects, int targetLabel) {
+        for (Yolov8Ncnn.DetectedObject obj : objects) {
+            if (obj.label != targetLabel) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
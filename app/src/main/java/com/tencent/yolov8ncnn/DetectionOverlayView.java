@@ -4,17 +4,31 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 
 /**
  * 用于在相机预览上绘制检测结果的覆盖视图
+ *
+ * 检测结果在检测线程中设置，只重绘新旧检测框（含标签）的并集区域。
+ * 绘制时不分配对象：坐标变换在尺寸变化时才重新计算，标签宽度按标签和语言缓存，字体度量只计算一次。
  */
 public class DetectionOverlayView extends View {
     
     private static final String TAG = "DetectionOverlayView";
     
+    private static final boolean DEBUG_LOG = false; // 设置为true可输出每个检测框的坐标转换日志
+    
+    // 边框粗细、标签文字大小和标签背景的内边距、圆角
+    private static final float BOX_STROKE_WIDTH = 5.0f;
+    private static final float LABEL_TEXT_SIZE = 48.0f;
+    private static final float LABEL_PADDING_X = 12.0f;
+    private static final float LABEL_PADDING_Y = 6.0f;
+    private static final float LABEL_CORNER_RADIUS = 16.0f;
+    
     // 框体颜色枚举
     public enum BoxColor {
         RED(Color.rgb(255, 217, 0)),  // rgba(255, 217, 0, 1)
@@ -43,22 +57,41 @@ public class DetectionOverlayView extends View {
     private Paint textBgPaint;
     private Paint textPaint;
     
-    // 检测到的对象数组
-    private Yolov8Ncnn.DetectedObject[] objects;
+    // 标签文字高度和下沉，文字大小固定，只计算一次
+    private float labelTextHeight;
+    private float labelTextDescent;
     
-    // 标签数组
-    private String[] labels;
+    // 检测到的对象数组，在检测线程中设置
+    private volatile Yolov8Ncnn.DetectedObject[] objects;
+    
+    // 标签数组及每个标签的文字宽度，切换语言时一起替换
+    private volatile String[] labels;
+    private volatile float[] labelWidths;
     
     // 边距调整
     private int marginLeft = 20;
     private int marginTop = 20;
     
     // 图像尺寸
-    private int imageWidth = 0;
-    private int imageHeight = 0;
+    private volatile int imageWidth = 0;
+    private volatile int imageHeight = 0;
     
     // 是否需要水平翻转（前置摄像头）
-    private boolean flipHorizontal = false;
+    private volatile boolean flipHorizontal = false;
+    
+    // 绘制时的坐标变换和临时结果
+    private final OverlayTransform drawTransform = new OverlayTransform();
+    private final float[] drawRect = new float[4];
+    private final RectF drawLabelRect = new RectF();
+    
+    // 设置检测结果时计算重绘区域用，与绘制分开，可在检测线程中使用
+    private final Object boundsLock = new Object();
+    private final OverlayTransform boundsTransform = new OverlayTransform();
+    private final float[] boundsRect = new float[4];
+    private final RectF boundsLabelRect = new RectF();
+    private final Rect drawnBounds = new Rect();
+    private final Rect newBounds = new Rect();
+    private final Rect dirtyBounds = new Rect();
     
     public DetectionOverlayView(Context context) {
         super(context);
@@ -79,7 +112,7 @@ public class DetectionOverlayView extends View {
         // 初始化画笔
         boxPaint = new Paint();
         boxPaint.setStyle(Paint.Style.STROKE);
-        boxPaint.setStrokeWidth(5.0f);
+        boxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
         boxPaint.setColor(currentBoxColor.getColor());
         
         textBgPaint = new Paint();
@@ -89,13 +122,17 @@ public class DetectionOverlayView extends View {
         textBgPaint.setAntiAlias(true);
         
         textPaint = new Paint();
-        textPaint.setTextSize(48.0f);  // 增加文字大小
+        textPaint.setTextSize(LABEL_TEXT_SIZE);  // 增加文字大小
         textPaint.setColor(Color.WHITE);
         textPaint.setStyle(Paint.Style.FILL);
         // 设置抗锯齿
         textPaint.setAntiAlias(true);
         // 设置粗体
         textPaint.setTypeface(android.graphics.Typeface.DEFAULT_BOLD);
+        
+        Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+        labelTextHeight = fontMetrics.descent - fontMetrics.ascent;
+        labelTextDescent = fontMetrics.descent;
     }
     
     /**
@@ -103,10 +140,7 @@ public class DetectionOverlayView extends View {
      * @param color 颜色枚举值
      */
     public void setBoxColor(BoxColor color) {
-        this.currentBoxColor = color;
-        boxPaint.setColor(color.getColor());
-        textBgPaint.setColor(color.getColor());
-        invalidate(); // 请求重绘
+        applyBoxColor(color);
     }
     
     /**
@@ -122,12 +156,13 @@ public class DetectionOverlayView extends View {
      * @param isCorrect 检测结果是否正确
      */
     public void setDetectionCorrect(boolean isCorrect) {
+        // 根据检测结果更新颜色，每帧都会调用，状态和颜色都不变时不重绘
+        BoxColor color = isCorrect ? BoxColor.GREEN : BoxColor.RED;
+        if (isCorrect == isDetectionCorrect && color == currentBoxColor) {
+            return;
+        }
         this.isDetectionCorrect = isCorrect;
-        // 根据检测结果更新颜色
-        currentBoxColor = isCorrect ? BoxColor.GREEN : BoxColor.RED;
-        boxPaint.setColor(currentBoxColor.getColor());
-        textBgPaint.setColor(currentBoxColor.getColor());
-        invalidate(); // 请求重绘
+        applyBoxColor(color);
     }
     
     /**
@@ -139,18 +174,33 @@ public class DetectionOverlayView extends View {
     }
     
     /**
-     * 设置检测到的对象
+     * 设置检测到的对象，可在任意线程调用，只重绘上一次与这一次检测框的并集
      */
     public void setDetectedObjects(Yolov8Ncnn.DetectedObject[] objects) {
-        this.objects = objects;
-        invalidate(); // 请求重绘
+        synchronized (boundsLock) {
+            computeBounds(objects, newBounds);
+            dirtyBounds.set(drawnBounds);
+            dirtyBounds.union(newBounds);
+            drawnBounds.set(newBounds);
+            this.objects = objects;
+            
+            if (!dirtyBounds.isEmpty()) {
+                postInvalidate(dirtyBounds.left, dirtyBounds.top, dirtyBounds.right, dirtyBounds.bottom);
+            }
+        }
     }
     
     /**
-     * 设置标签数组
+     * 设置标签数组，同时缓存每个标签的文字宽度
      */
     public void setLabels(String[] labels) {
+        float[] widths = new float[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            widths[i] = textPaint.measureText(labels[i]);
+        }
+        this.labelWidths = widths;
         this.labels = labels;
+        invalidateDrawn();
     }
     
     /**
@@ -168,122 +218,136 @@ public class DetectionOverlayView extends View {
         this.flipHorizontal = flip;
     }
     
+    // 颜色只影响已绘制的区域
+    private void applyBoxColor(BoxColor color) {
+        currentBoxColor = color;
+        boxPaint.setColor(color.getColor());
+        textBgPaint.setColor(color.getColor());
+        
+        // 根据背景色亮度选择文字颜色
+        int c = color.getColor();
+        textPaint.setColor((Color.red(c) + Color.green(c) + Color.blue(c) >= 381) ? Color.BLACK : Color.WHITE);
+        
+        invalidateDrawn();
+    }
+    
+    private void invalidateDrawn() {
+        synchronized (boundsLock) {
+            if (!drawnBounds.isEmpty()) {
+                postInvalidate(drawnBounds.left, drawnBounds.top, drawnBounds.right, drawnBounds.bottom);
+            }
+        }
+    }
+    
+    // 对象使用的帧尺寸，对象没有时回退到之前设置的图像尺寸，都没有时返回false
+    private boolean setTransform(OverlayTransform transform, Yolov8Ncnn.DetectedObject obj) {
+        int frameWidth = (obj.frameWidth > 0) ? obj.frameWidth : imageWidth;
+        int frameHeight = (obj.frameHeight > 0) ? obj.frameHeight : imageHeight;
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            return false; // 没有尺寸信息，无法绘制
+        }
+        transform.set(getWidth(), getHeight(), marginLeft, marginTop, frameWidth, frameHeight, flipHorizontal);
+        return true;
+    }
+    
+    // 标签背景的位置（标准样式放在边框上方），不含内边距
+    private void labelRect(float left, float top, float textWidth, RectF out) {
+        float labelX = left + 8;
+        float labelY = top - labelTextHeight - 15;
+        
+        // 确保标签在视图内
+        if (labelY < 0) {
+            labelY = 0;
+        }
+        if (labelX + textWidth > getWidth()) {
+            labelX = getWidth() - textWidth;
+        }
+        out.set(labelX, labelY, labelX + textWidth, labelY + labelTextHeight);
+    }
+    
+    // 检测框及其标签覆盖的区域，标签按显示处理，包含边框粗细和抗锯齿
+    private void computeBounds(Yolov8Ncnn.DetectedObject[] objects, Rect out) {
+        out.setEmpty();
+        final String[] labels = this.labels;
+        final float[] labelWidths = this.labelWidths;
+        if (objects == null || labels == null) {
+            return;
+        }
+        
+        final int inset = (int) Math.ceil(BOX_STROKE_WIDTH / 2) + 1;
+        for (Yolov8Ncnn.DetectedObject obj : objects) {
+            if (obj.label < 0 || obj.label >= labels.length || !setTransform(boundsTransform, obj)) {
+                continue;
+            }
+            
+            boundsTransform.map(obj.x, obj.y, obj.width, obj.height, boundsRect, 0);
+            float left = boundsRect[0];
+            float top = boundsRect[1];
+            out.union((int) Math.floor(left) - inset, (int) Math.floor(top) - inset,
+                    (int) Math.ceil(boundsRect[2]) + inset, (int) Math.ceil(boundsRect[3]) + inset);
+            
+            labelRect(left, top, labelWidths[obj.label], boundsLabelRect);
+            out.union((int) Math.floor(boundsLabelRect.left - LABEL_PADDING_X) - 1, (int) Math.floor(boundsLabelRect.top - LABEL_PADDING_Y) - 1,
+                    (int) Math.ceil(boundsLabelRect.right + LABEL_PADDING_X) + 1, (int) Math.ceil(boundsLabelRect.bottom + LABEL_PADDING_Y) + 1);
+        }
+    }
+    
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
         
+        final Yolov8Ncnn.DetectedObject[] objects = this.objects;
+        final String[] labels = this.labels;
+        final float[] labelWidths = this.labelWidths;
         if (objects == null || objects.length == 0 || labels == null) {
             return;
         }
         
-        int viewWidth = getWidth() - 2 * marginLeft;
-        int viewHeight = getHeight() - 2 * marginTop;
-        
         for (Yolov8Ncnn.DetectedObject obj : objects) {
             // 确保标签索引不越界
             if (obj.label < 0 || obj.label >= labels.length) {
                 continue;
             }
             
-            // 检查是否有帧尺寸信息
-            if (obj.frameWidth <= 0 || obj.frameHeight <= 0) {
-                // 如果对象没有帧尺寸信息，使用之前设置的图像尺寸
-                if (imageWidth <= 0 || imageHeight <= 0) {
-                    continue; // 没有尺寸信息，无法绘制
-                }
+            // 使用对象中的帧尺寸信息或者回退到之前设置的图像尺寸，尺寸不变时不重新计算
+            if (!setTransform(drawTransform, obj)) {
+                continue;
             }
             
-            // 使用对象中的帧尺寸信息或者回退到之前设置的图像尺寸
-            int frameWidth = (obj.frameWidth > 0) ? obj.frameWidth : imageWidth;
-            int frameHeight = (obj.frameHeight > 0) ? obj.frameHeight : imageHeight;
-            
-            // 计算缩放比例
-            float scaleX = (float) viewWidth / frameWidth;
-            float scaleY = (float) viewHeight / frameHeight;
-            
-            Log.d(TAG, String.format("视图尺寸: viewWidth=%d, viewHeight=%d", viewWidth, viewHeight));
-            Log.d(TAG, String.format("帧尺寸: frameWidth=%d, frameHeight=%d", frameWidth, frameHeight));
-            Log.d(TAG, String.format("缩放比例: scaleX=%.2f, scaleY=%.2f", scaleX, scaleY));
-            
-            // 使用当前设置的颜色
-            int color = currentBoxColor.getColor();
-            boxPaint.setColor(color);
-            textBgPaint.setColor(color);
+            // 坐标转换 - 将图像坐标转换为视图坐标，前置摄像头时水平翻转
+            drawTransform.map(obj.x, obj.y, obj.width, obj.height, drawRect, 0);
+            float left = drawRect[0];
+            float top = drawRect[1];
+            float right = drawRect[2];
+            float bottom = drawRect[3];
             
-            float objX = obj.x;
-            float objWidth = obj.width;
-            
-            // 如果需要水平翻转（前置摄像头）
-            if (flipHorizontal) {
-                objX = frameWidth - obj.x - obj.width;
+            if (DEBUG_LOG) {
+                Log.d(TAG, String.format("缩放比例: scaleX=%.2f, scaleY=%.2f", drawTransform.scaleX(), drawTransform.scaleY()));
+                Log.d(TAG, String.format("原始坐标: x=%.1f, y=%.1f, w=%.1f, h=%.1f", obj.x, obj.y, obj.width, obj.height));
+                Log.d(TAG, String.format("转换坐标: left=%.1f, top=%.1f, right=%.1f, bottom=%.1f", left, top, right, bottom));
             }
             
-            // 坐标转换 - 将图像坐标转换为视图坐标
-            float left = objX * scaleX + marginLeft;
-            float top = obj.y * scaleY + marginTop;
-            float right = left + (objWidth * scaleX);
-            float bottom = top + (obj.height * scaleY);
-            
-            // 输出日志用于调试
-            Log.d(TAG, String.format("原始坐标: x=%.1f, y=%.1f, w=%.1f, h=%.1f", 
-                obj.x, obj.y, obj.width, obj.height));
-            Log.d(TAG, String.format("转换坐标: left=%.1f, top=%.1f, right=%.1f, bottom=%.1f", 
-                left, top, right, bottom));
-            
             // 绘制边框（标准样式用5.0粗细）
-            boxPaint.setStrokeWidth(5.0f);
             canvas.drawRect(left, top, right, bottom, boxPaint);
             
             // 只有当检测结果正确时才显示标签
             if (isDetectionCorrect) {
-                // 标准样式显示标签和概率
-                String text = String.format("%s", labels[obj.label]);
-                
-                // 使用标准文本大小
-                textPaint.setTextSize(48.0f);  // 增加文字大小
-                
-                // 计算文本尺寸
-                float textWidth = textPaint.measureText(text);
-                Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
-                float textHeight = fontMetrics.descent - fontMetrics.ascent;
-                
-                // 计算标签位置（标准样式放在边框上方）
-                float labelX = left + 8;
-                float labelY = top - textHeight - 15;
-                
-                // 确保标签在视图内
-                if (labelY < 0) {
-                    labelY = 0;
-                }
-                if (labelX + textWidth > getWidth()) {
-                    labelX = getWidth() - textWidth;
-                }
-                
-                // 设置内边距
-                float paddingX = 12.0f;  // 内边距大小
-                float paddingY = 6.0f;
-                float cornerRadius = 16.0f;  // 圆角半径
+                String text = labels[obj.label];
+                labelRect(left, top, labelWidths[obj.label], drawLabelRect);
                 
                 // 绘制圆角矩形背景
                 canvas.drawRoundRect(
-                    labelX - paddingX, 
-                    labelY - paddingY, 
-                    labelX + textWidth + paddingX, 
-                    labelY + textHeight + paddingY,
-                    cornerRadius,
-                    cornerRadius,
+                    drawLabelRect.left - LABEL_PADDING_X,
+                    drawLabelRect.top - LABEL_PADDING_Y,
+                    drawLabelRect.right + LABEL_PADDING_X,
+                    drawLabelRect.bottom + LABEL_PADDING_Y,
+                    LABEL_CORNER_RADIUS,
+                    LABEL_CORNER_RADIUS,
                     textBgPaint
                 );
                 
-                // 根据背景色亮度选择文字颜色
-                int r = Color.red(color);
-                int g = Color.green(color);
-                int b = Color.blue(color);
-                int textColor = (r + g + b >= 381) ? Color.BLACK : Color.WHITE;
-                textPaint.setColor(textColor);
-                
                 // 绘制文本
-                canvas.drawText(text, labelX, labelY + textHeight - fontMetrics.descent, textPaint);
+                canvas.drawText(text, drawLabelRect.left, drawLabelRect.top + labelTextHeight - labelTextDescent, textPaint);
             }
         }
     }
@@ -292,9 +356,6 @@ public class DetectionOverlayView extends View {
      * 重置为默认颜色（蓝色）
      */
     public void resetToDefaultColor() {
-        currentBoxColor = BoxColor.BLUE;
-        boxPaint.setColor(currentBoxColor.getColor());
-        textBgPaint.setColor(currentBoxColor.getColor());
-        invalidate(); // 请求重绘
+        applyBoxColor(BoxColor.BLUE);
     }
-} 
\ No newline at end of file
+}
@@ -54,8 +54,11 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
 
     private Spinner spinnerModel;
     private Spinner spinnerCPUGPU;
-    private int current_model = 1; // 0: yolov8n, 1: yolov8s
-    private int current_cpugpu = 0;
+    private int current_model = ModelLoader.DEFAULT_MODEL; // 0: yolov8n, 1: yolov8s
+    private int current_cpugpu = ModelLoader.DEFAULT_CPUGPU;
+    
+    // 点击识别时模型还未就绪，正在等待加载完成
+    private boolean waitingForModel = false;
     
     // 添加UI控制选项
     private boolean ui_enabled = false; // 默认启用UI
@@ -69,6 +72,9 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
     private Spinner spinnerTargetLabel;
     private int current_target_label = 0; // 默认值，将从配置文件获取
     
+    // 目标区域聚焦时每隔多少次检测整帧检测一次
+    private static final int ROI_FULL_FRAME_INTERVAL = 10;
+    
     // 中文标签数组
     private static final String[] CHINESE_LABELS = {
         "人", "自行车", "汽车", "摩托车", "飞机", "公交车", "火车", "卡车", "船", "交通灯",
@@ -95,28 +101,24 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         "hair drier", "toothbrush"
     };
     
-    // 检测到的对象列表
-    private Yolov8Ncnn.DetectedObject[] detectedObjects;
-    
     // 检测结果覆盖视图
     private DetectionOverlayView detectionOverlay;
     
-    // 检测结果监听器
-    private Yolov8Ncnn.DetectionListener detectionListener = new Yolov8Ncnn.DetectionListener() {
+    // 检测结果监听器，每帧收到复用的DetectionBatch
+    private Yolov8Ncnn.DetectionBatchListener detectionListener = new Yolov8Ncnn.DetectionBatchListener() {
         @Override
-        public void onObjectsDetected(Yolov8Ncnn.DetectedObject[] objects) {
-            detectedObjects = objects;
-            
+        public void onDetections(DetectionBatch batch) {
             // 更新覆盖视图显示检测结果
             if (detectionOverlay != null) {
                 // 筛选检测结果
-                Yolov8Ncnn.DetectedObject[] filteredObjects = getHighestConfidenceObject(objects);
+                Yolov8Ncnn.DetectedObject[] filteredObjects = DetectionFilter.selectTargets(batch, current_target_label);
                 detectionOverlay.setDetectedObjects(filteredObjects);
                 
-                // 如果有对象，且第一个对象包含帧尺寸信息，则更新imageWidth和imageHeight
-                if (objects != null && objects.length > 0 && objects[0].frameWidth > 0 && objects[0].frameHeight > 0) {
-                    imageWidth = objects[0].frameWidth;
-                    imageHeight = objects[0].frameHeight;
+                // 帧尺寸随每帧结果一起传递
+                if (batch.frameWidth() > 0 && batch.frameHeight() > 0
+                        && (batch.frameWidth() != imageWidth || batch.frameHeight() != imageHeight)) {
+                    imageWidth = batch.frameWidth();
+                    imageHeight = batch.frameHeight();
                     detectionOverlay.setImageSize(imageWidth, imageHeight);
                 }
                 
@@ -131,39 +133,8 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         }
     };
 
-    // 筛选出检测结果
-    private Yolov8Ncnn.DetectedObject[] getHighestConfidenceObject(Yolov8Ncnn.DetectedObject[] objects) {
-        if (objects == null || objects.length == 0) {
-            return null;
-        }
-        
-        // 收集所有目标物体
-        java.util.List<Yolov8Ncnn.DetectedObject> targetObjects = new java.util.ArrayList<>();
-        
-        // 同时记录置信度最高的物体（用于没有目标物体时）
-        Yolov8Ncnn.DetectedObject highestObject = objects[0];
-        
-        for (Yolov8Ncnn.DetectedObject obj : objects) {
-            // 更新置信度最高的物体
-            if (obj.prob > highestObject.prob) {
-                highestObject = obj;
-            }
-            
-            // 如果是目标标签物体，添加到列表中
-            if (obj.label == current_target_label) {
-                targetObjects.add(obj);
-            }
-        }
-        
-        // 如果找到了目标物体，返回所有目标物体
-        if (!targetObjects.isEmpty()) {
-            Yolov8Ncnn.DetectedObject[] result = new Yolov8Ncnn.DetectedObject[targetObjects.size()];
-            return targetObjects.toArray(result);
-        }
-        
-        // 否则返回置信度最高的物体
-        return new Yolov8Ncnn.DetectedObject[] { highestObject };
-    }
+    // 上一次识别成功的物体的跟踪id，同一物体不重复播放提示音
+    private int lastConfirmedTrackId = -1;
     
     // 检查是否匹配目标标签
     private void checkTargetLabelMatch(Yolov8Ncnn.DetectedObject[] detectedObjects) {
@@ -174,13 +145,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         }
         
         // 检查是否全部都是目标标签
-        boolean allAreTargetLabel = true;
-        for (Yolov8Ncnn.DetectedObject obj : detectedObjects) {
-            if (obj.label != current_target_label) {
-                allAreTargetLabel = false;
-                break;
-            }
-        }
+        boolean allAreTargetLabel = DetectionFilter.allMatch(detectedObjects, current_target_label);
         
         int targetLabelIndex = current_target_label;
         String targetLabel = getLabelText(targetLabelIndex);
@@ -188,7 +153,10 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         if (allAreTargetLabel) {
             // 全部是目标标签
             // updateDetectionStatus(true, "正确: 检测到" + detectedObjects.length + "个" + targetLabel);
-            updateDetectionStatus(true, "已识别");
+            int trackId = detectedObjects[0].trackId;
+            boolean sameObject = trackId >= 0 && trackId == lastConfirmedTrackId;
+            lastConfirmedTrackId = trackId;
+            updateDetectionStatus(true, "已识别", !sameObject);
         } else {
             // 如果只有一个物体且不是目标标签
             if (detectedObjects.length == 1) {
@@ -205,6 +173,10 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
     
     // 更新检测状态提示
     private void updateDetectionStatus(boolean isCorrect, String message) {
+        updateDetectionStatus(isCorrect, message, isCorrect);
+    }
+    
+    private void updateDetectionStatus(boolean isCorrect, String message, boolean playSound) {
         if (statusText != null) {
             // 显示识别结果
             statusText.setText(message);
@@ -224,7 +196,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         }
         
         // 如果检测正确，播放提示音
-        if (isCorrect) {
+        if (playSound) {
             playDetectionSound();
         }
     }
@@ -441,6 +413,8 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
                 @Override
                 public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                     current_target_label = position;
+                    yolov8ncnn.setRoiFocus(current_target_label, ROI_FULL_FRAME_INTERVAL);
+                    yolov8ncnn.setClassFilter(new int[] { current_target_label }, true);
                     // 更新选择的目标标签
                     Log.i("MainActivity", "目标标签已设置为: " + getLabelText(position));
                 }
@@ -511,6 +485,24 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
                         break;
                         
                     case READY_TO_DETECT:
+                        // 模型还在加载时等加载完成再识别
+                        if (!ModelLoader.getInstance().isReady()) {
+                            if (!waitingForModel) {
+                                waitingForModel = true;
+                                statusText.setText("模型加载中...");
+                                ModelLoader.getInstance().whenReady(new ModelLoader.Callback() {
+                                    @Override
+                                    public void onModelReady(boolean success) {
+                                        waitingForModel = false;
+                                        if (currentState == AppState.READY_TO_DETECT) {
+                                            updateAppState(AppState.DETECTING);
+                                        }
+                                    }
+                                });
+                            }
+                            break;
+                        }
+                        
                         // 点击"识别"按钮，进入DETECTING状态，对当前画面进行物体检测
                         updateAppState(AppState.DETECTING);
                         break;
@@ -535,6 +527,8 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         });
 
         spinnerModel = (Spinner) findViewById(R.id.spinnerModel);
+        // 先选中当前模型，避免首次回调再加载一个不同的模型
+        spinnerModel.setSelection(current_model);
         spinnerModel.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> arg0, View arg1, int position, long id)
@@ -553,6 +547,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         });
 
         spinnerCPUGPU = (Spinner) findViewById(R.id.spinnerCPUGPU);
+        spinnerCPUGPU.setSelection(current_cpugpu);
         spinnerCPUGPU.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> arg0, View arg1, int position, long id)
@@ -577,7 +572,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         updateLanguageOption();
 
         // 设置检测结果监听器
-        yolov8ncnn.setDetectionListener(detectionListener);
+        yolov8ncnn.setDetectionBatchListener(detectionListener);
 
         // 初始化覆盖视图
         if (detectionOverlay != null) {
@@ -585,8 +580,11 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
             detectionOverlay.setLabels(current_language == 0 ? CHINESE_LABELS : ENGLISH_LABELS);
         }
 
-        // 初始化YOLO模型
-        yolov8ncnn.loadModel(getAssets(), current_model, current_cpugpu);
+        // 连续检测时聚焦在目标标签附近
+        yolov8ncnn.setRoiFocus(current_target_label, ROI_FULL_FRAME_INTERVAL);
+        
+        // 只需要目标标签的物体，没有时只需要置信度最高的一个
+        yolov8ncnn.setClassFilter(new int[] { current_target_label }, true);
         
         // 启用中文标签显示（0=中文，1=英文）
         yolov8ncnn.setLanguage(0);
@@ -657,13 +655,19 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback
         }
     }
 
+    // 模型在后台加载，启动页已开始加载的同一模型不会重复加载
     private void reload()
     {
-        boolean ret_init = yolov8ncnn.loadModel(getAssets(), current_model, current_cpugpu);
-        if (!ret_init)
-        {
-            Log.e("MainActivity", "yolov8ncnn loadModel failed");
-        }
+        ModelLoader.getInstance().load(getAssets(), current_model, current_cpugpu);
+        ModelLoader.getInstance().whenReady(new ModelLoader.Callback() {
+            @Override
+            public void onModelReady(boolean success) {
+                if (!success)
+                {
+                    Log.e("MainActivity", "yolov8ncnn loadModel failed");
+                }
+            }
+        });
     }
 
     @Override
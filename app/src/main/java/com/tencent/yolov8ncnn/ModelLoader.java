@@ -0,0 +1,120 @@
+package com.tencent.yolov8ncnn;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在后台线程加载模型，native在替换当前模型前用合成帧预热一次
+ *
+ * 模型由native全局持有，启动页即开始加载，MainActivity等待就绪后再检测，界面不会卡顿。
+ * 加载任务按请求顺序在同一个后台线程执行，状态和回调都在主线程访问。
+ */
+public final class ModelLoader {
+
+    private static final String TAG = "ModelLoader";
+
+    // 默认模型（0: yolov8n, 1: yolov8s）与后端（0: cpu, 1: gpu），MainActivity以此为初始值
+    public static final int DEFAULT_MODEL = 0;
+    public static final int DEFAULT_CPUGPU = 0;
+
+    public interface Callback {
+        // 在主线程调用，success为false表示加载或预热失败
+        void onModelReady(boolean success);
+    }
+
+    private static final ModelLoader instance = new ModelLoader();
+
+    public static ModelLoader getInstance() {
+        return instance;
+    }
+
+    private final Yolov8Ncnn yolov8ncnn = new Yolov8Ncnn();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // 最近一次请求的模型
+    private Yolov8Ncnn.ModelSpec spec = null;
+    private int generation = 0;
+
+    private boolean ready = false;
+    private boolean success = false;
+    private final List<Callback> callbacks = new ArrayList<>();
+
+    private ModelLoader() {
+    }
+
+    // 以默认输入尺寸加载
+    public void load(AssetManager mgr, int model, int cpugpu) {
+        load(mgr, new Yolov8Ncnn.ModelSpec(model, cpugpu));
+    }
+
+    /**
+     * 开始加载，与最近一次请求相同的模型不会重复加载，需在主线程调用
+     */
+    public void load(final AssetManager mgr, final Yolov8Ncnn.ModelSpec spec) {
+        if (spec.equals(this.spec)) {
+            return;
+        }
+
+        this.spec = spec;
+        this.ready = false;
+
+        final int gen = ++generation;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                final boolean ok = yolov8ncnn.loadModel(mgr, spec);
+                Log.i(TAG, "模型" + spec.model + "/" + spec.cpugpu + "/" + yolov8ncnn.getInputSize() + "加载及预热耗时 " + (SystemClock.elapsedRealtime() - start) + " ms");
+                Log.i(TAG, "推理选项 " + yolov8ncnn.getInferenceOptions());
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(gen, ok);
+                    }
+                });
+            }
+        });
+    }
+
+    // 最近一次请求的模型是否已可用
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 最近一次请求的模型就绪后在主线程回调，已就绪时立即回调，需在主线程调用
+     */
+    public void whenReady(Callback callback) {
+        if (ready) {
+            callback.onModelReady(success);
+            return;
+        }
+        callbacks.add(callback);
+    }
+
+    private void finish(int gen, boolean ok) {
+        // 已有更新的请求，等待它完成再回调
+        if (gen != generation) {
+            return;
+        }
+
+        ready = true;
+        success = ok;
+
+        List<Callback> pending = new ArrayList<>(callbacks);
+        callbacks.clear();
+        for (Callback callback : pending) {
+            callback.onModelReady(ok);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.tencent.yolov8ncnn;
+
+/**
+ * 检测框从帧坐标到覆盖视图坐标的映射
+ *
+ * 帧缩放到去掉边距后的视图区域，前置摄像头时先水平翻转。
+ * 不依赖Android，jmh模块直接编译本文件做基准测试。
+ */
+final class OverlayTransform {
+
+    private float scaleX;
+    private float scaleY;
+    private float offsetX;
+    private float offsetY;
+    private boolean flipHorizontal;
+
+    // 上一次set的参数，不变时不重新计算
+    private int viewWidth;
+    private int viewHeight;
+    private int marginLeft;
+    private int marginTop;
+    private int frameWidth;
+    private int frameHeight;
+
+    /**
+     * 视图宽高包含两侧的边距，参数与上一次相同时直接返回
+     */
+    void set(int viewWidth, int viewHeight, int marginLeft, int marginTop, int frameWidth, int frameHeight, boolean flipHorizontal) {
+        if (viewWidth == this.viewWidth && viewHeight == this.viewHeight && marginLeft == this.marginLeft && marginTop == this.marginTop
+                && frameWidth == this.frameWidth && frameHeight == this.frameHeight && flipHorizontal == this.flipHorizontal) {
+            return;
+        }
+
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.marginLeft = marginLeft;
+        this.marginTop = marginTop;
+        this.frameHeight = frameHeight;
+        this.scaleX = (float) (viewWidth - 2 * marginLeft) / frameWidth;
+        this.scaleY = (float) (viewHeight - 2 * marginTop) / frameHeight;
+        this.offsetX = marginLeft;
+        this.offsetY = marginTop;
+        this.frameWidth = frameWidth;
+        this.flipHorizontal = flipHorizontal;
+    }
+
+    float scaleX() {
+        return scaleX;
+    }
+
+    float scaleY() {
+        return scaleY;
+    }
+
+    /**
+     * 按left、top、right、bottom写入out[offset]起的4个元素
+     */
+    void map(float x, float y, float width, float height, float[] out, int offset) {
+        // 如果需要水平翻转（前置摄像头）
+        if (flipHorizontal) {
+            x = frameWidth - x - width;
+        }
+        
+        float left = x * scaleX + offsetX;
+        float top = y * scaleY + offsetY;
+        out[offset] = left;
+        out[offset + 1] = top;
+        out[offset + 2] = left + width * scaleX;
+        out[offset + 3] = top + height * scaleY;
+    }
+}
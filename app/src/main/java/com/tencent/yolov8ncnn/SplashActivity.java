@@ -44,6 +44,9 @@ public class SplashActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
+        // 启动页显示期间在后台加载并预热默认模型
+        ModelLoader.getInstance().load(getAssets(), ModelLoader.DEFAULT_MODEL, ModelLoader.DEFAULT_CPUGPU);
+        
         // 从配置文件中获取参数
         DELAY_TIME = getResources().getInteger(R.integer.splash_delay_time);
         
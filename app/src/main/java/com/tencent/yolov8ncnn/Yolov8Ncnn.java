@@ -15,26 +15,314 @@
 package com.tencent.yolov8ncnn;
 
 import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Surface;
 
 public class Yolov8Ncnn
 {
+    // 新模型在调用线程上加载并用合成帧预热后才替换当前模型，期间预览和检测继续使用旧模型
     public native boolean loadModel(AssetManager mgr, int modelid, int cpugpu);
+    
+    public native boolean loadModelSpec(AssetManager mgr, int modelid, int cpugpu, int inputSize, float latencyBudgetMs, boolean int8,
+                                        int numThreads, int powersave, boolean lightMode, boolean fp16, boolean winograd, boolean sgemm, boolean packing);
+    
+    // 按模型规格加载，失败时保留当前模型
+    // 与已加载的模型只有线程数/省电模式/light mode不同时直接修改该模型，不重新加载
+    public boolean loadModel(AssetManager mgr, ModelSpec spec) {
+        InferenceOptions o = spec.options;
+        return loadModelSpec(mgr, spec.model, spec.cpugpu, spec.inputSize, spec.latencyBudgetMs, spec.int8,
+                o.numThreads, o.powersave, o.lightMode, o.fp16, o.winograd, o.sgemm, o.packing);
+    }
+    
+    // 当前模型实际使用的输入尺寸，自动模式下为校准选出的尺寸，没有模型时为0
+    public native int getInputSize();
+    
+    // 当前模型实际生效的推理选项，线程数为实际值，设备不支持的选项为false，没有模型时为null
+    public InferenceOptions getInferenceOptions() {
+        int[] values = nativeGetInferenceOptions();
+        return values == null ? null : InferenceOptions.fromNative(values);
+    }
+    
+    private native int[] nativeGetInferenceOptions();
+    
+    /**
+     * ncnn推理选项，默认值与ncnn一致并绑定大核
+     * 线程数、省电模式和lightMode可以在已加载的模型上直接修改
+     * fp16、winograd、sgemm和packing决定加载时生成的权重布局，修改后需在后台重新构建模型，期间继续使用旧模型
+     */
+    public static final class InferenceOptions {
+        public static final int POWERSAVE_ALL = 0;      // 全部核心
+        public static final int POWERSAVE_LITTLE = 1;   // 只用小核
+        public static final int POWERSAVE_BIG = 2;      // 只用大核
+        
+        public final int numThreads;        // 0为大核数
+        public final int powersave;
+        public final boolean lightMode;     // 中间结果用完即释放，降低内存峰值
+        public final boolean fp16;          // fp16存储和计算，gpu或armv8.2以上的cpu才生效
+        public final boolean winograd;
+        public final boolean sgemm;
+        public final boolean packing;
+        
+        public InferenceOptions() {
+            this(0, POWERSAVE_BIG, true, true, true, true, true);
+        }
+        
+        private InferenceOptions(int numThreads, int powersave, boolean lightMode, boolean fp16, boolean winograd, boolean sgemm, boolean packing) {
+            this.numThreads = numThreads;
+            this.powersave = powersave;
+            this.lightMode = lightMode;
+            this.fp16 = fp16;
+            this.winograd = winograd;
+            this.sgemm = sgemm;
+            this.packing = packing;
+        }
+        
+        // 顺序与yolov8ncnn.cpp中的nativeGetInferenceOptions一致
+        static InferenceOptions fromNative(int[] v) {
+            return new InferenceOptions(v[0], v[1], v[2] != 0, v[3] != 0, v[4] != 0, v[5] != 0, v[6] != 0);
+        }
+        
+        public InferenceOptions withNumThreads(int numThreads) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withPowersave(int powersave) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withLightMode(boolean lightMode) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withFp16(boolean fp16) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withWinograd(boolean winograd) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withSgemm(boolean sgemm) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        public InferenceOptions withPacking(boolean packing) {
+            return new InferenceOptions(numThreads, powersave, lightMode, fp16, winograd, sgemm, packing);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof InferenceOptions)) {
+                return false;
+            }
+            InferenceOptions other = (InferenceOptions) o;
+            return numThreads == other.numThreads && powersave == other.powersave && lightMode == other.lightMode
+                    && fp16 == other.fp16 && winograd == other.winograd && sgemm == other.sgemm && packing == other.packing;
+        }
+        
+        @Override
+        public int hashCode() {
+            int flags = (lightMode ? 1 : 0) | (fp16 ? 2 : 0) | (winograd ? 4 : 0) | (sgemm ? 8 : 0) | (packing ? 16 : 0);
+            return ((numThreads * 31 + powersave) * 31) + flags;
+        }
+        
+        @Override
+        public String toString() {
+            return "threads=" + numThreads + " powersave=" + powersave + " lightMode=" + lightMode
+                    + " fp16=" + fp16 + " winograd=" + winograd + " sgemm=" + sgemm + " packing=" + packing;
+        }
+    }
+    
+    /**
+     * 模型规格：模型、后端和网络输入尺寸
+     * inputSize为32的倍数（如320/416/512/640），越大远处小目标越容易检出但耗时越长
+     * inputSize为INPUT_SIZE_AUTO时加载时用合成帧逐个测量候选尺寸，选出耗时不超过latencyBudgetMs的最大尺寸
+     * int8为true时加载tools/quantize生成的yolov8X-int8量化模型，只能用cpu
+     * options为ncnn推理选项，见InferenceOptions
+     */
+    public static final class ModelSpec {
+        public static final int INPUT_SIZE_AUTO = 0;
+        public static final int DEFAULT_INPUT_SIZE = 320;
+        
+        public final int model;             // 0: yolov8n, 1: yolov8s
+        public final int cpugpu;            // 0: cpu, 1: gpu
+        public final int inputSize;
+        public final float latencyBudgetMs; // 只在自动模式下使用
+        public final boolean int8;
+        public final InferenceOptions options;
+        
+        public ModelSpec(int model, int cpugpu) {
+            this(model, cpugpu, DEFAULT_INPUT_SIZE);
+        }
+        
+        public ModelSpec(int model, int cpugpu, int inputSize) {
+            this(model, cpugpu, inputSize, 0.f, false, new InferenceOptions());
+        }
+        
+        private ModelSpec(int model, int cpugpu, int inputSize, float latencyBudgetMs, boolean int8, InferenceOptions options) {
+            this.model = model;
+            this.cpugpu = cpugpu;
+            this.inputSize = inputSize;
+            this.latencyBudgetMs = latencyBudgetMs;
+            this.int8 = int8;
+            this.options = options;
+        }
+        
+        // 自动选择输入尺寸
+        public static ModelSpec auto(int model, int cpugpu, float latencyBudgetMs) {
+            return new ModelSpec(model, cpugpu, INPUT_SIZE_AUTO, latencyBudgetMs, false, new InferenceOptions());
+        }
+        
+        // 同一规格的int8量化版本
+        public ModelSpec asInt8() {
+            return new ModelSpec(model, 0, inputSize, latencyBudgetMs, true, options);
+        }
+        
+        // 同一规格使用另一组推理选项
+        public ModelSpec withOptions(InferenceOptions options) {
+            return new ModelSpec(model, cpugpu, inputSize, latencyBudgetMs, int8, options);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ModelSpec)) {
+                return false;
+            }
+            ModelSpec other = (ModelSpec) o;
+            return model == other.model && cpugpu == other.cpugpu && inputSize == other.inputSize
+                    && Float.compare(latencyBudgetMs, other.latencyBudgetMs) == 0 && int8 == other.int8
+                    && options.equals(other.options);
+        }
+        
+        @Override
+        public int hashCode() {
+            int h = (((model * 31 + cpugpu) * 31 + inputSize) * 31 + Float.floatToIntBits(latencyBudgetMs)) * 2 + (int8 ? 1 : 0);
+            return h * 31 + options.hashCode();
+        }
+    }
+    
+    // 已加载的模型常驻内存，切换回来时不需要重新加载；估计内存超过megabytes时淘汰最久未使用的模型（默认128）
+    public native boolean setModelCacheBudget(int megabytes);
     public native boolean openCamera(int facing);
     public native boolean closeCamera();
     public native boolean setOutputWindow(Surface surface);
     public native boolean setUIOptions(boolean showUI);
     public native boolean setLanguage(int languageID);
     
+    // 设置跟踪：开启时每detectInterval帧运行一次网络，其余帧的框由跟踪器预测，1表示每帧都运行网络（默认开启，间隔1）
+    public native boolean setTrackerOptions(boolean enabled, int detectInterval);
+    
+    // 设置目标区域聚焦：见过targetLabel后以其上一次的框为中心裁出网络输入大小的区域按原始分辨率检测，提高远处小目标的检出率
+    // 每fullFrameInterval次检测中有一次检测整帧以重新捕获目标，targetLabel<0关闭（默认关闭），单次检测总是检测整帧
+    public native boolean setRoiFocus(int targetLabel, int fullFrameInterval);
+    
+    // 设置运动门：画面相对上一次推理的帧几乎不变时跳过推理并保留上一次的结果（默认关闭）
+    // blockThreshold为分块亮度均值的变化阈值（0~255），maxStaleMs为静止画面重新推理的最长间隔（<=0不强制）
+    public native boolean setMotionGate(boolean enabled, float blockThreshold, int maxStaleMs);
+    
+    // 设置推理节奏：targetFps为推理帧率上限（<=0不限制），推理耗时超过latencyBudgetMs时按超出比例拉长间隔（<=0关闭）
+    // 上一帧推理未完成时新帧总是在源头丢弃
+    public native boolean setFramePacing(float targetFps, float latencyBudgetMs);
+    
     // 添加暂停相机预览的方法
     public native boolean pauseCameraPreview();
     
     // 添加恢复相机预览的方法 
     public native boolean resumeCameraPreview();
     
-    // 添加检测当前帧的方法
+    // 添加检测当前帧的方法，立即返回，结果通过检测结果监听器送达
     public native boolean detectCurrentFrame();
     
+    // 单次检测的结果
+    public static class FrameDetection {
+        public int requestId;
+        public int frameSeq;              // 被检测的相机帧序号，超时时为-1
+        public float latencyMs;           // 从请求到结果就绪的耗时
+        public float inferenceMs;         // 其中推理与后处理的耗时
+        public boolean timedOut;          // 超时时objects为null
+        public DetectedObject[] objects;
+    }
+    
+    public interface FrameDetectionCallback {
+        void onFrameDetected(FrameDetection result);
+    }
+    
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // 一次单次检测请求，native在结果就绪时调用complete，超时由主线程取消，二者只有一个生效
+    private static final class PendingDetection implements Runnable {
+        final FrameDetectionCallback callback;
+        final long startTime = System.nanoTime();
+        int requestId;
+        
+        PendingDetection(FrameDetectionCallback callback) {
+            this.callback = callback;
+        }
+        
+        // 由native在检测线程中调用
+        private void complete(int requestId, int frameSeq, float inferenceMs, DetectedObject[] objects) {
+            final FrameDetection result = new FrameDetection();
+            result.requestId = requestId;
+            result.frameSeq = frameSeq;
+            result.latencyMs = (System.nanoTime() - startTime) / 1e6f;
+            result.inferenceMs = inferenceMs;
+            result.objects = objects;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mainHandler.removeCallbacks(PendingDetection.this);
+                    callback.onFrameDetected(result);
+                }
+            });
+        }
+        
+        // 超时
+        @Override
+        public void run() {
+            if (!nativeCancelDetection(requestId))
+                return;
+            
+            FrameDetection result = new FrameDetection();
+            result.requestId = requestId;
+            result.frameSeq = -1;
+            result.latencyMs = (System.nanoTime() - startTime) / 1e6f;
+            result.timedOut = true;
+            callback.onFrameDetected(result);
+        }
+    }
+    
+    // 检测下一帧相机画面（预览暂停时也会取一帧），不阻塞调用线程
+    // 结果或超时在主线程回调且只回调一次；返回请求id，相机或模型未就绪、已有请求未完成时返回-1
+    public int detectNextFrame(long timeoutMs, FrameDetectionCallback callback) {
+        PendingDetection pending = new PendingDetection(callback);
+        int requestId = nativeDetectNextFrame(pending);
+        if (requestId < 0)
+            return -1;
+        
+        pending.requestId = requestId;
+        mainHandler.postDelayed(pending, timeoutMs);
+        return requestId;
+    }
+    
+    private native int nativeDetectNextFrame(Object pending);
+    private static native boolean nativeCancelDetection(int requestId);
+    
+    // 设置流水线模式：开启时预览按相机帧率显示，检测在独立线程中处理最新的一帧（默认开启）
+    public native boolean setAsyncInference(boolean enabled);
+    
+    // 设置后处理参数：置信度阈值、nms阈值、nms前保留的候选数、最多输出的目标数（<=0不限制）、是否按类别分别做nms
+    // 默认 0.4, 0.5, 300, 100, false
+    public native boolean setNmsOptions(float probThreshold, float nmsThreshold, int topK, int maxDetections, boolean classAware);
+    
+    // 设置类别过滤：只解码、做nms并回传labels中的类别，可同时选多个目标，null或空数组关闭过滤（默认关闭）
+    // keepBestOther为true时，没有任何选中类别的目标时额外保留其他类别中置信度最高的一个
+    public native boolean setClassFilter(int[] labels, boolean keepBestOther);
+    
+    public boolean setClassFilter(int[] labels) {
+        return setClassFilter(labels, false);
+    }
+    
     // 回调接口，用于获取检测结果
     public interface DetectionListener {
         void onObjectsDetected(DetectedObject[] objects);
@@ -43,6 +331,28 @@ public class Yolov8Ncnn
     // 设置检测结果监听器
     public native boolean setDetectionListener(DetectionListener listener);
     
+    // 批量回调接口，每帧只传一个复用的DetectionBatch，稳定运行时不分配Java对象
+    public interface DetectionBatchListener {
+        void onDetections(DetectionBatch batch);
+    }
+    
+    // 设置批量检测结果监听器，可与DetectionListener同时使用，传null取消
+    public boolean setDetectionBatchListener(DetectionBatchListener listener) {
+        return setDetectionBatchListener(listener, DetectionBatch.DEFAULT_CAPACITY);
+    }
+    
+    // capacity为每帧最多传递的目标数
+    public boolean setDetectionBatchListener(DetectionBatchListener listener, int capacity) {
+        if (listener == null) {
+            return nativeSetDetectionBatchListener(null, null, null);
+        }
+        
+        // 双缓冲，native轮流填充
+        return nativeSetDetectionBatchListener(listener, new DetectionBatch(capacity), new DetectionBatch(capacity));
+    }
+    
+    private native boolean nativeSetDetectionBatchListener(DetectionBatchListener listener, DetectionBatch batch0, DetectionBatch batch1);
+    
     // 检测到的对象类
     public static class DetectedObject {
         public float x;       // 矩形左上角x坐标
@@ -53,9 +363,10 @@ public class Yolov8Ncnn
         public float prob;    // 置信度
         public int frameWidth;  // 当前画面总宽度
         public int frameHeight; // 当前画面总高度
+        public int trackId;     // 跟踪id，同一物体跨帧保持不变，未跟踪时为-1
         
         // 通过JNI创建对象的方法
-        private static DetectedObject create(float x, float y, float width, float height, int label, float prob, int frameWidth, int frameHeight) {
+        private static DetectedObject create(float x, float y, float width, float height, int label, float prob, int frameWidth, int frameHeight, int trackId) {
             DetectedObject obj = new DetectedObject();
             obj.x = x;
             obj.y = y;
@@ -65,12 +376,59 @@ public class Yolov8Ncnn
             obj.prob = prob;
             obj.frameWidth = frameWidth;
             obj.frameHeight = frameHeight;
+            obj.trackId = trackId;
             return obj;
         }
     }
 
     // 获取当前帧尺寸的方法
     public native int[] getFrameSize();
+    
+    // 自上次重置以来的流水线统计，布局见PipelineStats，耗时单位为微秒
+    public native long[] getPipelineStats();
+    
+    // 清零统计并重新计时
+    public native void resetPipelineStats();
+    
+    /**
+     * getPipelineStats返回数组的布局，需与pipelinestats.h保持一致
+     * 头部为重置后经过的毫秒数和各帧计数，之后每个阶段STAGE_FIELDS个值：次数、总耗时、最大值、p50、p95、p99
+     * 分位数来自对数分桶的直方图，误差不超过实际值的1/32
+     */
+    public static final class PipelineStats {
+        public static final int HEADER_ELAPSED_MS = 0;
+        public static final int HEADER_FRAMES = 1;            // 相机送来的帧
+        public static final int HEADER_INFERRED = 2;          // 运行了网络的帧
+        public static final int HEADER_DROPPED_BUSY = 3;      // 推理未完成或超出节奏在源头丢弃的帧
+        public static final int HEADER_DROPPED_MAILBOX = 4;   // 推理线程取走前被新帧替换的帧
+        public static final int HEADER_GATED = 5;             // 运动门跳过的帧
+        public static final int HEADER_SIZE = 6;
+        
+        public static final int STAGE_ACQUIRE = 0;      // 取相机图像
+        public static final int STAGE_CONVERT = 1;      // 预览的裁剪、旋转和yuv转rgba，直接写入窗口
+        public static final int STAGE_PREPROCESS = 2;   // nv21到网络输入
+        public static final int STAGE_INFERENCE = 3;
+        public static final int STAGE_DECODE = 4;
+        public static final int STAGE_NMS = 5;
+        public static final int STAGE_CALLBACK = 6;     // Java检测结果回调
+        public static final int STAGE_BLIT = 7;         // 预览窗口加锁、绘制检测框和提交
+        public static final int STAGE_COUNT = 8;
+        
+        public static final int FIELD_COUNT = 0;
+        public static final int FIELD_TOTAL_US = 1;
+        public static final int FIELD_MAX_US = 2;
+        public static final int FIELD_P50_US = 3;
+        public static final int FIELD_P95_US = 4;
+        public static final int FIELD_P99_US = 5;
+        public static final int STAGE_FIELDS = 6;
+        
+        private PipelineStats() {
+        }
+        
+        public static long get(long[] stats, int stage, int field) {
+            return stats[HEADER_SIZE + stage * STAGE_FIELDS + field];
+        }
+    }
 
     static {
         System.loadLibrary("yolov8ncnn");
@@ -0,0 +1,82 @@
+#include "framemailbox.h"
+
+#include <algorithm>
+
+YuvFrame MailboxFrame::frame() const
+{
+    YuvFrame f;
+    f.y = yuv.data;
+    f.uv = yuv.data + roi_w * roi_h;
+    f.y_stride = roi_w;
+    f.uv_stride = roi_w;
+    f.width = roi_w;
+    f.height = roi_h;
+    f.nv12 = nv12;
+    return f;
+}
+
+FrameMailbox::FrameMailbox()
+{
+    write_index = 0;
+    slot_index = 1;
+    read_index = 2;
+    slot_full = false;
+    closed = false;
+    dropped = 0;
+}
+
+MailboxFrame& FrameMailbox::begin_write()
+{
+    return frames[write_index];
+}
+
+const MailboxFrame* FrameMailbox::publish()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    const bool replaced = slot_full;
+    if (replaced)
+        dropped++;
+
+    // the stale frame goes back to the writer
+    std::swap(write_index, slot_index);
+    slot_full = true;
+
+    condition.signal();
+
+    return replaced ? &frames[write_index] : 0;
+}
+
+const MailboxFrame* FrameMailbox::take()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    while (!slot_full && !closed)
+    {
+        condition.wait(lock);
+    }
+
+    if (closed)
+        return 0;
+
+    std::swap(read_index, slot_index);
+    slot_full = false;
+
+    return &frames[read_index];
+}
+
+void FrameMailbox::close()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    closed = true;
+
+    condition.broadcast();
+}
+
+int FrameMailbox::dropped_count() const
+{
+    ncnn::MutexLockGuard g(lock);
+
+    return dropped;
+}
@@ -0,0 +1,68 @@
+#ifndef FRAMEMAILBOX_H
+#define FRAMEMAILBOX_H
+
+#include <opencv2/core/core.hpp>
+
+#include <platform.h>
+
+#include "yuvconv.h"
+
+// a camera frame roi handed from the camera thread to the inference worker
+struct MailboxFrame
+{
+    // roi planes copied out of the camera image, y rows followed by interleaved uv rows
+    cv::Mat yuv;
+    int roi_w;
+    int roi_h;
+    int rotate_type;
+    bool nv12;
+
+    // monotonically increasing camera frame number
+    int seq;
+
+    // the whole roi must be detected, no focus crop
+    bool full_frame;
+
+    // admitted by the frame scheduler, which expects report and complete for it
+    bool admitted;
+
+    YuvFrame frame() const;
+};
+
+// single slot, latest wins mailbox between one producer and one consumer
+// three frames rotate between writer, slot and reader so neither side ever waits for a copy
+// publishing while the slot is still full replaces the stale frame
+class FrameMailbox
+{
+public:
+    FrameMailbox();
+
+    // producer side, fill the returned frame and then publish it
+    // publish returns the frame it replaced because the consumer never took it, or 0
+    // the replaced frame stays valid until the next begin_write
+    MailboxFrame& begin_write();
+    const MailboxFrame* publish();
+
+    // consumer side, blocks until a frame is published, returns 0 once closed
+    // the frame stays valid until the next take
+    const MailboxFrame* take();
+
+    void close();
+
+    // frames replaced in the slot before the consumer got to them
+    int dropped_count() const;
+
+private:
+    MailboxFrame frames[3];
+    int write_index;
+    int slot_index;
+    int read_index;
+    bool slot_full;
+    bool closed;
+    int dropped;
+
+    mutable ncnn::Mutex lock;
+    ncnn::ConditionVariable condition;
+};
+
+#endif // FRAMEMAILBOX_H
@@ -0,0 +1,161 @@
+#include "framescheduler.h"
+
+#include <time.h>
+
+#include <algorithm>
+
+// weight of the newest sample in the rolling latency
+static const double LATENCY_EMA_ALPHA = 0.2;
+
+// an admitted frame that never reports back is abandoned after this long
+static const double IN_FLIGHT_TIMEOUT_MS = 2000.0;
+
+Clock::~Clock()
+{
+}
+
+double SystemClock::now_ms() const
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+FrameScheduler::FrameScheduler(const Clock* _clock)
+{
+    clock = _clock ? _clock : &system_clock;
+
+    target_fps = 0.f;
+    latency_budget_ms = 0.f;
+
+    reset();
+}
+
+void FrameScheduler::set_pacing(float _target_fps, float _latency_budget_ms)
+{
+    ncnn::MutexLockGuard g(lock);
+
+    target_fps = _target_fps;
+    latency_budget_ms = _latency_budget_ms;
+}
+
+void FrameScheduler::note_frame()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    const double now = clock->now_ms();
+
+    if (last_frame_time >= 0)
+    {
+        double period = now - last_frame_time;
+        frame_period = frame_period < 0 ? period : frame_period + LATENCY_EMA_ALPHA * (period - frame_period);
+    }
+    last_frame_time = now;
+}
+
+bool FrameScheduler::admit()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    const double now = clock->now_ms();
+
+    // the previous frame is still being processed, another one would only wait or replace it
+    if (in_flight && now - admit_time < IN_FLIGHT_TIMEOUT_MS)
+    {
+        dropped++;
+        return false;
+    }
+
+    // admitting up to half a camera frame period early keeps the rate from aliasing down
+    // a 10 fps target on a 30 fps camera then takes every third frame instead of every fourth
+    if (admit_time >= 0 && now - admit_time + std::max(frame_period, 0.0) * 0.5 < interval_ms_locked())
+    {
+        dropped++;
+        return false;
+    }
+
+    in_flight = true;
+    admit_time = now;
+    return true;
+}
+
+void FrameScheduler::report(Stage stage, double ms)
+{
+    ncnn::MutexLockGuard g(lock);
+
+    double& ema = latency_ema[stage];
+    ema = ema < 0 ? ms : ema + LATENCY_EMA_ALPHA * (ms - ema);
+}
+
+void FrameScheduler::complete()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    in_flight = false;
+}
+
+void FrameScheduler::reset()
+{
+    ncnn::MutexLockGuard g(lock);
+
+    for (int i = 0; i < STAGE_COUNT; i++)
+    {
+        latency_ema[i] = -1.0;
+    }
+    in_flight = false;
+    admit_time = -1.0;
+    dropped = 0;
+    last_frame_time = -1.0;
+    frame_period = -1.0;
+}
+
+double FrameScheduler::interval_ms() const
+{
+    ncnn::MutexLockGuard g(lock);
+
+    return interval_ms_locked();
+}
+
+double FrameScheduler::interval_ms_locked() const
+{
+    double interval = target_fps > 0.f ? 1000.0 / target_fps : 0.0;
+
+    // over budget, give the device proportionally more idle time
+    double latency = 0.0;
+    for (int i = 0; i < STAGE_COUNT; i++)
+    {
+        latency += std::max(latency_ema[i], 0.0);
+    }
+    if (latency_budget_ms > 0.f && latency > latency_budget_ms)
+    {
+        interval = std::max(interval, latency) * latency / latency_budget_ms;
+    }
+
+    return interval;
+}
+
+double FrameScheduler::latency_ms(Stage stage) const
+{
+    ncnn::MutexLockGuard g(lock);
+
+    return std::max(latency_ema[stage], 0.0);
+}
+
+double FrameScheduler::latency_ms() const
+{
+    ncnn::MutexLockGuard g(lock);
+
+    double latency = 0.0;
+    for (int i = 0; i < STAGE_COUNT; i++)
+    {
+        latency += std::max(latency_ema[i], 0.0);
+    }
+    return latency;
+}
+
+int FrameScheduler::dropped_count() const
+{
+    ncnn::MutexLockGuard g(lock);
+
+    return dropped;
+}
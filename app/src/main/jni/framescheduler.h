@@ -0,0 +1,87 @@
+#ifndef FRAMESCHEDULER_H
+#define FRAMESCHEDULER_H
+
+#include <platform.h>
+
+// millisecond clock, replaceable by a fake one on host
+class Clock
+{
+public:
+    virtual ~Clock();
+
+    virtual double now_ms() const = 0;
+};
+
+// monotonic clock
+class SystemClock : public Clock
+{
+public:
+    virtual double now_ms() const;
+};
+
+// decides at the camera which frames go to inference
+// a frame is admitted only when the previous one has finished and the pacing interval has elapsed
+// the interval comes from the target fps and is stretched by the ratio the rolling latency exceeds the budget
+class FrameScheduler
+{
+public:
+    enum Stage
+    {
+        STAGE_COPY = 0,  // roi copy into the mailbox on the camera thread
+        STAGE_DETECT,    // preprocess, inference and postprocess
+        STAGE_COUNT
+    };
+
+    // clock is not owned, 0 uses the system clock
+    FrameScheduler(const Clock* clock = 0);
+
+    // target_fps <= 0 does not cap the rate, latency_budget_ms <= 0 disables the back-off
+    void set_pacing(float target_fps, float latency_budget_ms);
+
+    // camera thread, every camera frame before any other check, measures the camera frame period
+    void note_frame();
+
+    // camera thread, true if this frame should run inference
+    // may be called for only some of the frames, e.g. those the tracker or the motion gate let through
+    bool admit();
+
+    // latency of one stage of an admitted frame
+    void report(Stage stage, double ms);
+
+    // the admitted frame has finished, or was abandoned
+    void complete();
+
+    void reset();
+
+    // current admission interval in ms
+    double interval_ms() const;
+
+    // rolling latency of a stage, or of all stages
+    double latency_ms(Stage stage) const;
+    double latency_ms() const;
+
+    // frames refused by admit
+    int dropped_count() const;
+
+private:
+    double interval_ms_locked() const;
+
+private:
+    const Clock* clock;
+    SystemClock system_clock;
+
+    float target_fps;
+    float latency_budget_ms;
+
+    double latency_ema[STAGE_COUNT];
+    bool in_flight;
+    double admit_time;
+    int dropped;
+
+    double last_frame_time;
+    double frame_period;
+
+    mutable ncnn::Mutex lock;
+};
+
+#endif // FRAMESCHEDULER_H
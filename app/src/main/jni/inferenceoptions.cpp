@@ -0,0 +1,47 @@
+#include "inferenceoptions.h"
+
+#include <cpu.h>
+#include <option.h>
+
+InferenceOptions::InferenceOptions()
+{
+    // ncnn defaults, bound to the big cores
+    num_threads = 0;
+    powersave = 2;
+    light_mode = true;
+    use_fp16 = true;
+    use_winograd = true;
+    use_sgemm = true;
+    use_packing_layout = true;
+}
+
+bool InferenceOptions::operator==(const InferenceOptions& other) const
+{
+    return same_pipeline(other) && num_threads == other.num_threads && powersave == other.powersave && light_mode == other.light_mode;
+}
+
+bool InferenceOptions::same_pipeline(const InferenceOptions& other) const
+{
+    return use_fp16 == other.use_fp16 && use_winograd == other.use_winograd && use_sgemm == other.use_sgemm && use_packing_layout == other.use_packing_layout;
+}
+
+int InferenceOptions::resolved_num_threads() const
+{
+    return num_threads > 0 ? num_threads : ncnn::get_big_cpu_count();
+}
+
+void InferenceOptions::apply_pipeline(ncnn::Option& opt) const
+{
+    opt.use_fp16_packed = use_fp16;
+    opt.use_fp16_storage = use_fp16;
+    opt.use_fp16_arithmetic = use_fp16;
+    opt.use_winograd_convolution = use_winograd;
+    opt.use_sgemm_convolution = use_sgemm;
+    opt.use_packing_layout = use_packing_layout;
+}
+
+void InferenceOptions::apply_runtime(ncnn::Option& opt) const
+{
+    opt.num_threads = resolved_num_threads();
+    opt.lightmode = light_mode;
+}
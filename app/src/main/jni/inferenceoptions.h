@@ -0,0 +1,44 @@
+#ifndef INFERENCEOPTIONS_H
+#define INFERENCEOPTIONS_H
+
+namespace ncnn {
+class Option;
+}
+
+// ncnn settings of one network
+// num_threads, powersave and light_mode only affect the next extractor and are changed on a loaded network in place
+// fp16, winograd, sgemm and packing select the layer pipelines and weight layouts built by load_model,
+// changing them needs the network built again
+struct InferenceOptions
+{
+    InferenceOptions();
+
+    bool operator==(const InferenceOptions& other) const;
+
+    // networks that differ only in runtime options are interchangeable
+    bool same_pipeline(const InferenceOptions& other) const;
+
+    // the thread count passed to ncnn, num_threads or the big core count
+    int resolved_num_threads() const;
+
+    void apply_pipeline(ncnn::Option& opt) const;
+    void apply_runtime(ncnn::Option& opt) const;
+
+    // 0 for the big core count
+    int num_threads;
+
+    // 0 = all cores, 1 = little cores, 2 = big cores
+    int powersave;
+
+    // release intermediate blobs as soon as they are consumed
+    bool light_mode;
+
+    // fp16 storage, packing and arithmetic where the device supports them
+    bool use_fp16;
+
+    bool use_winograd;
+    bool use_sgemm;
+    bool use_packing_layout;
+};
+
+#endif // INFERENCEOPTIONS_H
@@ -0,0 +1,101 @@
+#include "modelcache.h"
+
+#include "yolo.h"
+
+ModelKey::ModelKey()
+{
+    target_size = 0;
+    use_gpu = false;
+    latency_budget_ms = 0.f;
+    use_int8 = false;
+}
+
+ModelKey::ModelKey(const char* _modeltype, int _target_size, bool _use_gpu, float _latency_budget_ms, bool _use_int8, const InferenceOptions& _options)
+    : modeltype(_modeltype), options(_options)
+{
+    target_size = _target_size;
+    use_gpu = _use_gpu;
+    latency_budget_ms = _latency_budget_ms;
+    use_int8 = _use_int8;
+}
+
+bool ModelKey::operator==(const ModelKey& other) const
+{
+    return modeltype == other.modeltype && target_size == other.target_size && use_gpu == other.use_gpu && latency_budget_ms == other.latency_budget_ms && use_int8 == other.use_int8 && options.same_pipeline(other.options);
+}
+
+ModelCache::ModelCache()
+{
+    // yolov8n and yolov8s together on cpu
+    budget_bytes = 128 * 1024 * 1024;
+    used = 0;
+}
+
+ModelCache::~ModelCache()
+{
+    clear();
+}
+
+std::shared_ptr<Yolo> ModelCache::find(const ModelKey& key)
+{
+    for (std::list<Entry>::iterator it = entries.begin(); it != entries.end(); ++it)
+    {
+        if (it->key == key)
+        {
+            entries.splice(entries.begin(), entries, it);
+            return entries.front().yolo;
+        }
+    }
+
+    return std::shared_ptr<Yolo>();
+}
+
+void ModelCache::insert(const ModelKey& key, const std::shared_ptr<Yolo>& yolo, size_t bytes)
+{
+    Entry e;
+    e.key = key;
+    e.yolo = yolo;
+    e.bytes = bytes;
+    entries.push_front(e);
+    used += bytes;
+
+    evict();
+}
+
+void ModelCache::set_budget(size_t bytes)
+{
+    budget_bytes = bytes;
+
+    evict();
+}
+
+size_t ModelCache::budget() const
+{
+    return budget_bytes;
+}
+
+size_t ModelCache::used_bytes() const
+{
+    return used;
+}
+
+int ModelCache::size() const
+{
+    return (int)entries.size();
+}
+
+void ModelCache::clear()
+{
+    entries.clear();
+    used = 0;
+}
+
+void ModelCache::evict()
+{
+    while (used > budget_bytes && entries.size() > 1)
+    {
+        Entry& e = entries.back();
+        used -= e.bytes;
+        entries.pop_back();
+    }
+}
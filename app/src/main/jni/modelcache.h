@@ -0,0 +1,75 @@
+#ifndef MODELCACHE_H
+#define MODELCACHE_H
+
+#include <stddef.h>
+
+#include <list>
+#include <memory>
+#include <string>
+
+#include "inferenceoptions.h"
+
+class Yolo;
+
+// identity of a loaded network, instances with the same key are interchangeable
+struct ModelKey
+{
+    ModelKey();
+    ModelKey(const char* modeltype, int target_size, bool use_gpu, float latency_budget_ms = 0.f, bool use_int8 = false, const InferenceOptions& options = InferenceOptions());
+
+    bool operator==(const ModelKey& other) const;
+
+    std::string modeltype;
+
+    // requested input size, 0 when chosen by calibration against latency_budget_ms
+    int target_size;
+    bool use_gpu;
+    float latency_budget_ms;
+    bool use_int8;
+
+    // only the pipeline options take part, runtime options are changed on the cached network
+    InferenceOptions options;
+};
+
+// resident loaded networks, most recently used first
+// switching back to a cached network is a pointer switch instead of parsing param and bin again
+// the least recently used networks are released while the estimated memory exceeds the budget
+// the most recently inserted network always stays even if it alone exceeds the budget
+class ModelCache
+{
+public:
+    ModelCache();
+    ~ModelCache();
+
+    // cached network of key moved to the front, null when absent
+    std::shared_ptr<Yolo> find(const ModelKey& key);
+
+    // bytes is the estimated memory of yolo
+    // evicted networks are released, one still in use is deleted by its last user
+    void insert(const ModelKey& key, const std::shared_ptr<Yolo>& yolo, size_t bytes);
+
+    void set_budget(size_t bytes);
+
+    size_t budget() const;
+    size_t used_bytes() const;
+    int size() const;
+
+    void clear();
+
+private:
+    void evict();
+
+private:
+    struct Entry
+    {
+        ModelKey key;
+        std::shared_ptr<Yolo> yolo;
+        size_t bytes;
+    };
+    std::list<Entry> entries;
+
+    size_t budget_bytes;
+    size_t used;
+};
+
+#endif // MODELCACHE_H
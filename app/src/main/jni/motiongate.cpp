@@ -0,0 +1,89 @@
+#include "motiongate.h"
+
+#include <stdlib.h>
+
+// block grid and samples per block side
+static const int GRID_W = 32;
+static const int GRID_H = 24;
+static const int BLOCK_SAMPLES = 4;
+
+MotionGate::MotionGate()
+{
+    block_threshold = 12.f;
+    changed_ratio = 0.004f;
+    max_stale_ms = 2000;
+
+    current_w = 0;
+    current_h = 0;
+
+    reset();
+}
+
+void MotionGate::reset()
+{
+    reference.clear();
+    reference_w = 0;
+    reference_h = 0;
+    reference_time = 0;
+}
+
+bool MotionGate::changed(const unsigned char* y, int y_stride, int roi_x, int roi_y, int roi_w, int roi_h, double now_ms)
+{
+    // block means, the roi is not rotated since only differences matter
+    current.resize(GRID_W * GRID_H);
+    current_w = roi_w;
+    current_h = roi_h;
+    for (int by = 0; by < GRID_H; by++)
+    {
+        const int y0 = roi_y + by * roi_h / GRID_H;
+        const int bh = (by + 1) * roi_h / GRID_H - by * roi_h / GRID_H;
+
+        for (int bx = 0; bx < GRID_W; bx++)
+        {
+            const int x0 = roi_x + bx * roi_w / GRID_W;
+            const int bw = (bx + 1) * roi_w / GRID_W - bx * roi_w / GRID_W;
+
+            int sum = 0;
+            for (int sy = 0; sy < BLOCK_SAMPLES; sy++)
+            {
+                const unsigned char* row = y + (y0 + (2 * sy + 1) * bh / (2 * BLOCK_SAMPLES)) * y_stride + x0;
+                for (int sx = 0; sx < BLOCK_SAMPLES; sx++)
+                {
+                    sum += row[(2 * sx + 1) * bw / (2 * BLOCK_SAMPLES)];
+                }
+            }
+
+            current[by * GRID_W + bx] = (unsigned char)(sum / (BLOCK_SAMPLES * BLOCK_SAMPLES));
+        }
+    }
+
+    // no reference yet, or the roi geometry changed
+    if (reference.empty() || reference_w != roi_w || reference_h != roi_h)
+        return true;
+
+    if (max_stale_ms > 0 && now_ms - reference_time >= max_stale_ms)
+        return true;
+
+    const int min_changed = (int)(changed_ratio * GRID_W * GRID_H) + 1;
+
+    int changed_blocks = 0;
+    for (int i = 0; i < GRID_W * GRID_H; i++)
+    {
+        if (abs(current[i] - reference[i]) > block_threshold)
+        {
+            changed_blocks++;
+            if (changed_blocks >= min_changed)
+                return true;
+        }
+    }
+
+    return false;
+}
+
+void MotionGate::accept(double now_ms)
+{
+    reference = current;
+    reference_w = current_w;
+    reference_h = current_h;
+    reference_time = now_ms;
+}
@@ -0,0 +1,45 @@
+#ifndef MOTIONGATE_H
+#define MOTIONGATE_H
+
+#include <vector>
+
+// skips inference on a static scene by differencing the luma plane against the last inferred frame
+// the roi is reduced to a grid of block means, sparse sampled so one frame costs a few thousand reads
+// the scene changed when enough blocks moved by more than the threshold, which ignores sensor noise
+class MotionGate
+{
+public:
+    MotionGate();
+
+    void reset();
+
+    // whether the roi differs from the last accepted frame, or the last accepted frame is older than max_stale_ms
+    // y points to the luma plane of the camera frame, rows are y_stride bytes apart
+    // the block means of this frame are kept for accept
+    bool changed(const unsigned char* y, int y_stride, int roi_x, int roi_y, int roi_w, int roi_h, double now_ms);
+
+    // the frame passed to the last changed call has gone to inference and becomes the reference
+    void accept(double now_ms);
+
+public:
+    // mean luma difference of a block to count it as changed, in 0~255
+    float block_threshold;
+
+    // fraction of changed blocks to count the scene as changed
+    float changed_ratio;
+
+    // run inference at least this often even on a static scene, <= 0 never forces it
+    int max_stale_ms;
+
+private:
+    std::vector<unsigned char> current;
+    int current_w;
+    int current_h;
+
+    std::vector<unsigned char> reference;
+    int reference_w;
+    int reference_h;
+    double reference_time;
+};
+
+#endif // MOTIONGATE_H
@@ -14,14 +14,29 @@
 
 #include "ndkcamera.h"
 
+#include <string.h>
 #include <string>
 
 #include <android/log.h>
 
 #include <opencv2/core/core.hpp>
 
+#include "benchmark.h"
 #include "mat.h"
 
+// carve a rows x cols image out of a pooled buffer, the pool only grows if the stream resolution changes
+static cv::Mat pooled_mat(cv::Mat& pool, int rows, int cols, int type)
+{
+    const size_t size = (size_t)rows * cols * CV_ELEM_SIZE(type);
+    if (pool.total() * pool.elemSize() < size)
+    {
+        __android_log_print(ANDROID_LOG_WARN, "NdkCamera", "frame pool grow %d x %d", cols, rows);
+        pool.create(1, (int)size, CV_8UC1);
+    }
+
+    return cv::Mat(rows, cols, type, pool.data);
+}
+
 static void onDisconnected(void* context, ACameraDevice* device)
 {
     __android_log_print(ANDROID_LOG_WARN, "NdkCamera", "onDisconnected %p", device);
@@ -36,6 +51,9 @@ static void onImageAvailable(void* context, AImageReader* reader)
 {
 //     __android_log_print(ANDROID_LOG_WARN, "NdkCamera", "onImageAvailable %p", reader);
 
+    PipelineStats* stats = ((NdkCamera*)context)->stats;
+    const double acquire_start = ncnn::get_current_time();
+
     AImage* image = 0;
     media_status_t status = AImageReader_acquireLatestImage(reader, &image);
 
@@ -79,15 +97,24 @@ static void onImageAvailable(void* context, AImageReader* reader)
     AImage_getPlaneData(image, 1, &u_data, &u_len);
     AImage_getPlaneData(image, 2, &v_data, &v_len);
 
-    if (u_data == v_data + 1 && v_data == y_data + width * height && y_pixelStride == 1 && u_pixelStride == 2 && v_pixelStride == 2 && y_rowStride == width && u_rowStride == width && v_rowStride == width)
+    if (y_pixelStride == 1 && u_pixelStride == 2 && v_pixelStride == 2 && u_rowStride == v_rowStride && (u_data == v_data + 1 || v_data == u_data + 1))
     {
-        // already nv21  :)
-        ((NdkCamera*)context)->on_image((unsigned char*)y_data, (int)width, (int)height);
+        // already nv21 or nv12, pass the planes through without repacking  :)
+        const bool nv12 = v_data == u_data + 1;
+        const unsigned char* uv_data = nv12 ? u_data : v_data;
+
+        if (stats)
+        {
+            stats->add(PipelineStats::COUNTER_FRAMES);
+            stats->record(PipelineStats::STAGE_ACQUIRE, ncnn::get_current_time() - acquire_start);
+        }
+
+        ((NdkCamera*)context)->on_image((const unsigned char*)y_data, (int)y_rowStride, uv_data, (int)u_rowStride, nv12, (int)width, (int)height);
     }
     else
     {
         // construct nv21
-        unsigned char* nv21 = new unsigned char[width * height + width * height / 2];
+        unsigned char* nv21 = ((NdkCamera*)context)->acquire_nv21_buffer(width, height);
         {
             // Y
             unsigned char* yptr = nv21;
@@ -119,9 +146,13 @@ static void onImageAvailable(void* context, AImageReader* reader)
             }
         }
 
-        ((NdkCamera*)context)->on_image((unsigned char*)nv21, (int)width, (int)height);
+        if (stats)
+        {
+            stats->add(PipelineStats::COUNTER_FRAMES);
+            stats->record(PipelineStats::STAGE_ACQUIRE, ncnn::get_current_time() - acquire_start);
+        }
 
-        delete[] nv21;
+        ((NdkCamera*)context)->on_image((unsigned char*)nv21, (int)width, (int)height);
     }
 
     AImage_delete(image);
@@ -177,10 +208,19 @@ NdkCamera::NdkCamera()
     capture_session_output = 0;
     capture_session = 0;
 
+    image_width = 640;
+    image_height = 480;
+
+    stats = 0;
+
+    // frame buffer pool, every intermediate image of the capture path fits in these
+    nv21_pool.create(1, image_width * image_height * 3 / 2, CV_8UC1);
+    rotated_pool.create(1, image_width * image_height * 3 / 2, CV_8UC1);
+    rgb_pool.create(1, image_width * image_height * 3, CV_8UC1);
 
     // setup imagereader and its surface
     {
-        AImageReader_new(640, 480, AIMAGE_FORMAT_YUV_420_888, /*maxImages*/2, &image_reader);
+        AImageReader_new(image_width, image_height, AIMAGE_FORMAT_YUV_420_888, /*maxImages*/2, &image_reader);
 
         AImageReader_ImageListener listener;
         listener.context = this;
@@ -376,6 +416,51 @@ void NdkCamera::on_image(const cv::Mat& rgb) const
 {
 }
 
+unsigned char* NdkCamera::acquire_nv21_buffer(int width, int height) const
+{
+    return pooled_mat(nv21_pool, height + height / 2, width, CV_8UC1).data;
+}
+
+void NdkCamera::on_image(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride, bool nv12, int width, int height) const
+{
+    if (!nv12 && y_stride == width && uv_stride == width && uv == y + width * height)
+    {
+        // contiguous nv21
+        on_image(y, width, height);
+        return;
+    }
+
+    // repack to contiguous nv21
+    unsigned char* nv21 = acquire_nv21_buffer(width, height);
+    for (int i = 0; i < height; i++)
+    {
+        memcpy(nv21 + i * width, y + i * y_stride, width);
+    }
+
+    unsigned char* vuptr = nv21 + width * height;
+    for (int i = 0; i < height / 2; i++)
+    {
+        const unsigned char* uvptr = uv + i * uv_stride;
+        if (nv12)
+        {
+            for (int j = 0; j < width / 2; j++)
+            {
+                vuptr[0] = uvptr[1];
+                vuptr[1] = uvptr[0];
+                vuptr += 2;
+                uvptr += 2;
+            }
+        }
+        else
+        {
+            memcpy(vuptr, uvptr, width);
+            vuptr += width;
+        }
+    }
+
+    on_image(nv21, width, height);
+}
+
 void NdkCamera::on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const
 {
     // rotate nv21
@@ -409,11 +494,11 @@ void NdkCamera::on_image(const unsigned char* nv21, int nv21_width, int nv21_hei
         }
     }
 
-    cv::Mat nv21_rotated(h + h / 2, w, CV_8UC1);
+    cv::Mat nv21_rotated = pooled_mat(rotated_pool, h + h / 2, w, CV_8UC1);
     ncnn::kanna_rotate_yuv420sp(nv21, nv21_width, nv21_height, nv21_rotated.data, w, h, rotate_type);
 
     // nv21_rotated to rgb
-    cv::Mat rgb(h, w, CV_8UC3);
+    cv::Mat rgb = pooled_mat(rgb_pool, h, w, CV_8UC3);
     ncnn::yuv420sp2rgb(nv21_rotated.data, w, h, rgb.data);
 
     on_image(rgb);
@@ -474,11 +559,20 @@ void NdkCameraWindow::set_window(ANativeWindow* _win)
     ANativeWindow_acquire(win);
 }
 
-void NdkCameraWindow::on_image_render(cv::Mat& rgb) const
+void NdkCameraWindow::on_image_yuv(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const
+{
+}
+
+void NdkCameraWindow::on_image_render(cv::Mat& rgba, int rotate_type) const
 {
 }
 
 void NdkCameraWindow::on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const
+{
+    on_image(nv21, nv21_width, nv21 + nv21_width * nv21_height, nv21_width, false, nv21_width, nv21_height);
+}
+
+void NdkCameraWindow::on_image(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride, bool nv12, int nv21_width, int nv21_height) const
 {
     // 如果预览暂停且没有单次捕获请求，则直接返回
     if (is_preview_paused && !request_capture_flag)
@@ -722,71 +816,47 @@ void NdkCameraWindow::on_image(const unsigned char* nv21, int nv21_width, int nv
         }
     }
 
-    // crop and rotate nv21
-    cv::Mat nv21_croprotated(roi_h + roi_h / 2, roi_w, CV_8UC1);
-    {
-        const unsigned char* srcY = nv21 + nv21_roi_y * nv21_width + nv21_roi_x;
-        unsigned char* dstY = nv21_croprotated.data;
-        ncnn::kanna_rotate_c1(srcY, nv21_roi_w, nv21_roi_h, nv21_width, dstY, roi_w, roi_h, roi_w, rotate_type);
+    YuvFrame frame;
+    frame.y = y;
+    frame.uv = uv;
+    frame.y_stride = y_stride;
+    frame.uv_stride = uv_stride;
+    frame.width = nv21_width;
+    frame.height = nv21_height;
+    frame.nv12 = nv12;
 
-        const unsigned char* srcUV = nv21 + nv21_width * nv21_height + nv21_roi_y * nv21_width / 2 + nv21_roi_x;
-        unsigned char* dstUV = nv21_croprotated.data + roi_w * roi_h;
-        ncnn::kanna_rotate_c2(srcUV, nv21_roi_w / 2, nv21_roi_h / 2, nv21_width, dstUV, roi_w / 2, roi_h / 2, roi_w, rotate_type);
-    }
-
-    // nv21_croprotated to rgb
-    cv::Mat rgb(roi_h, roi_w, CV_8UC3);
-    ncnn::yuv420sp2rgb(nv21_croprotated.data, roi_w, roi_h, rgb.data);
+    on_image_yuv(frame, nv21_roi_x, nv21_roi_y, nv21_roi_w, nv21_roi_h, rotate_type);
 
-    on_image_render(rgb);
-
-    // rotate to native window orientation
-    cv::Mat rgb_render(render_h, render_w, CV_8UC3);
-    ncnn::kanna_rotate_c3(rgb.data, roi_w, roi_h, rgb_render.data, render_w, render_h, render_rotate_type);
+    double t0 = ncnn::get_current_time();
 
     ANativeWindow_setBuffersGeometry(win, render_w, render_h, AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM);
 
     ANativeWindow_Buffer buf;
-    ANativeWindow_lock(win, &buf, NULL);
+    if (ANativeWindow_lock(win, &buf, NULL) != 0)
+        return;
+
+    double t1 = ncnn::get_current_time();
+    double t2 = t1;
 
-    // scale to target size
     if (buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8A8_UNORM || buf.format == AHARDWAREBUFFER_FORMAT_R8G8B8X8_UNORM)
     {
-        for (int y = 0; y < render_h; y++)
-        {
-            const unsigned char* ptr = rgb_render.ptr<const unsigned char>(y);
-            unsigned char* outptr = (unsigned char*)buf.bits + buf.stride * 4 * y;
+        // 裁剪、旋转到窗口方向和转换为rgba一次完成，直接写入窗口缓冲
+        yuv420sp_roi_to_rgba(frame, nv21_roi_x, nv21_roi_y, nv21_roi_w, nv21_roi_h, kanna_rotate_compose(rotate_type, render_rotate_type), (unsigned char*)buf.bits, buf.stride * 4);
 
-            int x = 0;
-#if __ARM_NEON
-            for (; x + 7 < render_w; x += 8)
-            {
-                uint8x8x3_t _rgb = vld3_u8(ptr);
-                uint8x8x4_t _rgba;
-                _rgba.val[0] = _rgb.val[0];
-                _rgba.val[1] = _rgb.val[1];
-                _rgba.val[2] = _rgb.val[2];
-                _rgba.val[3] = vdup_n_u8(255);
-                vst4_u8(outptr, _rgba);
+        t2 = ncnn::get_current_time();
 
-                ptr += 24;
-                outptr += 32;
-            }
-#endif // __ARM_NEON
-            for (; x < render_w; x++)
-            {
-                outptr[0] = ptr[0];
-                outptr[1] = ptr[1];
-                outptr[2] = ptr[2];
-                outptr[3] = 255;
-
-                ptr += 3;
-                outptr += 4;
-            }
-        }
+        // 检测框画在窗口缓冲上
+        cv::Mat rgba(render_h, render_w, CV_8UC4, buf.bits, buf.stride * 4);
+        on_image_render(rgba, render_rotate_type);
     }
 
     ANativeWindow_unlockAndPost(win);
+
+    if (stats)
+    {
+        stats->record(PipelineStats::STAGE_CONVERT, t2 - t1);
+        stats->record(PipelineStats::STAGE_BLIT, (t1 - t0) + (ncnn::get_current_time() - t2));
+    }
 }
 
 // 实现获取相机宽度方法
@@ -25,6 +25,9 @@
 
 #include <opencv2/core/core.hpp>
 
+#include "pipelinestats.h"
+#include "yuvconv.h"
+
 class NdkCamera
 {
 public:
@@ -39,10 +42,29 @@ public:
 
     virtual void on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const;
 
+    // yuv420sp planes with row strides, uv is vu interleaved (nv21) or uv interleaved (nv12)
+    virtual void on_image(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride, bool nv12, int width, int height) const;
+
+    // pooled nv21 buffer for repacking planar images
+    unsigned char* acquire_nv21_buffer(int width, int height) const;
+
 public:
     int camera_facing;
     int camera_orientation;
 
+    // image reader resolution, the frame buffer pool is sized from it
+    int image_width;
+    int image_height;
+
+    // acquire, convert, rotate and blit timings and the acquired frame count go here when set
+    PipelineStats* stats;
+
+protected:
+    // fixed-size frame buffers recycled across frames, steady-state capture allocates nothing
+    mutable cv::Mat nv21_pool;
+    mutable cv::Mat rotated_pool;
+    mutable cv::Mat rgb_pool;
+
 private:
     ACameraManager* camera_manager;
     ACameraDevice* camera_device;
@@ -63,10 +85,16 @@ public:
 
     void set_window(ANativeWindow* win);
 
-    virtual void on_image_render(cv::Mat& rgb) const;
+    // 转换为rgb之前的原始帧，roi和rotate_type描述裁剪旋转后的画面
+    virtual void on_image_yuv(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const;
+
+    // 预览写入窗口缓冲后调用，rgba为加锁的窗口缓冲，检测画面经rotate_type旋转到窗口方向
+    virtual void on_image_render(cv::Mat& rgba, int rotate_type) const;
 
     virtual void on_image(const unsigned char* nv21, int nv21_width, int nv21_height) const;
 
+    virtual void on_image(const unsigned char* y, int y_stride, const unsigned char* uv, int uv_stride, bool nv12, int width, int height) const;
+
     // 获取相机宽度
     int get_width() const;
     
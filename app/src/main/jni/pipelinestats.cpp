@@ -0,0 +1,158 @@
+#include "pipelinestats.h"
+
+#include <math.h>
+
+#include <benchmark.h>
+
+LatencyHistogram::LatencyHistogram()
+{
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+        buckets[i].store(0, std::memory_order_relaxed);
+    }
+
+    samples.store(0, std::memory_order_relaxed);
+    total.store(0, std::memory_order_relaxed);
+    max.store(0, std::memory_order_relaxed);
+}
+
+int LatencyHistogram::bucket_index(uint32_t us)
+{
+    if (us < SUB_BUCKETS)
+        return us;
+
+    if (us >= (1u << MAX_EXPONENT))
+        return BUCKET_COUNT - 1;
+
+    // position of the highest set bit, then the next SUB_BUCKET_BITS bits below it
+    const int e = 31 - __builtin_clz(us);
+    const int sub = (us >> (e - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (e - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+}
+
+uint32_t LatencyHistogram::bucket_value(int index)
+{
+    if (index < SUB_BUCKETS)
+        return index;
+
+    const int e = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    const int sub = index % SUB_BUCKETS;
+    const uint32_t width = 1u << (e - SUB_BUCKET_BITS);
+    return ((SUB_BUCKETS + sub) << (e - SUB_BUCKET_BITS)) + width / 2;
+}
+
+void LatencyHistogram::record(double ms)
+{
+    const uint32_t us = ms <= 0.0 ? 0 : ms >= 4e6 ? 0xffffffffu : (uint32_t)(ms * 1000.0 + 0.5);
+
+    buckets[bucket_index(us)].fetch_add(1, std::memory_order_relaxed);
+    samples.fetch_add(1, std::memory_order_relaxed);
+    total.fetch_add(us, std::memory_order_relaxed);
+
+    uint32_t m = max.load(std::memory_order_relaxed);
+    while (us > m && !max.compare_exchange_weak(m, us, std::memory_order_relaxed))
+    {
+    }
+}
+
+void LatencyHistogram::reset()
+{
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+        buckets[i].store(0, std::memory_order_relaxed);
+    }
+
+    samples.store(0, std::memory_order_relaxed);
+    total.store(0, std::memory_order_relaxed);
+    max.store(0, std::memory_order_relaxed);
+}
+
+uint64_t LatencyHistogram::count() const
+{
+    return samples.load(std::memory_order_relaxed);
+}
+
+uint64_t LatencyHistogram::total_us() const
+{
+    return total.load(std::memory_order_relaxed);
+}
+
+uint32_t LatencyHistogram::max_us() const
+{
+    return max.load(std::memory_order_relaxed);
+}
+
+uint32_t LatencyHistogram::percentile_us(double q) const
+{
+    // the buckets themselves are the population, the sample counter may run ahead of them
+    uint64_t counts[BUCKET_COUNT];
+    uint64_t n = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+        counts[i] = buckets[i].load(std::memory_order_relaxed);
+        n += counts[i];
+    }
+
+    if (n == 0)
+        return 0;
+
+    uint64_t rank = (uint64_t)ceil(q * n);
+    if (rank < 1)
+        rank = 1;
+
+    uint64_t seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+        seen += counts[i];
+        if (seen >= rank)
+            return bucket_value(i);
+    }
+
+    return bucket_value(BUCKET_COUNT - 1);
+}
+
+PipelineStats::PipelineStats()
+{
+    for (int i = 0; i < COUNTER_COUNT; i++)
+    {
+        counters[i].store(0, std::memory_order_relaxed);
+    }
+
+    reset_time_ms.store((int64_t)ncnn::get_current_time(), std::memory_order_relaxed);
+}
+
+void PipelineStats::reset()
+{
+    for (int i = 0; i < STAGE_COUNT; i++)
+    {
+        histograms[i].reset();
+    }
+
+    for (int i = 0; i < COUNTER_COUNT; i++)
+    {
+        counters[i].store(0, std::memory_order_relaxed);
+    }
+
+    reset_time_ms.store((int64_t)ncnn::get_current_time(), std::memory_order_relaxed);
+}
+
+void PipelineStats::snapshot(int64_t* out) const
+{
+    out[0] = (int64_t)ncnn::get_current_time() - reset_time_ms.load(std::memory_order_relaxed);
+    for (int i = 0; i < COUNTER_COUNT; i++)
+    {
+        out[1 + i] = counters[i].load(std::memory_order_relaxed);
+    }
+
+    for (int i = 0; i < STAGE_COUNT; i++)
+    {
+        const LatencyHistogram& h = histograms[i];
+        int64_t* s = out + HEADER_SIZE + i * STAGE_FIELDS;
+        s[0] = h.count();
+        s[1] = h.total_us();
+        s[2] = h.max_us();
+        s[3] = h.percentile_us(0.50);
+        s[4] = h.percentile_us(0.95);
+        s[5] = h.percentile_us(0.99);
+    }
+}
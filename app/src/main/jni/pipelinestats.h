@@ -0,0 +1,111 @@
+#ifndef PIPELINESTATS_H
+#define PIPELINESTATS_H
+
+#include <stdint.h>
+
+#include <atomic>
+
+// lock free latency histogram in microseconds
+// log linear buckets like HdrHistogram, values below 16 us are exact and every power of two above is split into 16 buckets,
+// a percentile is reported at the bucket middle and is off by at most 1/32 of the true value
+// values of 2^26 us (67 s) and more land in the last bucket
+// record only does relaxed atomic adds, a reader running alongside may see a sample in the count but not yet in the buckets
+class LatencyHistogram
+{
+public:
+    enum
+    {
+        SUB_BUCKET_BITS = 4,
+        SUB_BUCKETS = 1 << SUB_BUCKET_BITS,
+        MAX_EXPONENT = 26,
+        BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+    };
+
+    LatencyHistogram();
+
+    void record(double ms);
+
+    // samples recorded while resetting may survive
+    void reset();
+
+    uint64_t count() const;
+    uint64_t total_us() const;
+    uint32_t max_us() const;
+
+    // value at quantile q in [0, 1], 0 when empty
+    uint32_t percentile_us(double q) const;
+
+    static int bucket_index(uint32_t us);
+
+    // middle of the bucket
+    static uint32_t bucket_value(int index);
+
+private:
+    std::atomic<uint32_t> buckets[BUCKET_COUNT];
+    std::atomic<uint64_t> samples;
+    std::atomic<uint64_t> total;
+    std::atomic<uint32_t> max;
+};
+
+// per stage latency histograms and frame counters of the camera and detection pipeline
+// every thread records into it without locks, Java reads a snapshot
+class PipelineStats
+{
+public:
+    enum Stage
+    {
+        STAGE_ACQUIRE = 0,      // AImageReader acquire and plane repack
+        STAGE_CONVERT,          // preview crop, rotate and yuv to rgba straight into the window buffer
+        STAGE_PREPROCESS,       // nv21 to the network input tensor
+        STAGE_INFERENCE,        // ncnn extract
+        STAGE_DECODE,           // proposal decode
+        STAGE_NMS,
+        STAGE_CALLBACK,         // java detection listeners
+        STAGE_BLIT,             // window lock, detection overlay and post
+        STAGE_COUNT
+    };
+
+    enum Counter
+    {
+        COUNTER_FRAMES = 0,         // camera images acquired
+        COUNTER_INFERRED,           // frames run through the network
+        COUNTER_DROPPED_BUSY,       // frames dropped at the source, inference busy or over the pacing
+        COUNTER_DROPPED_MAILBOX,    // frames replaced in the mailbox before the worker took them
+        COUNTER_GATED,              // frames skipped by the motion gate
+        COUNTER_COUNT
+    };
+
+    // snapshot layout, must match Yolov8Ncnn.PipelineStats
+    // header: elapsed ms since reset, then the counters
+    // per stage: count, total us, max us, p50 us, p95 us, p99 us
+    enum
+    {
+        HEADER_SIZE = 1 + COUNTER_COUNT,
+        STAGE_FIELDS = 6,
+        SNAPSHOT_SIZE = HEADER_SIZE + STAGE_COUNT * STAGE_FIELDS
+    };
+
+    PipelineStats();
+
+    void record(int stage, double ms)
+    {
+        histograms[stage].record(ms);
+    }
+
+    void add(int counter, int n = 1)
+    {
+        counters[counter].fetch_add(n, std::memory_order_relaxed);
+    }
+
+    void reset();
+
+    // out holds SNAPSHOT_SIZE values
+    void snapshot(int64_t* out) const;
+
+private:
+    LatencyHistogram histograms[STAGE_COUNT];
+    std::atomic<uint64_t> counters[COUNTER_COUNT];
+    std::atomic<int64_t> reset_time_ms;
+};
+
+#endif // PIPELINESTATS_H
@@ -0,0 +1,677 @@
+#include "postprocess.h"
+
+#include <float.h>
+#include <limits.h>
+#include <math.h>
+#include <stdint.h>
+
+#include <algorithm>
+
+#if __ARM_NEON
+#include <arm_neon.h>
+#elif __SSE2__
+#include <emmintrin.h>
+#endif
+
+static float fast_exp(float x)
+{
+    union {
+        uint32_t i;
+        float f;
+    } v{};
+    v.i = (1 << 23) * (1.4426950409 * x + 126.93490512f);
+    return v.f;
+}
+
+static float sigmoid(float x)
+{
+    return 1.0f / (1.0f + fast_exp(-x));
+}
+static float intersection_area(const Object& a, const Object& b)
+{
+    cv::Rect_<float> inter = a.rect & b.rect;
+    return inter.area();
+}
+
+static void qsort_descent_inplace(std::vector<Object>& faceobjects, int left, int right)
+{
+    int i = left;
+    int j = right;
+    float p = faceobjects[(left + right) / 2].prob;
+
+    while (i <= j)
+    {
+        while (faceobjects[i].prob > p)
+            i++;
+
+        while (faceobjects[j].prob < p)
+            j--;
+
+        if (i <= j)
+        {
+            // swap
+            std::swap(faceobjects[i], faceobjects[j]);
+
+            i++;
+            j--;
+        }
+    }
+
+    //     #pragma omp parallel sections
+    {
+        //         #pragma omp section
+        {
+            if (left < j) qsort_descent_inplace(faceobjects, left, j);
+        }
+        //         #pragma omp section
+        {
+            if (i < right) qsort_descent_inplace(faceobjects, i, right);
+        }
+    }
+}
+
+void qsort_descent_inplace(std::vector<Object>& faceobjects)
+{
+    if (faceobjects.empty())
+        return;
+
+    qsort_descent_inplace(faceobjects, 0, faceobjects.size() - 1);
+}
+
+void nms_sorted_bboxes(const std::vector<Object>& faceobjects, std::vector<int>& picked, float nms_threshold)
+{
+    picked.clear();
+
+    const int n = faceobjects.size();
+
+    std::vector<float> areas(n);
+    for (int i = 0; i < n; i++)
+    {
+        areas[i] = faceobjects[i].rect.width * faceobjects[i].rect.height;
+    }
+
+    for (int i = 0; i < n; i++)
+    {
+        const Object& a = faceobjects[i];
+
+        int keep = 1;
+        for (int j = 0; j < (int)picked.size(); j++)
+        {
+            const Object& b = faceobjects[picked[j]];
+
+            // intersection over union
+            float inter_area = intersection_area(a, b);
+            float union_area = areas[i] + areas[picked[j]] - inter_area;
+            // float IoU = inter_area / union_area
+            if (inter_area / union_area > nms_threshold)
+                keep = 0;
+        }
+
+        if (keep)
+            picked.push_back(i);
+    }
+}
+NmsParams::NmsParams()
+{
+    prob_threshold = 0.4f;
+    nms_threshold = 0.5f;
+    pre_nms_topk = 300;
+    max_detections = 100;
+    class_aware = false;
+}
+
+// bin size in input pixels, about the size of a mid-sized object at 320 input
+static const float NMS_CELL_SIZE = 64.f;
+
+void NmsEngine::run(std::vector<Object>& proposals, std::vector<int>& picked, const NmsParams& params)
+{
+    picked.clear();
+
+    struct
+    {
+        bool operator()(const Object& a, const Object& b) const
+        {
+            return a.prob > b.prob;
+        }
+    } objects_prob_greater;
+
+    // partial selection of the top-k, only those get sorted
+    if (params.pre_nms_topk > 0 && (int)proposals.size() > params.pre_nms_topk)
+    {
+        std::nth_element(proposals.begin(), proposals.begin() + params.pre_nms_topk, proposals.end(), objects_prob_greater);
+        proposals.resize(params.pre_nms_topk);
+    }
+    std::sort(proposals.begin(), proposals.end(), objects_prob_greater);
+
+    const int n = proposals.size();
+    if (n == 0)
+        return;
+
+    // grid covering every proposal
+    float min_x = FLT_MAX;
+    float min_y = FLT_MAX;
+    float max_x = -FLT_MAX;
+    float max_y = -FLT_MAX;
+    areas.resize(n);
+    for (int i = 0; i < n; i++)
+    {
+        const cv::Rect_<float>& r = proposals[i].rect;
+        areas[i] = r.width * r.height;
+        min_x = std::min(min_x, r.x);
+        min_y = std::min(min_y, r.y);
+        max_x = std::max(max_x, r.x + r.width);
+        max_y = std::max(max_y, r.y + r.height);
+    }
+
+    const int grid_cols = std::max((int)((max_x - min_x) / NMS_CELL_SIZE) + 1, 1);
+    const int grid_rows = std::max((int)((max_y - min_y) / NMS_CELL_SIZE) + 1, 1);
+    if ((int)cells.size() < grid_cols * grid_rows)
+        cells.resize(grid_cols * grid_rows);
+    for (int i = 0; i < grid_cols * grid_rows; i++)
+    {
+        cells[i].clear();
+    }
+
+    // last candidate that tested each kept box, so a box spanning several cells is tested once
+    visited.assign(n, -1);
+
+    const int max_detections = params.max_detections > 0 ? params.max_detections : n;
+
+    for (int i = 0; i < n && (int)picked.size() < max_detections; i++)
+    {
+        const Object& a = proposals[i];
+
+        // overlapping boxes always share at least one cell
+        const int c0 = std::min((int)((a.rect.x - min_x) / NMS_CELL_SIZE), grid_cols - 1);
+        const int r0 = std::min((int)((a.rect.y - min_y) / NMS_CELL_SIZE), grid_rows - 1);
+        const int c1 = std::min((int)((a.rect.x + a.rect.width - min_x) / NMS_CELL_SIZE), grid_cols - 1);
+        const int r1 = std::min((int)((a.rect.y + a.rect.height - min_y) / NMS_CELL_SIZE), grid_rows - 1);
+
+        int keep = 1;
+        for (int r = r0; r <= r1 && keep; r++)
+        {
+            for (int c = c0; c <= c1 && keep; c++)
+            {
+                const std::vector<int>& cell = cells[r * grid_cols + c];
+                for (int j = 0; j < (int)cell.size(); j++)
+                {
+                    const int k = cell[j];
+                    if (visited[k] == i)
+                        continue;
+
+                    visited[k] = i;
+
+                    const Object& b = proposals[k];
+                    if (params.class_aware && b.label != a.label)
+                        continue;
+
+                    // intersection over union
+                    float inter_area = intersection_area(a, b);
+                    float union_area = areas[i] + areas[k] - inter_area;
+                    if (inter_area / union_area > params.nms_threshold)
+                    {
+                        keep = 0;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (!keep)
+            continue;
+
+        picked.push_back(i);
+
+        for (int r = r0; r <= r1; r++)
+        {
+            for (int c = c0; c <= c1; c++)
+            {
+                cells[r * grid_cols + c].push_back(i);
+            }
+        }
+    }
+}
+
+void generate_grids_and_stride(const int target_w, const int target_h, const std::vector<int>& strides, std::vector<GridAndStride>& grid_strides)
+{
+    for (int i = 0; i < (int)strides.size(); i++)
+    {
+        int stride = strides[i];
+        int num_grid_w = target_w / stride;
+        int num_grid_h = target_h / stride;
+        for (int g1 = 0; g1 < num_grid_h; g1++)
+        {
+            for (int g0 = 0; g0 < num_grid_w; g0++)
+            {
+                GridAndStride gs;
+                gs.grid0 = g0;
+                gs.grid1 = g1;
+                gs.stride = stride;
+                grid_strides.push_back(gs);
+            }
+        }
+    }
+}
+
+// softmax expectation over the dfl bins of the 4 box sides
+// the bins of one side are contiguous, the fixed trip counts let the compiler vectorize each pass
+static void dfl_decode(const float* bbox_pred, float* pred_ltrb)
+{
+    for (int k = 0; k < 4; k++)
+    {
+        const float* ptr = bbox_pred + k * YOLO_REG_MAX;
+
+        float max_logit = ptr[0];
+        for (int l = 1; l < YOLO_REG_MAX; l++)
+        {
+            max_logit = std::max(max_logit, ptr[l]);
+        }
+
+        float e[YOLO_REG_MAX];
+        for (int l = 0; l < YOLO_REG_MAX; l++)
+        {
+            e[l] = expf(ptr[l] - max_logit);
+        }
+
+        float sum = 0.f;
+        float dis = 0.f;
+        for (int l = 0; l < YOLO_REG_MAX; l++)
+        {
+            sum += e[l];
+            dis += l * e[l];
+        }
+
+        pred_ltrb[k] = dis / sum;
+    }
+}
+
+// sigmoid is monotonic over this logit range, fast_exp stays finite inside it
+static const float LOGIT_SEARCH_RANGE = 80.f;
+
+// float <-> integer key with the same ordering, adjacent floats have adjacent keys
+static int32_t float_to_ordered(float x)
+{
+    union {
+        float f;
+        int32_t i;
+    } v;
+    v.f = x;
+    return v.i >= 0 ? v.i : INT32_MIN - v.i;
+}
+
+static float ordered_to_float(int32_t k)
+{
+    union {
+        float f;
+        uint32_t i;
+    } v;
+    v.i = k >= 0 ? (uint32_t)k : 0x80000000u | (uint32_t)(-k);
+    return v.f;
+}
+
+float prob_to_logit_threshold(float prob_threshold)
+{
+    const float lo = -LOGIT_SEARCH_RANGE;
+    const float hi = LOGIT_SEARCH_RANGE;
+
+    // outside the searchable range, let every anchor through to the exact test
+    if (!(sigmoid(lo) < prob_threshold) || !(sigmoid(hi) >= prob_threshold))
+        return -FLT_MAX;
+
+    // smallest float logit whose sigmoid passes, found on the very same sigmoid used for box_prob
+    // the key span of [lo, hi] does not fit in int32
+    int64_t klo = float_to_ordered(lo);
+    int64_t khi = float_to_ordered(hi);
+    while (khi - klo > 1)
+    {
+        int32_t kmid = (int32_t)((klo + khi) / 2);
+        if (sigmoid(ordered_to_float(kmid)) >= prob_threshold)
+            khi = kmid;
+        else
+            klo = kmid;
+    }
+
+    return ordered_to_float((int32_t)khi);
+}
+
+static float class_score_max(const float* scores, int num_class)
+{
+    int k = 0;
+    float score = -FLT_MAX;
+
+    // nan never replaces the running max, like the scalar compare
+#if __ARM_NEON
+    float32x4_t _max0 = vdupq_n_f32(-FLT_MAX);
+    float32x4_t _max1 = vdupq_n_f32(-FLT_MAX);
+    for (; k + 7 < num_class; k += 8)
+    {
+        float32x4_t _p0 = vld1q_f32(scores + k);
+        float32x4_t _p1 = vld1q_f32(scores + k + 4);
+        _max0 = vbslq_f32(vcgtq_f32(_p0, _max0), _p0, _max0);
+        _max1 = vbslq_f32(vcgtq_f32(_p1, _max1), _p1, _max1);
+    }
+    for (; k + 3 < num_class; k += 4)
+    {
+        float32x4_t _p0 = vld1q_f32(scores + k);
+        _max0 = vbslq_f32(vcgtq_f32(_p0, _max0), _p0, _max0);
+    }
+    _max0 = vmaxq_f32(_max0, _max1);
+    float32x2_t _max = vpmax_f32(vget_low_f32(_max0), vget_high_f32(_max0));
+    _max = vpmax_f32(_max, _max);
+    score = vget_lane_f32(_max, 0);
+#elif __SSE2__
+    __m128 _max0 = _mm_set1_ps(-FLT_MAX);
+    __m128 _max1 = _mm_set1_ps(-FLT_MAX);
+    for (; k + 7 < num_class; k += 8)
+    {
+        // maxps returns the second operand when either is nan
+        _max0 = _mm_max_ps(_mm_loadu_ps(scores + k), _max0);
+        _max1 = _mm_max_ps(_mm_loadu_ps(scores + k + 4), _max1);
+    }
+    for (; k + 3 < num_class; k += 4)
+    {
+        _max0 = _mm_max_ps(_mm_loadu_ps(scores + k), _max0);
+    }
+    _max0 = _mm_max_ps(_max0, _max1);
+    _max0 = _mm_max_ps(_max0, _mm_movehl_ps(_max0, _max0));
+    _max0 = _mm_max_ss(_max0, _mm_shuffle_ps(_max0, _max0, _MM_SHUFFLE(1, 1, 1, 1)));
+    score = _mm_cvtss_f32(_max0);
+#endif
+    for (; k < num_class; k++)
+    {
+        if (scores[k] > score)
+            score = scores[k];
+    }
+
+    return score;
+}
+
+int class_score_argmax(const float* scores, int num_class, float logit_threshold, float& score)
+{
+    // one pass for the max and its index, every lane keeps the first index of its own max
+    // the lanes holding the overall max then give up the smallest index, so the first one wins on ties like the scalar scan
+    // the index reduce only runs once the max has passed logit_threshold
+    // nan never replaces the running max
+    int k = 0;
+    score = -FLT_MAX;
+#if __ARM_NEON
+    // the second accumulator stores the index of the first, off by 4, so one index vector serves both
+    int32x4_t _k = {0, 1, 2, 3};
+    float32x4_t _max0 = vdupq_n_f32(-FLT_MAX);
+    float32x4_t _max1 = vdupq_n_f32(-FLT_MAX);
+    int32x4_t _idx0 = vdupq_n_s32(-1);
+    int32x4_t _idx1 = vdupq_n_s32(-5);
+    for (; k + 7 < num_class; k += 8)
+    {
+        float32x4_t _p0 = vld1q_f32(scores + k);
+        float32x4_t _p1 = vld1q_f32(scores + k + 4);
+        uint32x4_t _gt0 = vcgtq_f32(_p0, _max0);
+        uint32x4_t _gt1 = vcgtq_f32(_p1, _max1);
+        _max0 = vbslq_f32(_gt0, _p0, _max0);
+        _max1 = vbslq_f32(_gt1, _p1, _max1);
+        _idx0 = vbslq_s32(_gt0, _k, _idx0);
+        _idx1 = vbslq_s32(_gt1, _k, _idx1);
+        _k = vaddq_s32(_k, vdupq_n_s32(8));
+    }
+    for (; k + 3 < num_class; k += 4)
+    {
+        float32x4_t _p0 = vld1q_f32(scores + k);
+        uint32x4_t _gt0 = vcgtq_f32(_p0, _max0);
+        _max0 = vbslq_f32(_gt0, _p0, _max0);
+        _idx0 = vbslq_s32(_gt0, _k, _idx0);
+        _k = vaddq_s32(_k, vdupq_n_s32(4));
+    }
+    float32x4_t _max01 = vmaxq_f32(_max0, _max1);
+    float32x2_t _max = vpmax_f32(vget_low_f32(_max01), vget_high_f32(_max01));
+    _max = vpmax_f32(_max, _max);
+    score = vget_lane_f32(_max, 0);
+#elif __SSE2__
+    // the second accumulator stores the index of the first, off by 4, so one index vector serves both
+    __m128i _k = _mm_setr_epi32(0, 1, 2, 3);
+    __m128 _max0 = _mm_set1_ps(-FLT_MAX);
+    __m128 _max1 = _mm_set1_ps(-FLT_MAX);
+    __m128i _idx0 = _mm_set1_epi32(-1);
+    __m128i _idx1 = _mm_set1_epi32(-5);
+    for (; k + 7 < num_class; k += 8)
+    {
+        __m128 _p0 = _mm_loadu_ps(scores + k);
+        __m128 _p1 = _mm_loadu_ps(scores + k + 4);
+        __m128i _gt0 = _mm_castps_si128(_mm_cmpgt_ps(_p0, _max0));
+        __m128i _gt1 = _mm_castps_si128(_mm_cmpgt_ps(_p1, _max1));
+        // maxps returns the second operand when either is nan
+        _max0 = _mm_max_ps(_p0, _max0);
+        _max1 = _mm_max_ps(_p1, _max1);
+        _idx0 = _mm_or_si128(_mm_and_si128(_gt0, _k), _mm_andnot_si128(_gt0, _idx0));
+        _idx1 = _mm_or_si128(_mm_and_si128(_gt1, _k), _mm_andnot_si128(_gt1, _idx1));
+        _k = _mm_add_epi32(_k, _mm_set1_epi32(8));
+    }
+    for (; k + 3 < num_class; k += 4)
+    {
+        __m128 _p0 = _mm_loadu_ps(scores + k);
+        __m128i _gt0 = _mm_castps_si128(_mm_cmpgt_ps(_p0, _max0));
+        _max0 = _mm_max_ps(_p0, _max0);
+        _idx0 = _mm_or_si128(_mm_and_si128(_gt0, _k), _mm_andnot_si128(_gt0, _idx0));
+        _k = _mm_add_epi32(_k, _mm_set1_epi32(4));
+    }
+    __m128 _maxq = _mm_max_ps(_max0, _max1);
+    _maxq = _mm_max_ps(_maxq, _mm_movehl_ps(_maxq, _maxq));
+    _maxq = _mm_max_ss(_maxq, _mm_shuffle_ps(_maxq, _maxq, _MM_SHUFFLE(1, 1, 1, 1)));
+    score = _mm_cvtss_f32(_maxq);
+#endif
+
+    // the tail only takes the label when it beats every vector lane
+    int label = -1;
+    for (; k < num_class; k++)
+    {
+        if (scores[k] > score)
+        {
+            label = k;
+            score = scores[k];
+        }
+    }
+
+    // early reject in logit space, no exp and no index reduce
+    if (!(score >= logit_threshold))
+        return -1;
+
+    if (label >= 0)
+        return label;
+
+#if __ARM_NEON
+    float32x4_t _maxq = vdupq_n_f32(score);
+    int32x4_t _none = vdupq_n_s32(INT_MAX);
+    _idx0 = vbslq_s32(vceqq_f32(_max0, _maxq), _idx0, _none);
+    _idx1 = vbslq_s32(vceqq_f32(_max1, _maxq), vaddq_s32(_idx1, vdupq_n_s32(4)), _none);
+    _idx0 = vminq_s32(_idx0, _idx1);
+    int32x2_t _idx = vpmin_s32(vget_low_s32(_idx0), vget_high_s32(_idx0));
+    _idx = vpmin_s32(_idx, _idx);
+    label = vget_lane_s32(_idx, 0);
+#elif __SSE2__
+    // sse2 has no signed min, lanes below the max become INT_MAX and the min is taken with compares
+    _maxq = _mm_set1_ps(score);
+    __m128i _none = _mm_set1_epi32(INT_MAX);
+    __m128i _eq0 = _mm_castps_si128(_mm_cmpeq_ps(_max0, _maxq));
+    __m128i _eq1 = _mm_castps_si128(_mm_cmpeq_ps(_max1, _maxq));
+    _idx0 = _mm_or_si128(_mm_and_si128(_eq0, _idx0), _mm_andnot_si128(_eq0, _none));
+    _idx1 = _mm_or_si128(_mm_and_si128(_eq1, _mm_add_epi32(_idx1, _mm_set1_epi32(4))), _mm_andnot_si128(_eq1, _none));
+    __m128i _lt = _mm_cmplt_epi32(_idx1, _idx0);
+    _idx0 = _mm_or_si128(_mm_and_si128(_lt, _idx1), _mm_andnot_si128(_lt, _idx0));
+    __m128i _idx = _mm_shuffle_epi32(_idx0, _MM_SHUFFLE(1, 0, 3, 2));
+    _lt = _mm_cmplt_epi32(_idx, _idx0);
+    _idx0 = _mm_or_si128(_mm_and_si128(_lt, _idx), _mm_andnot_si128(_lt, _idx0));
+    _idx = _mm_shuffle_epi32(_idx0, _MM_SHUFFLE(2, 3, 0, 1));
+    _lt = _mm_cmplt_epi32(_idx, _idx0);
+    _idx0 = _mm_or_si128(_mm_and_si128(_lt, _idx), _mm_andnot_si128(_lt, _idx0));
+    label = _mm_cvtsi128_si32(_idx0);
+#endif
+
+    return label;
+}
+
+// decode the box of one anchor
+static void push_proposal(const GridAndStride& gs, const float* bbox_pred, int label, float box_prob, std::vector<Object>& objects)
+{
+    float pred_ltrb[4];
+    dfl_decode(bbox_pred, pred_ltrb);
+
+    float pb_cx = (gs.grid0 + 0.5f) * gs.stride;
+    float pb_cy = (gs.grid1 + 0.5f) * gs.stride;
+
+    float x0 = pb_cx - pred_ltrb[0] * gs.stride;
+    float y0 = pb_cy - pred_ltrb[1] * gs.stride;
+    float x1 = pb_cx + pred_ltrb[2] * gs.stride;
+    float y1 = pb_cy + pred_ltrb[3] * gs.stride;
+
+    Object obj;
+    obj.rect.x = x0;
+    obj.rect.y = y0;
+    obj.rect.width = x1 - x0;
+    obj.rect.height = y1 - y0;
+    obj.label = label;
+    obj.prob = box_prob;
+    obj.track_id = -1;
+
+    objects.push_back(obj);
+}
+
+void generate_proposals(const std::vector<GridAndStride>& grid_strides, const float* pred, int pred_stride, int num_class, float prob_threshold, std::vector<Object>& objects)
+{
+    const int num_points = grid_strides.size();
+
+    const float logit_threshold = prob_to_logit_threshold(prob_threshold);
+
+    for (int i = 0; i < num_points; i++)
+    {
+        const float* bbox_pred = pred + (size_t)i * pred_stride;
+        const float* scores = bbox_pred + 4 * YOLO_REG_MAX;
+
+        float score;
+        int label = class_score_argmax(scores, num_class, logit_threshold, score);
+        if (label < 0)
+            continue;
+
+        float box_prob = sigmoid(score);
+        if (box_prob >= prob_threshold)
+        {
+            push_proposal(grid_strides[i], bbox_pred, label, box_prob, objects);
+        }
+    }
+}
+
+ClassFilter::ClassFilter()
+{
+    keep_best_other = false;
+
+    clear();
+}
+
+void ClassFilter::clear()
+{
+    enabled = false;
+    for (int i = 0; i < MAX_CLASSES / 64; i++)
+    {
+        bits[i] = 0;
+    }
+    num_labels = 0;
+}
+
+int ClassFilter::set(const int* _labels, int count)
+{
+    clear();
+
+    for (int i = 0; i < count; i++)
+    {
+        const int label = _labels[i];
+        if (label < 0 || label >= MAX_CLASSES)
+            continue;
+
+        bits[label >> 6] |= (uint64_t)1 << (label & 63);
+    }
+
+    for (int label = 0; label < MAX_CLASSES; label++)
+    {
+        if (test(label))
+            labels[num_labels++] = label;
+    }
+
+    enabled = true;
+    return num_labels;
+}
+
+void generate_proposals(const std::vector<GridAndStride>& grid_strides, const float* pred, int pred_stride, int num_class, float prob_threshold, const ClassFilter& filter, std::vector<Object>& objects)
+{
+    if (!filter.enabled)
+    {
+        generate_proposals(grid_strides, pred, pred_stride, num_class, prob_threshold, objects);
+        return;
+    }
+
+    const int num_points = grid_strides.size();
+
+    const float logit_threshold = prob_to_logit_threshold(prob_threshold);
+
+    const size_t num_selected = objects.size();
+
+    // anchor of the best unselected class
+    int best_other = -1;
+    float best_other_score = logit_threshold;
+
+    for (int i = 0; i < num_points; i++)
+    {
+        const float* bbox_pred = pred + (size_t)i * pred_stride;
+        const float* scores = bbox_pred + 4 * YOLO_REG_MAX;
+
+        // gather the selected columns only, the first one wins on ties
+        int label = -1;
+        float score = -FLT_MAX;
+        for (int k = 0; k < filter.num_labels; k++)
+        {
+            const int l = filter.labels[k];
+            if (l >= num_class)
+                break;
+
+            if (scores[l] > score)
+            {
+                label = l;
+                score = scores[l];
+            }
+        }
+
+        if (label >= 0 && score >= logit_threshold)
+        {
+            float box_prob = sigmoid(score);
+            if (box_prob >= prob_threshold)
+            {
+                push_proposal(grid_strides[i], bbox_pred, label, box_prob, objects);
+                continue;
+            }
+        }
+
+        if (!filter.keep_best_other || objects.size() != num_selected)
+            continue;
+
+        // every selected class is below the threshold, so a max above it belongs to an unselected class
+        float other_score = class_score_max(scores, num_class);
+        if (other_score >= best_other_score && (best_other < 0 || other_score > best_other_score))
+        {
+            best_other = i;
+            best_other_score = other_score;
+        }
+    }
+
+    if (best_other < 0 || objects.size() != num_selected)
+        return;
+
+    const float* bbox_pred = pred + (size_t)best_other * pred_stride;
+
+    float score;
+    int label = class_score_argmax(bbox_pred + 4 * YOLO_REG_MAX, num_class, logit_threshold, score);
+    if (label < 0)
+        return;
+
+    float box_prob = sigmoid(score);
+    if (box_prob >= prob_threshold)
+    {
+        push_proposal(grid_strides[best_other], bbox_pred, label, box_prob, objects);
+    }
+}
@@ -0,0 +1,121 @@
+#ifndef POSTPROCESS_H
+#define POSTPROCESS_H
+
+#include <opencv2/core/core.hpp>
+
+#include <stdint.h>
+
+#include <vector>
+
+struct Object
+{
+    cv::Rect_<float> rect;
+    int label;
+    float prob;
+
+    // 跟踪id，未跟踪时为-1
+    int track_id;
+};
+struct GridAndStride
+{
+    int grid0;
+    int grid1;
+    int stride;
+};
+
+// number of dfl bins per box side
+static const int YOLO_REG_MAX = 16;
+
+// grid cells of every stride for a padded input of target_w x target_h
+void generate_grids_and_stride(const int target_w, const int target_h, const std::vector<int>& strides, std::vector<GridAndStride>& grid_strides);
+
+// smallest logit whose sigmoid reaches prob_threshold, any class score below it can never pass
+// returns -FLT_MAX when the threshold is out of the searchable range so nothing is rejected early
+float prob_to_logit_threshold(float prob_threshold);
+
+// argmax over one row of class logits in a single pass, returns -1 when the max is below logit_threshold
+// otherwise returns the label and its logit in score, matching a plain first-max scalar scan
+int class_score_argmax(const float* scores, int num_class, float logit_threshold, float& score);
+
+// decode the anchors whose best class passes prob_threshold
+// each pred row holds 4 x YOLO_REG_MAX dfl logits followed by num_class class logits, rows are pred_stride floats apart
+void generate_proposals(const std::vector<GridAndStride>& grid_strides, const float* pred, int pred_stride, int num_class, float prob_threshold, std::vector<Object>& objects);
+
+// 类别过滤，只解码关心的类别
+struct ClassFilter
+{
+    // max number of classes the bitset holds
+    enum { MAX_CLASSES = 128 };
+
+    ClassFilter();
+
+    // every class passes
+    void clear();
+
+    // only the given labels pass, labels out of range are ignored, returns the number of selected labels
+    int set(const int* labels, int count);
+
+    bool test(int label) const
+    {
+        return (bits[label >> 6] >> (label & 63)) & 1;
+    }
+
+    bool enabled;
+
+    // also keep the single best box of the other classes when no selected class passes
+    bool keep_best_other;
+
+    uint64_t bits[MAX_CLASSES / 64];
+
+    // selected labels in increasing order
+    int labels[MAX_CLASSES];
+    int num_labels;
+};
+
+// same as above but the argmax only runs over the class columns selected by filter
+// anchors are labelled with their best selected class even when an unselected class scores higher
+// in keep_best_other mode the anchor of the best unselected class is decoded once at the end if no selected class passed
+void generate_proposals(const std::vector<GridAndStride>& grid_strides, const float* pred, int pred_stride, int num_class, float prob_threshold, const ClassFilter& filter, std::vector<Object>& objects);
+
+void qsort_descent_inplace(std::vector<Object>& objects);
+
+void nms_sorted_bboxes(const std::vector<Object>& objects, std::vector<int>& picked, float nms_threshold);
+
+// 后处理参数，按部署在召回率和延迟之间取舍
+struct NmsParams
+{
+    NmsParams();
+
+    float prob_threshold;
+    float nms_threshold;
+
+    // only the pre_nms_topk highest scoring proposals enter nms, <= 0 keeps all
+    int pre_nms_topk;
+
+    // stop once this many boxes are kept, <= 0 for no limit
+    int max_detections;
+
+    // suppress only boxes of the same label instead of across all labels
+    bool class_aware;
+
+    // classes decoded by generate_proposals
+    ClassFilter class_filter;
+};
+
+// greedy nms over proposals with top-k preselection
+// kept boxes are binned on a coarse grid so a candidate is only tested against kept boxes sharing a cell
+// the scratch buffers are reused across frames
+class NmsEngine
+{
+public:
+    // sorts proposals by score from highest to lowest, truncating to pre_nms_topk
+    // picked receives the indices of the kept proposals in score order
+    void run(std::vector<Object>& proposals, std::vector<int>& picked, const NmsParams& params);
+
+private:
+    std::vector<float> areas;
+    std::vector<std::vector<int> > cells;
+    std::vector<int> visited;
+};
+
+#endif // POSTPROCESS_H
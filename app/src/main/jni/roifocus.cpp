@@ -0,0 +1,83 @@
+#include "roifocus.h"
+
+#include <algorithm>
+
+RoiFocus::RoiFocus()
+{
+    target_label = -1;
+    crop_size = 320;
+    full_interval = 10;
+    max_misses = 2;
+    max_target_ratio = 0.6f;
+
+    clear();
+}
+
+void RoiFocus::clear()
+{
+    has_target = false;
+    passes_since_full = 0;
+    misses = 0;
+}
+
+bool RoiFocus::select(int frame_w, int frame_h, cv::Rect& crop)
+{
+    if (target_label < 0 || !has_target)
+        return false;
+
+    if (full_interval > 0 && passes_since_full + 1 >= full_interval)
+        return false;
+
+    // nothing to gain when the frame already fits the network input
+    if (frame_w <= crop_size && frame_h <= crop_size)
+        return false;
+
+    if (std::max(target_rect.width, target_rect.height) > crop_size * max_target_ratio)
+        return false;
+
+    // centered on the target, shifted inside the frame
+    const int w = std::min(crop_size, frame_w);
+    const int h = std::min(crop_size, frame_h);
+    const int cx = (int)(target_rect.x + target_rect.width * 0.5f);
+    const int cy = (int)(target_rect.y + target_rect.height * 0.5f);
+
+    crop.x = std::max(std::min(cx - w / 2, frame_w - w), 0);
+    crop.y = std::max(std::min(cy - h / 2, frame_h - h), 0);
+    crop.width = w;
+    crop.height = h;
+    return true;
+}
+
+void RoiFocus::update(const std::vector<Object>& objects, bool cropped)
+{
+    if (cropped)
+        passes_since_full++;
+    else
+        passes_since_full = 0;
+
+    // the most confident box of the target label
+    const Object* best = 0;
+    for (size_t i = 0; i < objects.size(); i++)
+    {
+        if (objects[i].label != target_label)
+            continue;
+
+        if (!best || objects[i].prob > best->prob)
+            best = &objects[i];
+    }
+
+    if (best)
+    {
+        has_target = true;
+        target_rect = best->rect;
+        misses = 0;
+        return;
+    }
+
+    // a full frame pass without the target has nothing to focus on
+    if (!cropped || ++misses >= max_misses)
+    {
+        has_target = false;
+        misses = 0;
+    }
+}
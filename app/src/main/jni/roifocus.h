@@ -0,0 +1,50 @@
+#ifndef ROIFOCUS_H
+#define ROIFOCUS_H
+
+#include <vector>
+
+#include <opencv2/core/core.hpp>
+
+#include "postprocess.h"
+
+// chooses between a full frame pass and a crop around the last box of the target label
+// the crop is target_size x target_size of the frame, so the network sees it at native resolution
+// and a small distant target keeps all of its pixels instead of being downsized with the whole frame
+// a full frame pass runs every full_interval passes and whenever the target is lost or too large for the crop
+class RoiFocus
+{
+public:
+    RoiFocus();
+
+    void clear();
+
+    // crop of the next pass in frame coordinates, false for a full frame pass
+    bool select(int frame_w, int frame_h, cv::Rect& crop);
+
+    // results of the last pass in frame coordinates, cropped tells which kind of pass produced them
+    void update(const std::vector<Object>& objects, bool cropped);
+
+public:
+    // label to focus on, < 0 disables the crop passes
+    int target_label;
+
+    // side of the crop, the network input size
+    int crop_size;
+
+    // every full_interval-th pass covers the full frame to reacquire targets
+    int full_interval;
+
+    // crop passes in a row without the target before falling back to full frame
+    int max_misses;
+
+    // targets larger than this fraction of the crop are detected on the full frame
+    float max_target_ratio;
+
+private:
+    bool has_target;
+    cv::Rect_<float> target_rect;
+    int passes_since_full;
+    int misses;
+};
+
+#endif // ROIFOCUS_H
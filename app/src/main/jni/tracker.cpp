@@ -0,0 +1,251 @@
+#include "tracker.h"
+
+#include <math.h>
+
+#include <algorithm>
+
+// process noise per frame and measurement noise, relative to the box height like bytetrack
+static const float STD_WEIGHT_POSITION = 1.f / 20;
+static const float STD_WEIGHT_VELOCITY = 1.f / 160;
+
+static void kalman_init(KalmanAxis& a, float z, float scale)
+{
+    const float sp = 2 * STD_WEIGHT_POSITION * scale;
+    const float sv = 10 * STD_WEIGHT_VELOCITY * scale;
+
+    a.x = z;
+    a.v = 0.f;
+    a.p00 = sp * sp;
+    a.p01 = 0.f;
+    a.p11 = sv * sv;
+}
+
+static void kalman_predict(KalmanAxis& a, float dt, float scale)
+{
+    const float qp = STD_WEIGHT_POSITION * scale;
+    const float qv = STD_WEIGHT_VELOCITY * scale;
+
+    a.x += a.v * dt;
+    a.p00 += dt * (2 * a.p01 + dt * a.p11) + qp * qp * dt;
+    a.p01 += dt * a.p11;
+    a.p11 += qv * qv * dt;
+}
+
+static void kalman_update(KalmanAxis& a, float z, float scale)
+{
+    const float r = STD_WEIGHT_POSITION * scale;
+
+    const float y = z - a.x;
+    const float s = a.p00 + r * r;
+    const float k0 = a.p00 / s;
+    const float k1 = a.p01 / s;
+
+    a.x += k0 * y;
+    a.v += k1 * y;
+    a.p11 -= k1 * a.p01;
+    a.p00 -= k0 * a.p00;
+    a.p01 -= k0 * a.p01;
+}
+
+static float iou(const cv::Rect_<float>& a, const cv::Rect_<float>& b)
+{
+    float inter = (a & b).area();
+    float uni = a.area() + b.area() - inter;
+    return uni > 0.f ? inter / uni : 0.f;
+}
+
+Tracker::Tracker()
+{
+    detect_interval = 1;
+    iou_threshold = 0.3f;
+    max_age = 30;
+    min_hits = 2;
+    confidence_decay = 0.9f;
+    min_confidence = 0.25f;
+
+    next_id = 0;
+    last_detection_seq = -1;
+    last_update_seq = -1;
+}
+
+void Tracker::clear()
+{
+    tracks.clear();
+    last_detection_seq = -1;
+    last_update_seq = -1;
+}
+
+bool Tracker::need_detection(int frame_seq) const
+{
+    if (last_detection_seq < 0 || frame_seq - last_detection_seq >= detect_interval)
+        return true;
+
+    // a confirmed track drifting on prediction alone for too long
+    for (size_t i = 0; i < tracks.size(); i++)
+    {
+        const Track& t = tracks[i];
+        if (t.hits < min_hits)
+            continue;
+
+        if (t.prob * powf(confidence_decay, (float)(frame_seq - t.last_seq)) < min_confidence)
+            return true;
+    }
+
+    return false;
+}
+
+void Tracker::mark_detection(int frame_seq)
+{
+    last_detection_seq = frame_seq;
+}
+
+Object Tracker::predicted_object(const Track& t, int frame_seq) const
+{
+    const float dt = (float)(frame_seq - t.last_seq);
+
+    const float cx = t.axes[0].x + t.axes[0].v * dt;
+    const float cy = t.axes[1].x + t.axes[1].v * dt;
+    const float w = std::max(t.axes[2].x + t.axes[2].v * dt, 1.f);
+    const float h = std::max(t.axes[3].x + t.axes[3].v * dt, 1.f);
+
+    Object obj;
+    obj.rect.x = cx - w * 0.5f;
+    obj.rect.y = cy - h * 0.5f;
+    obj.rect.width = w;
+    obj.rect.height = h;
+    obj.label = t.label;
+    obj.prob = t.prob * powf(confidence_decay, dt);
+    obj.track_id = t.id;
+    return obj;
+}
+
+void Tracker::update(std::vector<Object>& objects, int frame_seq)
+{
+    last_update_seq = frame_seq;
+
+    // drop tracks that went unmatched for too long
+    for (size_t i = 0; i < tracks.size();)
+    {
+        if (frame_seq - tracks[i].last_seq > max_age)
+        {
+            tracks[i] = tracks.back();
+            tracks.pop_back();
+        }
+        else
+        {
+            i++;
+        }
+    }
+
+    const int num_tracks = tracks.size();
+    const int num_objects = objects.size();
+
+    predictions.resize(num_tracks);
+    for (int i = 0; i < num_tracks; i++)
+    {
+        predictions[i] = predicted_object(tracks[i], frame_seq);
+    }
+
+    // greedy association, best iou first
+    candidates.clear();
+    for (int i = 0; i < num_tracks; i++)
+    {
+        for (int j = 0; j < num_objects; j++)
+        {
+            if (tracks[i].label != objects[j].label)
+                continue;
+
+            float v = iou(predictions[i].rect, objects[j].rect);
+            if (v < iou_threshold)
+                continue;
+
+            Candidate c;
+            c.iou = v;
+            c.track_index = i;
+            c.object_index = j;
+            candidates.push_back(c);
+        }
+    }
+
+    struct
+    {
+        bool operator()(const Candidate& a, const Candidate& b) const
+        {
+            return a.iou > b.iou;
+        }
+    } candidate_iou_greater;
+    std::sort(candidates.begin(), candidates.end(), candidate_iou_greater);
+
+    track_matched.assign(num_tracks, 0);
+    object_matched.assign(num_objects, 0);
+
+    for (size_t k = 0; k < candidates.size(); k++)
+    {
+        const Candidate& c = candidates[k];
+        if (track_matched[c.track_index] || object_matched[c.object_index])
+            continue;
+
+        track_matched[c.track_index] = 1;
+        object_matched[c.object_index] = 1;
+
+        Track& t = tracks[c.track_index];
+        Object& obj = objects[c.object_index];
+
+        const float z[4] = {obj.rect.x + obj.rect.width * 0.5f, obj.rect.y + obj.rect.height * 0.5f, obj.rect.width, obj.rect.height};
+        const float dt = (float)(frame_seq - t.last_seq);
+        const float scale = std::max(t.axes[3].x, 1.f);
+        for (int a = 0; a < 4; a++)
+        {
+            kalman_predict(t.axes[a], dt, scale);
+            kalman_update(t.axes[a], z[a], scale);
+        }
+
+        t.prob = obj.prob;
+        t.last_seq = frame_seq;
+        t.hits++;
+
+        obj.track_id = t.id;
+    }
+
+    // unmatched detections start new tracks
+    for (int j = 0; j < num_objects; j++)
+    {
+        if (object_matched[j])
+            continue;
+
+        Object& obj = objects[j];
+
+        Track t;
+        t.id = next_id++;
+        t.label = obj.label;
+        t.prob = obj.prob;
+        t.last_seq = frame_seq;
+        t.hits = 1;
+
+        const float scale = std::max(obj.rect.height, 1.f);
+        kalman_init(t.axes[0], obj.rect.x + obj.rect.width * 0.5f, scale);
+        kalman_init(t.axes[1], obj.rect.y + obj.rect.height * 0.5f, scale);
+        kalman_init(t.axes[2], obj.rect.width, scale);
+        kalman_init(t.axes[3], obj.rect.height, scale);
+
+        tracks.push_back(t);
+
+        obj.track_id = t.id;
+    }
+}
+
+void Tracker::predict(int frame_seq, std::vector<Object>& objects) const
+{
+    objects.clear();
+
+    for (size_t i = 0; i < tracks.size(); i++)
+    {
+        const Track& t = tracks[i];
+
+        // tentative tracks and tracks that missed the last detection coast silently until matched or aged out
+        if (t.hits < min_hits || t.last_seq != last_update_seq)
+            continue;
+
+        objects.push_back(predicted_object(t, frame_seq));
+    }
+}
@@ -0,0 +1,104 @@
+#ifndef TRACKER_H
+#define TRACKER_H
+
+#include <vector>
+
+#include "postprocess.h"
+
+// constant velocity kalman filter along one box coordinate, time is counted in camera frames
+struct KalmanAxis
+{
+    float x;
+    float v;
+
+    // covariance of (x, v)
+    float p00;
+    float p01;
+    float p11;
+};
+
+struct Track
+{
+    int id;
+    int label;
+
+    // prob of the last matched detection
+    float prob;
+
+    // center x, center y, width, height
+    KalmanAxis axes[4];
+
+    // frame of the last matched detection, the filter state refers to this frame
+    int last_seq;
+
+    // number of matched detections
+    int hits;
+};
+
+// sort style multi object tracker
+// detections are associated to tracks by greedy iou on the motion prediction, labels must agree
+// boxes of the frames between two detections are extrapolated without touching the filter state
+// tentative and coasting tracks are kept for association only, predict reports neither
+class Tracker
+{
+public:
+    Tracker();
+
+    void clear();
+
+    // whether frame_seq should run the network, every detect_interval frames or when a track gets unsure
+    bool need_detection(int frame_seq) const;
+
+    // the network is going to run on frame_seq
+    void mark_detection(int frame_seq);
+
+    // associate the detections of frame_seq and write their track_id, frames must come in increasing order
+    void update(std::vector<Object>& objects, int frame_seq);
+
+    // predicted boxes at frame_seq of the confirmed tracks matched by the last update, prob decays with the frames since then
+    void predict(int frame_seq, std::vector<Object>& objects) const;
+
+public:
+    // run the network every detect_interval frames, 1 runs it on every frame
+    int detect_interval;
+
+    // minimum iou between a prediction and a detection to match
+    float iou_threshold;
+
+    // frames a track survives without a match
+    int max_age;
+
+    // matched detections before a track is confirmed and reported by predict
+    int min_hits;
+
+    // per frame decay of the confidence of an unmatched track
+    float confidence_decay;
+
+    // run the network early once a confirmed track falls below this confidence
+    float min_confidence;
+
+private:
+    Object predicted_object(const Track& track, int frame_seq) const;
+
+private:
+    std::vector<Track> tracks;
+    int next_id;
+    int last_detection_seq;
+
+    // frame of the last update, -1 before the first
+    int last_update_seq;
+
+    // association scratch, reused across frames
+    struct Candidate
+    {
+        float iou;
+        int track_index;
+        int object_index;
+    };
+    std::vector<Candidate> candidates;
+    std::vector<Object> predictions;
+    std::vector<char> track_matched;
+    std::vector<char> object_matched;
+};
+
+#endif // TRACKER_H
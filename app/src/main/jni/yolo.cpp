@@ -16,269 +16,207 @@
 
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
+#if __ANDROID__
 #include <android/asset_manager_jni.h>
+#endif
+
+#include <stdio.h>
 
+#include "benchmark.h"
 #include "cpu.h"
 
-static float fast_exp(float x)
+#include "postprocess.h"
+
+Yolo::Yolo()
 {
-    union {
-        uint32_t i;
-        float f;
-    } v{};
-    v.i = (1 << 23) * (1.4426950409 * x + 126.93490512f);
-    return v.f;
+    blob_pool_allocator.set_size_compare_ratio(0.f);
+    workspace_pool_allocator.set_size_compare_ratio(0.f);
+
+    grid_w = 0;
+    grid_h = 0;
+
+    model_file_bytes = 0;
+
+    timings.preprocess_ms = 0;
+    timings.extract_ms = 0;
+    timings.decode_ms = 0;
+    timings.nms_ms = 0;
+    
+    // 默认启用UI
+    enable_ui = true;
+    language_id = 1; // 默认使用英文
 }
 
-static float sigmoid(float x)
+void Yolo::setUIOptions(bool showUI) 
 {
-    return 1.0f / (1.0f + fast_exp(-x));
+    enable_ui = showUI;
 }
-static float intersection_area(const Object& a, const Object& b)
+
+void Yolo::setLanguage(int languageID) 
 {
-    cv::Rect_<float> inter = a.rect & b.rect;
-    return inter.area();
+    language_id = languageID;
 }
 
-static void qsort_descent_inplace(std::vector<Object>& faceobjects, int left, int right)
+void Yolo::prepare_load(bool use_gpu, bool use_int8, const InferenceOptions& _options)
 {
-    int i = left;
-    int j = right;
-    float p = faceobjects[(left + right) / 2].prob;
+    yolo.clear();
+    blob_pool_allocator.clear();
+    workspace_pool_allocator.clear();
 
-    while (i <= j)
-    {
-        while (faceobjects[i].prob > p)
-            i++;
+    // 省电模式和omp线程数在执行检测的线程上设置
+    options = _options;
 
-        while (faceobjects[j].prob < p)
-            j--;
+    yolo.opt = ncnn::Option();
+    options.apply_pipeline(yolo.opt);
+    options.apply_runtime(yolo.opt);
 
-        if (i <= j)
-        {
-            // swap
-            std::swap(faceobjects[i], faceobjects[j]);
+#if NCNN_VULKAN
+    // vulkan没有int8的实现
+    yolo.opt.use_vulkan_compute = use_gpu && !use_int8;
+#endif
 
-            i++;
-            j--;
-        }
-    }
+    yolo.opt.use_int8_inference = use_int8;
 
-    //     #pragma omp parallel sections
-    {
-        //         #pragma omp section
-        {
-            if (left < j) qsort_descent_inplace(faceobjects, left, j);
-        }
-        //         #pragma omp section
-        {
-            if (i < right) qsort_descent_inplace(faceobjects, i, right);
-        }
-    }
+    yolo.opt.blob_allocator = &blob_pool_allocator;
+    yolo.opt.workspace_allocator = &workspace_pool_allocator;
 }
 
-static void qsort_descent_inplace(std::vector<Object>& faceobjects)
+void Yolo::finish_load(int _target_size, const float* _mean_vals, const float* _norm_vals)
 {
-    if (faceobjects.empty())
-        return;
-
-    qsort_descent_inplace(faceobjects, 0, faceobjects.size() - 1);
+    target_size = _target_size;
+    mean_vals[0] = _mean_vals[0];
+    mean_vals[1] = _mean_vals[1];
+    mean_vals[2] = _mean_vals[2];
+    norm_vals[0] = _norm_vals[0];
+    norm_vals[1] = _norm_vals[1];
+    norm_vals[2] = _norm_vals[2];
 }
 
-static void nms_sorted_bboxes(const std::vector<Object>& faceobjects, std::vector<int>& picked, float nms_threshold)
+int Yolo::load(const char* modeldir, const char* modeltype, int _target_size, const float* _mean_vals, const float* _norm_vals, bool use_gpu, bool use_int8, const InferenceOptions& _options)
 {
-    picked.clear();
+    prepare_load(use_gpu, use_int8, _options);
 
-    const int n = faceobjects.size();
+    char parampath[256];
+    char modelpath[256];
+    snprintf(parampath, sizeof(parampath), "%s/yolov8%s%s.param", modeldir, modeltype, use_int8 ? "-int8" : "");
+    snprintf(modelpath, sizeof(modelpath), "%s/yolov8%s%s.bin", modeldir, modeltype, use_int8 ? "-int8" : "");
 
-    std::vector<float> areas(n);
-    for (int i = 0; i < n; i++)
+    if (yolo.load_param(parampath) != 0 || yolo.load_model(modelpath) != 0)
     {
-        areas[i] = faceobjects[i].rect.width * faceobjects[i].rect.height;
+        yolo.clear();
+        return -1;
     }
 
-    for (int i = 0; i < n; i++)
+    model_file_bytes = 0;
+    FILE* fp = fopen(modelpath, "rb");
+    if (fp)
     {
-        const Object& a = faceobjects[i];
+        fseek(fp, 0, SEEK_END);
+        model_file_bytes = ftell(fp);
+        fclose(fp);
+    }
 
-        int keep = 1;
-        for (int j = 0; j < (int)picked.size(); j++)
-        {
-            const Object& b = faceobjects[picked[j]];
-
-            // intersection over union
-            float inter_area = intersection_area(a, b);
-            float union_area = areas[i] + areas[picked[j]] - inter_area;
-            // float IoU = inter_area / union_area
-            if (inter_area / union_area > nms_threshold)
-                keep = 0;
-        }
+    finish_load(_target_size, _mean_vals, _norm_vals);
 
-        if (keep)
-            picked.push_back(i);
-    }
+    return 0;
 }
-static void generate_grids_and_stride(const int target_w, const int target_h, std::vector<int>& strides, std::vector<GridAndStride>& grid_strides)
+
+#if __ANDROID__
+int Yolo::load(AAssetManager* mgr, const char* modeltype, int _target_size, const float* _mean_vals, const float* _norm_vals, bool use_gpu, bool use_int8, const InferenceOptions& _options)
 {
-    for (int i = 0; i < (int)strides.size(); i++)
+    prepare_load(use_gpu, use_int8, _options);
+
+    char parampath[256];
+    char modelpath[256];
+    sprintf(parampath, "yolov8%s%s.param", modeltype, use_int8 ? "-int8" : "");
+    sprintf(modelpath, "yolov8%s%s.bin", modeltype, use_int8 ? "-int8" : "");
+
+    if (yolo.load_param(mgr, parampath) != 0 || yolo.load_model(mgr, modelpath) != 0)
     {
-        int stride = strides[i];
-        int num_grid_w = target_w / stride;
-        int num_grid_h = target_h / stride;
-        for (int g1 = 0; g1 < num_grid_h; g1++)
-        {
-            for (int g0 = 0; g0 < num_grid_w; g0++)
-            {
-                GridAndStride gs;
-                gs.grid0 = g0;
-                gs.grid1 = g1;
-                gs.stride = stride;
-                grid_strides.push_back(gs);
-            }
-        }
+        yolo.clear();
+        return -1;
     }
-}
-static void generate_proposals(std::vector<GridAndStride> grid_strides, const ncnn::Mat& pred, float prob_threshold, std::vector<Object>& objects)
-{
-    const int num_points = grid_strides.size();
-    const int num_class = 80;
-    const int reg_max_1 = 16;
 
-    for (int i = 0; i < num_points; i++)
+    model_file_bytes = 0;
+    AAsset* asset = AAssetManager_open(mgr, modelpath, AASSET_MODE_UNKNOWN);
+    if (asset)
     {
-        const float* scores = pred.row(i) + 4 * reg_max_1;
-
-        // find label with max score
-        int label = -1;
-        float score = -FLT_MAX;
-        for (int k = 0; k < num_class; k++)
-        {
-            float confidence = scores[k];
-            if (confidence > score)
-            {
-                label = k;
-                score = confidence;
-            }
-        }
-        float box_prob = sigmoid(score);
-        if (box_prob >= prob_threshold)
-        {
-            ncnn::Mat bbox_pred(reg_max_1, 4, (void*)pred.row(i));
-            {
-                ncnn::Layer* softmax = ncnn::create_layer("Softmax");
-
-                ncnn::ParamDict pd;
-                pd.set(0, 1); // axis
-                pd.set(1, 1);
-                softmax->load_param(pd);
-
-                ncnn::Option opt;
-                opt.num_threads = 1;
-                opt.use_packing_layout = false;
-
-                softmax->create_pipeline(opt);
-
-                softmax->forward_inplace(bbox_pred, opt);
-
-                softmax->destroy_pipeline(opt);
-
-                delete softmax;
-            }
-
-            float pred_ltrb[4];
-            for (int k = 0; k < 4; k++)
-            {
-                float dis = 0.f;
-                const float* dis_after_sm = bbox_pred.row(k);
-                for (int l = 0; l < reg_max_1; l++)
-                {
-                    dis += l * dis_after_sm[l];
-                }
-
-                pred_ltrb[k] = dis * grid_strides[i].stride;
-            }
-
-            float pb_cx = (grid_strides[i].grid0 + 0.5f) * grid_strides[i].stride;
-            float pb_cy = (grid_strides[i].grid1 + 0.5f) * grid_strides[i].stride;
-
-            float x0 = pb_cx - pred_ltrb[0];
-            float y0 = pb_cy - pred_ltrb[1];
-            float x1 = pb_cx + pred_ltrb[2];
-            float y1 = pb_cy + pred_ltrb[3];
-
-            Object obj;
-            obj.rect.x = x0;
-            obj.rect.y = y0;
-            obj.rect.width = x1 - x0;
-            obj.rect.height = y1 - y0;
-            obj.label = label;
-            obj.prob = box_prob;
-
-            objects.push_back(obj);
-        }
+        model_file_bytes = AAsset_getLength(asset);
+        AAsset_close(asset);
     }
-}
 
-Yolo::Yolo()
-{
-    blob_pool_allocator.set_size_compare_ratio(0.f);
-    workspace_pool_allocator.set_size_compare_ratio(0.f);
-    
-    // 默认启用UI
-    enable_ui = true;
-    language_id = 1; // 默认使用英文
-}
+    finish_load(_target_size, _mean_vals, _norm_vals);
 
-void Yolo::setUIOptions(bool showUI) 
-{
-    enable_ui = showUI;
+    return 0;
 }
+#endif // __ANDROID__
 
-void Yolo::setLanguage(int languageID) 
+void Yolo::set_runtime_options(const InferenceOptions& _options)
 {
-    language_id = languageID;
+    options.num_threads = _options.num_threads;
+    options.powersave = _options.powersave;
+    options.light_mode = _options.light_mode;
+
+    // 之后创建的extractor使用新的选项
+    options.apply_runtime(yolo.opt);
 }
 
-int Yolo::load(AAssetManager* mgr, const char* modeltype, int _target_size, const float* _mean_vals, const float* _norm_vals, bool use_gpu)
+InferenceOptions Yolo::effective_options() const
 {
-    yolo.clear();
-    blob_pool_allocator.clear();
-    workspace_pool_allocator.clear();
-
-    ncnn::set_cpu_powersave(2);
-    ncnn::set_omp_num_threads(ncnn::get_big_cpu_count());
-
-    yolo.opt = ncnn::Option();
+    InferenceOptions effective = options;
+    effective.num_threads = yolo.opt.num_threads;
 
+    // 加载时ncnn会关闭gpu不支持的fp16，cpu上只有armv8.2的fp16指令才会使用fp16
+    bool fp16_device = true;
 #if NCNN_VULKAN
-    yolo.opt.use_vulkan_compute = use_gpu;
+    if (!yolo.opt.use_vulkan_compute)
+        fp16_device = ncnn::cpu_support_arm_asimdhp();
+#else
+    fp16_device = ncnn::cpu_support_arm_asimdhp();
 #endif
+    effective.use_fp16 = yolo.opt.use_fp16_storage && fp16_device && !yolo.opt.use_int8_inference;
 
-    yolo.opt.num_threads = ncnn::get_big_cpu_count();
-    yolo.opt.blob_allocator = &blob_pool_allocator;
-    yolo.opt.workspace_allocator = &workspace_pool_allocator;
+    effective.light_mode = yolo.opt.lightmode;
+    effective.use_winograd = yolo.opt.use_winograd_convolution;
+    effective.use_sgemm = yolo.opt.use_sgemm_convolution;
+    effective.use_packing_layout = yolo.opt.use_packing_layout;
+    return effective;
+}
 
-    char parampath[256];
-    char modelpath[256];
-    sprintf(parampath, "yolov8%s.param", modeltype);
-    sprintf(modelpath, "yolov8%s.bin", modeltype);
+int Yolo::input_size() const
+{
+    return target_size;
+}
 
-    yolo.load_param(mgr, parampath);
-    yolo.load_model(mgr, modelpath);
+void Yolo::set_input_size(int size)
+{
+    target_size = size;
+}
 
-    target_size = _target_size;
-    mean_vals[0] = _mean_vals[0];
-    mean_vals[1] = _mean_vals[1];
-    mean_vals[2] = _mean_vals[2];
-    norm_vals[0] = _norm_vals[0];
-    norm_vals[1] = _norm_vals[1];
-    norm_vals[2] = _norm_vals[2];
+const DetectTimings& Yolo::last_timings() const
+{
+    return timings;
+}
 
-    return 0;
+size_t Yolo::memory_bytes() const
+{
+    // fp16 weights on disk are expanded to fp32 on load, the blob and workspace pools hold roughly eight input sized tensors
+    return model_file_bytes * 2 + (size_t)target_size * target_size * 3 * sizeof(float) * 8;
 }
 
 int Yolo::detect(const cv::Mat& rgb, std::vector<Object>& objects, float prob_threshold, float nms_threshold)
 {
+    NmsParams nms_params;
+    nms_params.prob_threshold = prob_threshold;
+    nms_params.nms_threshold = nms_threshold;
+
+    return detect(rgb, objects, nms_params);
+}
+
+int Yolo::detect(const cv::Mat& rgb, std::vector<Object>& objects, const NmsParams& nms_params)
+{
+    double start = ncnn::get_current_time();
+
     int width = rgb.cols;
     int height = rgb.rows;
 
@@ -309,26 +247,123 @@ int Yolo::detect(const cv::Mat& rgb, std::vector<Object>& objects, float prob_th
 
     in_pad.substract_mean_normalize(0, norm_vals);
 
+    timings.preprocess_ms = ncnn::get_current_time() - start;
+
+    return detect_padded(in_pad, width, height, scale, wpad, hpad, objects, nms_params);
+}
+
+int Yolo::detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, std::vector<Object>& objects, float prob_threshold, float nms_threshold)
+{
+    NmsParams nms_params;
+    nms_params.prob_threshold = prob_threshold;
+    nms_params.nms_threshold = nms_threshold;
+
+    return detect(frame, roi_x, roi_y, roi_w, roi_h, rotate_type, objects, nms_params);
+}
+
+int Yolo::detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, std::vector<Object>& objects, const NmsParams& nms_params)
+{
+    double start = ncnn::get_current_time();
+
+    int width = 0;
+    int height = 0;
+    kanna_rotate_size(roi_w, roi_h, rotate_type, width, height);
+
+    // pad to multiple of 32
+    int w = width;
+    int h = height;
+    float scale = 1.f;
+    if (w > h)
+    {
+        scale = (float)target_size / w;
+        w = target_size;
+        h = h * scale;
+    }
+    else
+    {
+        scale = (float)target_size / h;
+        h = target_size;
+        w = w * scale;
+    }
+
+    int wpad = (w + 31) / 32 * 32 - w;
+    int hpad = (h + 31) / 32 * 32 - h;
+
+    // crop, rotate, resize, convert and normalize straight into the padded input
+    in_pad_buffer.create(w + wpad, h + hpad, 3);
+    yuv420sp_roi_to_tensor(frame, roi_x, roi_y, roi_w, roi_h, rotate_type, in_pad_buffer, wpad / 2, hpad / 2, w, h, 0, norm_vals);
+
+    timings.preprocess_ms = ncnn::get_current_time() - start;
+
+    return detect_padded(in_pad_buffer, width, height, scale, wpad, hpad, objects, nms_params);
+}
+
+int Yolo::detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, const cv::Rect& crop, std::vector<Object>& objects, const NmsParams& nms_params)
+{
+    // the crop of the rotated roi is a sub roi of the sensor frame
+    int x = 0;
+    int y = 0;
+    int w = 0;
+    int h = 0;
+    kanna_rotate_rect_inverse(roi_w, roi_h, rotate_type, crop.x, crop.y, crop.width, crop.height, x, y, w, h);
+
+    int ret = detect(frame, roi_x + x, roi_y + y, w, h, rotate_type, objects, nms_params);
+
+    for (size_t i = 0; i < objects.size(); i++)
+    {
+        objects[i].rect.x += crop.x;
+        objects[i].rect.y += crop.y;
+    }
+
+    return ret;
+}
+
+int Yolo::detect_padded(const ncnn::Mat& in_pad, int width, int height, float scale, int wpad, int hpad, std::vector<Object>& objects, const NmsParams& nms_params)
+{
+    // 省电模式绑定的是调用线程的omp线程池，切换开销大，只在本线程的设置变化时切换
+    static thread_local int thread_powersave = -1;
+    static thread_local int thread_num_threads = 0;
+    if (thread_powersave != options.powersave || thread_num_threads != yolo.opt.num_threads)
+    {
+        ncnn::set_cpu_powersave(options.powersave);
+        ncnn::set_omp_num_threads(yolo.opt.num_threads);
+        thread_powersave = options.powersave;
+        thread_num_threads = yolo.opt.num_threads;
+    }
+
+    double t0 = ncnn::get_current_time();
+
     ncnn::Extractor ex = yolo.create_extractor();
 
     ex.input("images", in_pad);
 
-    std::vector<Object> proposals;
-    
     ncnn::Mat out;
     ex.extract("output", out);
 
-    std::vector<int> strides = {8, 16, 32}; // might have stride=64
-    std::vector<GridAndStride> grid_strides;
-    generate_grids_and_stride(in_pad.w, in_pad.h, strides, grid_strides);
-    generate_proposals(grid_strides, out, prob_threshold, proposals);
+    double t1 = ncnn::get_current_time();
+
+    // the grid only depends on the padded input size
+    if (in_pad.w != grid_w || in_pad.h != grid_h)
+    {
+        std::vector<int> strides = {8, 16, 32}; // might have stride=64
+        grid_strides.clear();
+        generate_grids_and_stride(in_pad.w, in_pad.h, strides, grid_strides);
+        grid_w = in_pad.w;
+        grid_h = in_pad.h;
+    }
+    proposals.clear();
+    generate_proposals(grid_strides, out.row(0), out.w, 80, nms_params.prob_threshold, nms_params.class_filter, proposals);
+
+    double t2 = ncnn::get_current_time();
+
+    // top-k by score, then nms with nms_threshold up to max_detections
+    nms.run(proposals, picked, nms_params);
 
-    // sort all proposals by score from highest to lowest
-    qsort_descent_inplace(proposals);
+    double t3 = ncnn::get_current_time();
 
-    // apply nms with nms_threshold
-    std::vector<int> picked;
-    nms_sorted_bboxes(proposals, picked, nms_threshold);
+    timings.extract_ms = t1 - t0;
+    timings.decode_ms = t2 - t1;
+    timings.nms_ms = t3 - t2;
 
     int count = picked.size();
 
@@ -390,7 +425,7 @@ const char* Yolo::getLabelText(int label)
     return english_class_names[label];
 }
 
-int Yolo::draw(cv::Mat& rgb, const std::vector<Object>& objects)
+int Yolo::draw(cv::Mat& rgb, const std::vector<Object>& objects, int rotate_type)
 {
     // 如果UI被禁用，直接返回
     if (!enable_ui)
@@ -418,6 +453,11 @@ int Yolo::draw(cv::Mat& rgb, const std::vector<Object>& objects)
         {139, 125,  96}
     };
 
+    // 旋转前的画面尺寸，检测框和标签位置按画面计算
+    int frame_w = 0;
+    int frame_h = 0;
+    kanna_rotate_size(rgb.cols, rgb.rows, rotate_type, frame_w, frame_h);
+
     int color_index = 0;
 
     for (size_t i = 0; i < objects.size(); i++)
@@ -428,10 +468,14 @@ int Yolo::draw(cv::Mat& rgb, const std::vector<Object>& objects)
         const unsigned char* color = colors[color_index % 19];
         color_index++;
 
-        cv::Scalar cc(color[0], color[1], color[2]);
+        // 4通道时alpha为255
+        cv::Scalar cc(color[0], color[1], color[2], 255);
         
         // 绘制边框，使用标准样式的2px粗度
-        cv::rectangle(rgb, obj.rect, cc, 2);
+        cv::Rect rect = obj.rect;
+        if (rotate_type != 1)
+            kanna_rotate_rect(frame_w, frame_h, rotate_type, rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, rect.width, rect.height);
+        cv::rectangle(rgb, rect, cc, 2);
 
         // 准备标签文本
         std::string text;
@@ -458,18 +502,48 @@ int Yolo::draw(cv::Mat& rgb, const std::vector<Object>& objects)
         // 确保标签在画面内
         if (y < 0)
             y = 0;
-        if (x + label_size.width > rgb.cols)
-            x = rgb.cols - label_size.width;
-
-        // 绘制标签背景
-        cv::rectangle(rgb, cv::Rect(cv::Point(x, y), cv::Size(label_size.width, label_size.height + baseLine)), cc, -1);
+        if (x + label_size.width > frame_w)
+            x = frame_w - label_size.width;
 
         // 确定文字颜色：基于背景色亮度自动选择黑色或白色
-        cv::Scalar textcc = (color[0] + color[1] + color[2] >= 381) ? cv::Scalar(0, 0, 0) : cv::Scalar(255, 255, 255);
+        cv::Scalar textcc = (color[0] + color[1] + color[2] >= 381) ? cv::Scalar(0, 0, 0, 255) : cv::Scalar(255, 255, 255, 255);
+
+        const cv::Rect label_rect(cv::Point(x, y), cv::Size(label_size.width, label_size.height + baseLine));
 
-        // 使用OpenCV绘制英文
-        cv::putText(rgb, text, cv::Point(x, y + label_size.height), 
+        if (rotate_type == 1)
+        {
+            // 绘制标签背景
+            cv::rectangle(rgb, label_rect, cc, -1);
+
+            // 使用OpenCV绘制英文
+            cv::putText(rgb, text, cv::Point(x, y + label_size.height), 
+                        cv::FONT_HERSHEY_SIMPLEX, font_scale, textcc, 1);
+            continue;
+        }
+
+        // 旋转时标签先正向画在图块上，再旋转到图像中，图块需完整落在画面内
+        if (label_rect.x < 0 || label_rect.y < 0 || label_rect.x + label_rect.width > frame_w || label_rect.y + label_rect.height > frame_h)
+            continue;
+
+        const int channels = rgb.channels();
+        if (label_patch.size() < (size_t)label_rect.area() * channels)
+            label_patch.resize(label_rect.area() * channels);
+        cv::Mat patch(label_rect.height, label_rect.width, rgb.type(), label_patch.data());
+        patch = cc;
+        cv::putText(patch, text, cv::Point(0, label_size.height), 
                     cv::FONT_HERSHEY_SIMPLEX, font_scale, textcc, 1);
+
+        int px = 0;
+        int py = 0;
+        int pw = 0;
+        int ph = 0;
+        kanna_rotate_rect(frame_w, frame_h, rotate_type, label_rect.x, label_rect.y, label_rect.width, label_rect.height, px, py, pw, ph);
+
+        unsigned char* outptr = rgb.ptr<unsigned char>(py) + px * channels;
+        if (channels == 4)
+            ncnn::kanna_rotate_c4(patch.data, patch.cols, patch.rows, patch.cols * 4, outptr, pw, ph, (int)rgb.step, rotate_type);
+        else
+            ncnn::kanna_rotate_c3(patch.data, patch.cols, patch.rows, patch.cols * 3, outptr, pw, ph, (int)rgb.step, rotate_type);
     }
 
     return 0;
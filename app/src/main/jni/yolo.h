@@ -19,30 +19,64 @@
 
 #include <net.h>
 
-struct Object
-{
-    cv::Rect_<float> rect;
-    int label;
-    float prob;
-};
-struct GridAndStride
+#include "inferenceoptions.h"
+#include "postprocess.h"
+#include "yuvconv.h"
+
+// 一次检测各阶段的耗时，单位ms
+struct DetectTimings
 {
-    int grid0;
-    int grid1;
-    int stride;
+    double preprocess_ms;   // 缩放、填充和归一化，nv21输入时包含裁剪、旋转和颜色转换
+    double extract_ms;
+    double decode_ms;
+    double nms_ms;
 };
+
 class Yolo
 {
 public:
     Yolo();
 
-    int load(const char* modeltype, int target_size, const float* mean_vals, const float* norm_vals, bool use_gpu = false);
+    // 从modeldir目录加载yolov8X.param/.bin，用于主机上的基准测试
+    int load(const char* modeldir, const char* modeltype, int target_size, const float* mean_vals, const float* norm_vals, bool use_gpu = false, bool use_int8 = false, const InferenceOptions& options = InferenceOptions());
+
+#if __ANDROID__
+    // use_int8加载ncnn2int8量化的yolov8X-int8模型，只能在cpu上运行，文件缺失时返回-1
+    int load(AAssetManager* mgr, const char* modeltype, int target_size, const float* mean_vals, const float* norm_vals, bool use_gpu = false, bool use_int8 = false, const InferenceOptions& options = InferenceOptions());
+#endif
+
+    // 修改线程数/省电模式/light mode，从下一次检测开始生效，不重新加载模型，调用者需保证此时没有检测在运行
+    void set_runtime_options(const InferenceOptions& options);
 
-    int load(AAssetManager* mgr, const char* modeltype, int target_size, const float* mean_vals, const float* norm_vals, bool use_gpu = false);
+    // 实际生效的选项，设备不支持的选项为false
+    InferenceOptions effective_options() const;
 
     int detect(const cv::Mat& rgb, std::vector<Object>& objects, float prob_threshold = 0.4f, float nms_threshold = 0.5f);
 
-    int draw(cv::Mat& rgb, const std::vector<Object>& objects);
+    int detect(const cv::Mat& rgb, std::vector<Object>& objects, const NmsParams& nms_params);
+
+    // 直接从nv21 roi检测，旋转/缩放/转换/归一化合并为一次遍历，坐标为旋转后的roi坐标
+    int detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, std::vector<Object>& objects, float prob_threshold = 0.4f, float nms_threshold = 0.5f);
+
+    int detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, std::vector<Object>& objects, const NmsParams& nms_params);
+
+    // 只检测旋转后roi中的crop区域，坐标仍为旋转后的roi坐标
+    int detect(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, const cv::Rect& crop, std::vector<Object>& objects, const NmsParams& nms_params);
+
+    // 网络输入的长边
+    int input_size() const;
+
+    // 改变网络输入的长边，需为32的倍数，网格表和填充随之更新
+    void set_input_size(int size);
+
+    // 估计的常驻内存，用于模型缓存的预算
+    size_t memory_bytes() const;
+
+    // 最近一次检测各阶段的耗时
+    const DetectTimings& last_timings() const;
+
+    // rgb可以是3通道或4通道，rotate_type不为1时rgb是检测画面经kanna旋转后的图像，检测框随之旋转，标签文字保持正向
+    int draw(cv::Mat& rgb, const std::vector<Object>& objects, int rotate_type = 1);
     
     // 设置UI选项，只保留显示/隐藏参数
     void setUIOptions(bool showUI);
@@ -53,14 +87,42 @@ public:
     // 将标签编号转换为可显示的文本
     const char* getLabelText(int label);
 
+private:
+    void prepare_load(bool use_gpu, bool use_int8, const InferenceOptions& options);
+    void finish_load(int target_size, const float* mean_vals, const float* norm_vals);
+
+    int detect_padded(const ncnn::Mat& in_pad, int width, int height, float scale, int wpad, int hpad, std::vector<Object>& objects, const NmsParams& nms_params);
+
 private:
     ncnn::Net yolo;
     int target_size;
     float mean_vals[3];
     float norm_vals[3];
+    InferenceOptions options;
     ncnn::UnlockedPoolAllocator blob_pool_allocator;
     ncnn::PoolAllocator workspace_pool_allocator;
+
+    // 预分配的输入张量，尺寸不变时跨帧复用
+    ncnn::Mat in_pad_buffer;
+
+    // 按填充后的输入尺寸缓存的网格表
+    std::vector<GridAndStride> grid_strides;
+    int grid_w;
+    int grid_h;
+
+    // nms的临时缓冲，跨帧复用
+    NmsEngine nms;
+    std::vector<Object> proposals;
+    std::vector<int> picked;
     
+    // 权重文件大小
+    size_t model_file_bytes;
+
+    DetectTimings timings;
+
+    // 旋转绘制时的标签图块缓冲，跨帧复用
+    std::vector<unsigned char> label_patch;
+
     // UI控制变量
     bool enable_ui;    // 是否显示UI
     int language_id;   // 语言: 0=中文, 1=英文
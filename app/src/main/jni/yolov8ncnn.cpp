@@ -20,9 +20,13 @@
 
 #include <jni.h>
 
+#include <pthread.h>
+
+#include <string.h>
+#include <algorithm>
+#include <memory>
 #include <string>
 #include <vector>
-#include <time.h>  // 添加time.h支持nanosleep函数
 
 #include <platform.h>
 #include <benchmark.h>
@@ -31,6 +35,20 @@
 
 #include "ndkcamera.h"
 
+#include "framemailbox.h"
+
+#include "tracker.h"
+
+#include "framescheduler.h"
+
+#include "motiongate.h"
+
+#include "roifocus.h"
+
+#include "modelcache.h"
+
+#include "pipelinestats.h"
+
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
 
@@ -60,161 +78,838 @@ static int draw_unsupported(cv::Mat& rgb)
     return 0;
 }
 
-static int draw_fps(cv::Mat& rgb)
+// 当前使用的模型，只在model_lock下读取或替换指针
+// 使用者先取得一份引用再推理或绘制，替换后正在处理的帧继续使用旧模型，最后一份引用释放时旧模型才被删除
+static std::shared_ptr<Yolo> g_yolo;
+static ncnn::Mutex model_lock;
+
+static std::shared_ptr<Yolo> current_yolo()
+{
+    ncnn::MutexLockGuard g(model_lock);
+
+    return g_yolo;
+}
+
+// 发布新模型并返回旧模型，调用者应在不持有任何锁时释放返回值，最后一份引用释放时会删除模型
+static std::shared_ptr<Yolo> exchange_yolo(const std::shared_ptr<Yolo>& yolo)
+{
+    ncnn::MutexLockGuard g(model_lock);
+
+    std::shared_ptr<Yolo> old = g_yolo;
+    g_yolo = yolo;
+    return old;
+}
+
+// 保护模型的界面选项，渲染线程绘制时持有
+static ncnn::Mutex lock;
+
+// 界面选项，切换模型时应用到新模型
+static int g_language_id = 1;
+
+// 加载模型时持有，加载在一旁进行，不阻塞预览和检测
+// 已加载的模型，切换回缓存中的模型不需要重新加载
+static ncnn::Mutex load_lock;
+static ModelCache g_model_cache;
+
+// 推理期间持有，同一时间只有一帧在推理
+static ncnn::Mutex inference_lock;
+
+// 流水线模式：相机线程按传感器帧率显示，推理线程只检测信箱中最新的一帧
+static bool g_async_inference = true;
+
+// 后处理参数，与检测一起受inference_lock保护
+static NmsParams g_nms_params;
+
+// 目标区域聚焦，同样受inference_lock保护
+static RoiFocus g_roi_focus;
+static FrameMailbox g_mailbox;
+static ncnn::Thread* g_inference_thread = 0;
+
+// 推理线程发布的最新检测结果及其所属帧号
+static ncnn::Mutex result_lock;
+static std::vector<Object> g_result_objects;
+static int g_result_seq = -1;
+
+// 跟踪器，检测帧之间的画面由运动预测给出框
+static ncnn::Mutex tracker_lock;
+static Tracker g_tracker;
+static bool g_tracking_enabled = true;
+
+// 按推理耗时控制送入推理的帧，跟不上的帧在复制和预处理之前丢弃
+static FrameScheduler g_scheduler;
+
+// 运动门，画面静止时跳过推理，沿用上一次的结果，只在相机线程使用
+static ncnn::Mutex motion_lock;
+static MotionGate g_motion_gate;
+static bool g_motion_gate_enabled = false;
+
+// 各阶段耗时直方图和帧计数，各线程无锁写入
+static PipelineStats g_pipeline_stats;
+
+// 一次检测中预处理、推理、解码和nms的耗时
+static void record_detect_timings(const DetectTimings& t)
+{
+    g_pipeline_stats.add(PipelineStats::COUNTER_INFERRED);
+    g_pipeline_stats.record(PipelineStats::STAGE_PREPROCESS, t.preprocess_ms);
+    g_pipeline_stats.record(PipelineStats::STAGE_INFERENCE, t.extract_ms);
+    g_pipeline_stats.record(PipelineStats::STAGE_DECODE, t.decode_ms);
+    g_pipeline_stats.record(PipelineStats::STAGE_NMS, t.nms_ms);
+}
+
+// 在JNI_OnLoad中缓存的类和方法
+static jclass g_detected_object_class = 0;
+static jmethodID g_method_create_detected_object = 0;
+static jmethodID g_method_on_objects_detected = 0;
+static jmethodID g_method_on_detections = 0;
+static jfieldID g_field_batch_data = 0;
+
+// 检测结果传递给Java的全局引用
+static jobject g_detection_listener = 0;
+
+// 批量监听器及其双缓冲的DetectionBatch
+static jobject g_batch_listener = 0;
+static jobject g_batches[2] = {0, 0};
+static jfloatArray g_batch_data[2] = {0, 0};
+static int g_batch_capacity = 0;
+static int g_batch_index = 0;
+static std::vector<float> g_batch_staging;
+
+// 保护上面的监听器状态，回调在相机线程或推理线程中进行
+static ncnn::Mutex listener_lock;
+
+// 单次检测请求，同一时间最多一个
+// 由相机线程认领一帧，结果就绪或超时取消时结束，二者都在single_shot_lock下摘除请求，保证只完成一次
+struct SingleShotRequest
+{
+    // 0表示没有待完成的请求
+    int id;
+
+    // Yolov8Ncnn.PendingDetection，为0时结果只经由监听器返回
+    jobject pending;
+
+    // 认领的相机帧序号，-1表示还未拿到帧
+    int frame_seq;
+};
+
+static ncnn::Mutex single_shot_lock;
+static SingleShotRequest g_single_shot = {0, 0, -1};
+static int g_single_shot_next_id = 1;
+static jmethodID g_method_pending_complete = 0;
+
+// 添加全局JavaVM指针
+static JavaVM* g_jvm = 0;
+
+// 由本库附加到VM的native线程，线程退出时在key的析构函数中分离
+static pthread_key_t g_jni_env_key;
+
+static void detach_jni_thread(void* /*env*/)
+{
+    if (g_jvm)
+        g_jvm->DetachCurrentThread();
+}
+
+// 相机线程和推理线程只在第一次回调时附加，之后直接复用缓存的JNIEnv
+static JNIEnv* get_jni_env()
 {
-    // resolve moving average
-    float avg_fps = 0.f;
+    JNIEnv* env = (JNIEnv*)pthread_getspecific(g_jni_env_key);
+    if (env)
+        return env;
+
+    int status = g_jvm->GetEnv((void**)&env, JNI_VERSION_1_6);
+    if (status == JNI_OK)
+    {
+        // Java线程，由VM管理
+        return env;
+    }
+
+    if (status != JNI_EDETACHED || g_jvm->AttachCurrentThread(&env, NULL) != JNI_OK)
     {
-        static double t0 = 0.f;
-        static float fps_history[10] = {0.f};
+        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to attach thread");
+        return 0;
+    }
 
-        double t1 = ncnn::get_current_time();
-        if (t0 == 0.f)
-        {
-            t0 = t1;
-            return 0;
-        }
+    pthread_setspecific(g_jni_env_key, env);
 
-        float fps = 1000.f / (t1 - t0);
-        t0 = t1;
+    return env;
+}
 
-        for (int i = 9; i >= 1; i--)
-        {
-            fps_history[i] = fps_history[i - 1];
+// 打印并清除未处理的Java异常，有异常时返回true
+// 异常挂起时除了少数清理函数外不能再调用任何JNI函数，每次调用Java或查找类和方法之后都要检查
+static bool clear_jni_exception(JNIEnv* env)
+{
+    if (!env->ExceptionCheck())
+        return false;
+
+    env->ExceptionDescribe();
+    env->ExceptionClear();
+    return true;
+}
+
+// 查找并缓存回调用到的类和方法，每次查找失败都立即清除异常
+static void cache_jni_ids(JNIEnv* env)
+{
+    jclass objClass = env->FindClass("com/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject");
+    clear_jni_exception(env);
+    if (objClass)
+    {
+        g_detected_object_class = (jclass)env->NewGlobalRef(objClass);
+        g_method_create_detected_object = env->GetStaticMethodID(objClass, "create", "(FFFFIFIII)Lcom/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject;");
+        clear_jni_exception(env);
+        env->DeleteLocalRef(objClass);
+    }
+
+    jclass listenerClass = env->FindClass("com/tencent/yolov8ncnn/Yolov8Ncnn$DetectionListener");
+    clear_jni_exception(env);
+    if (listenerClass)
+    {
+        g_method_on_objects_detected = env->GetMethodID(listenerClass, "onObjectsDetected", "([Lcom/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject;)V");
+        clear_jni_exception(env);
+        env->DeleteLocalRef(listenerClass);
+    }
+
+    jclass batchListenerClass = env->FindClass("com/tencent/yolov8ncnn/Yolov8Ncnn$DetectionBatchListener");
+    clear_jni_exception(env);
+    if (batchListenerClass)
+    {
+        g_method_on_detections = env->GetMethodID(batchListenerClass, "onDetections", "(Lcom/tencent/yolov8ncnn/DetectionBatch;)V");
+        clear_jni_exception(env);
+        env->DeleteLocalRef(batchListenerClass);
+    }
+
+    jclass pendingClass = env->FindClass("com/tencent/yolov8ncnn/Yolov8Ncnn$PendingDetection");
+    clear_jni_exception(env);
+    if (pendingClass)
+    {
+        g_method_pending_complete = env->GetMethodID(pendingClass, "complete", "(IIF[Lcom/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject;)V");
+        clear_jni_exception(env);
+        env->DeleteLocalRef(pendingClass);
+    }
+
+    jclass batchClass = env->FindClass("com/tencent/yolov8ncnn/DetectionBatch");
+    clear_jni_exception(env);
+    if (batchClass)
+    {
+        g_field_batch_data = env->GetFieldID(batchClass, "data", "[F");
+        clear_jni_exception(env);
+        env->DeleteLocalRef(batchClass);
+    }
+
+    if (!g_method_create_detected_object || !g_method_on_objects_detected || !g_method_on_detections || !g_field_batch_data || !g_method_pending_complete)
+    {
+        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to cache detection callback ids");
+    }
+}
+
+// DetectionBatch的布局，与DetectionBatch.java保持一致
+enum
+{
+    BATCH_HEADER_COUNT = 0,
+    BATCH_HEADER_FRAME_WIDTH = 1,
+    BATCH_HEADER_FRAME_HEIGHT = 2,
+    BATCH_HEADER_FRAME_SEQ = 3,
+    BATCH_HEADER_SIZE = 4,
+
+    BATCH_COLUMN_X = 0,
+    BATCH_COLUMN_Y = 1,
+    BATCH_COLUMN_WIDTH = 2,
+    BATCH_COLUMN_HEIGHT = 3,
+    BATCH_COLUMN_PROB = 4,
+    BATCH_COLUMN_LABEL = 5,
+    BATCH_COLUMN_TRACK_ID = 6,
+    BATCH_COLUMN_COUNT = 7
+};
+
+// int字段以位模式存放在float数组中，Java端用Float.floatToRawIntBits读取
+static inline float int_bits_to_float(int v)
+{
+    union {
+        int i;
+        float f;
+    } u;
+    u.i = v;
+    return u.f;
+}
+
+// 按列填充暂存区，再整体拷贝到Java数组
+static void fill_detection_batch(JNIEnv* env, jfloatArray data, const std::vector<Object>& objects, int frame_width, int frame_height, int frame_seq)
+{
+    const int capacity = g_batch_capacity;
+    const int count = std::min((int)objects.size(), capacity);
+
+    g_batch_staging.resize(BATCH_HEADER_SIZE + BATCH_COLUMN_COUNT * capacity);
+    float* ptr = g_batch_staging.data();
+
+    ptr[BATCH_HEADER_COUNT] = int_bits_to_float(count);
+    ptr[BATCH_HEADER_FRAME_WIDTH] = int_bits_to_float(frame_width);
+    ptr[BATCH_HEADER_FRAME_HEIGHT] = int_bits_to_float(frame_height);
+    ptr[BATCH_HEADER_FRAME_SEQ] = int_bits_to_float(frame_seq);
+
+    float* xs = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_X * capacity;
+    float* ys = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_Y * capacity;
+    float* ws = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_WIDTH * capacity;
+    float* hs = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_HEIGHT * capacity;
+    float* probs = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_PROB * capacity;
+    float* labels = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_LABEL * capacity;
+    float* track_ids = ptr + BATCH_HEADER_SIZE + BATCH_COLUMN_TRACK_ID * capacity;
+    for (int i = 0; i < count; i++)
+    {
+        const Object& obj = objects[i];
+        xs[i] = obj.rect.x;
+        ys[i] = obj.rect.y;
+        ws[i] = obj.rect.width;
+        hs[i] = obj.rect.height;
+        probs[i] = obj.prob;
+        labels[i] = int_bits_to_float(obj.label);
+        track_ids[i] = int_bits_to_float(obj.track_id);
+    }
+
+    env->SetFloatArrayRegion(data, 0, g_batch_staging.size(), ptr);
+}
+
+static void clear_detection_batch_listener(JNIEnv* env)
+{
+    if (g_batch_listener) {
+        env->DeleteGlobalRef(g_batch_listener);
+        g_batch_listener = 0;
+    }
+    for (int i = 0; i < 2; i++) {
+        if (g_batches[i]) {
+            env->DeleteGlobalRef(g_batches[i]);
+            g_batches[i] = 0;
+        }
+        if (g_batch_data[i]) {
+            env->DeleteGlobalRef(g_batch_data[i]);
+            g_batch_data[i] = 0;
         }
-        fps_history[0] = fps;
+    }
+    g_batch_capacity = 0;
+    g_batch_index = 0;
+}
 
-        if (fps_history[9] == 0.f)
+// 把检测结果转换为DetectedObject数组，创建失败时清除异常并返回0
+static jobjectArray new_detected_object_array(JNIEnv* env, const std::vector<Object>& objects, int frame_width, int frame_height)
+{
+    // 创建Java对象数组
+    jobjectArray jObjArray = env->NewObjectArray(objects.size(), g_detected_object_class, NULL);
+    if (clear_jni_exception(env) || !jObjArray)
+        return 0;
+    
+    // 填充对象数组
+    for (size_t i = 0; i < objects.size(); i++) {
+        const Object& obj = objects[i];
+        
+        // 使用Java方法创建Java对象
+        jobject jObj = env->CallStaticObjectMethod(g_detected_object_class, 
+                g_method_create_detected_object, 
+                (jfloat)obj.rect.x, 
+                (jfloat)obj.rect.y, 
+                (jfloat)obj.rect.width, 
+                (jfloat)obj.rect.height, 
+                (jint)obj.label, 
+                (jfloat)obj.prob,
+                (jint)frame_width,
+                (jint)frame_height,
+                (jint)obj.track_id);
+        if (clear_jni_exception(env))
         {
+            env->DeleteLocalRef(jObjArray);
             return 0;
         }
 
-        for (int i = 0; i < 10; i++)
-        {
-            avg_fps += fps_history[i];
+        // 设置到数组
+        env->SetObjectArrayElement(jObjArray, i, jObj);
+        
+        // 释放局部引用
+        env->DeleteLocalRef(jObj);
+    }
+    
+    return jObjArray;
+}
+
+static void notify_detection_listener(const std::vector<Object>& objects, int frame_width, int frame_height, int frame_seq)
+{
+    ncnn::MutexLockGuard g(listener_lock);
+
+    if ((!g_detection_listener && !g_batch_listener) || !g_jvm)
+        return;
+
+    JNIEnv* env = get_jni_env();
+    if (!env)
+        return;
+
+    double start = ncnn::get_current_time();
+    
+    // 批量回调：一次拷贝，不创建Java对象
+    if (g_batch_listener && g_method_on_detections) {
+        jobject batch = g_batches[g_batch_index];
+        fill_detection_batch(env, g_batch_data[g_batch_index], objects, frame_width, frame_height, frame_seq);
+        g_batch_index = 1 - g_batch_index;
+
+        env->CallVoidMethod(g_batch_listener, g_method_on_detections, batch);
+        clear_jni_exception(env);
+    }
+
+    // 如果已设置监听器和相关方法
+    if (g_detection_listener && g_method_on_objects_detected && g_detected_object_class && g_method_create_detected_object) {
+        jobjectArray jObjArray = new_detected_object_array(env, objects, frame_width, frame_height);
+        if (jObjArray) {
+            // 调用onObjectsDetected方法
+            env->CallVoidMethod(g_detection_listener, g_method_on_objects_detected, jObjArray);
+            clear_jni_exception(env);
+
+            // 释放局部引用
+            env->DeleteLocalRef(jObjArray);
         }
-        avg_fps /= 10.f;
     }
 
-    char text[32];
-    sprintf(text, "FPS=%.2f", avg_fps);
+    g_pipeline_stats.record(PipelineStats::STAGE_CALLBACK, ncnn::get_current_time() - start);
+}
 
-    int baseLine = 0;
-    cv::Size label_size = cv::getTextSize(text, cv::FONT_HERSHEY_SIMPLEX, 0.5, 1, &baseLine);
+// 开始单次检测请求，已有带回调的请求未完成时返回-1
+// 没有回调的请求没有超时，拿不到帧时会一直挂着，直接被新请求替换
+static int begin_single_shot(JNIEnv* env, jobject pending)
+{
+    ncnn::MutexLockGuard g(single_shot_lock);
 
-    int y = 0;
-    int x = rgb.cols - label_size.width;
+    if (g_single_shot.id != 0 && g_single_shot.pending)
+        return -1;
 
-    // 不绘制FPS框
-    // cv::rectangle(rgb, cv::Rect(cv::Point(x, y), cv::Size(label_size.width, label_size.height + baseLine)),
-    //                 cv::Scalar(255, 255, 255), -1);
+    g_single_shot.id = g_single_shot_next_id++;
+    g_single_shot.pending = pending ? env->NewGlobalRef(pending) : 0;
+    g_single_shot.frame_seq = -1;
 
-    // cv::putText(rgb, text, cv::Point(x, y + label_size.height),
-    //             cv::FONT_HERSHEY_SIMPLEX, 0.5, cv::Scalar(0, 0, 0));
+    return g_single_shot.id;
+}
 
-    return 0;
+// 相机线程为待完成的请求认领一帧，返回true时这一帧需要检测
+static bool claim_single_shot(int frame_seq)
+{
+    ncnn::MutexLockGuard g(single_shot_lock);
+
+    if (g_single_shot.id == 0 || g_single_shot.frame_seq != -1)
+        return false;
+
+    g_single_shot.frame_seq = frame_seq;
+    return true;
 }
 
-static Yolo* g_yolo = 0;
-static ncnn::Mutex lock;
+// 摘除请求，id为0时摘除任意请求，frame_seq为-1时不检查认领的帧
+// 被摘除的请求写入request，其pending引用由调用者释放
+static bool take_single_shot(int id, int frame_seq, SingleShotRequest& request)
+{
+    ncnn::MutexLockGuard g(single_shot_lock);
 
-// 检测结果传递给Java的全局引用
-static jobject g_detection_listener = 0;
-static jmethodID g_method_on_objects_detected = 0;
-static jclass g_detected_object_class = 0;
-static jmethodID g_method_create_detected_object = 0;
+    if (g_single_shot.id == 0 || (id != 0 && g_single_shot.id != id))
+        return false;
 
-// 添加全局JavaVM指针
-static JavaVM* g_jvm = 0;
+    // 认领的帧被信箱中更新的帧替换时，由之后的结果完成
+    if (frame_seq != -1 && (g_single_shot.frame_seq == -1 || frame_seq < g_single_shot.frame_seq))
+        return false;
+
+    request = g_single_shot;
+
+    g_single_shot.id = 0;
+    g_single_shot.pending = 0;
+    g_single_shot.frame_seq = -1;
+    return true;
+}
+
+// 某一帧的检测结果就绪，如果它属于单次检测请求则完成请求
+static void complete_single_shot(const std::vector<Object>& objects, int frame_width, int frame_height, int frame_seq, double inference_ms)
+{
+    // 先取得JNIEnv再摘除请求，线程无法附加时请求留在原处，由Java侧超时取消时释放pending引用
+    JNIEnv* env = get_jni_env();
+    if (!env)
+        return;
+
+    SingleShotRequest request;
+    if (!take_single_shot(0, frame_seq, request))
+        return;
+
+    if (!request.pending)
+        return;
+
+    // 数组创建失败时不回调，由Java侧的超时结束请求
+    jobjectArray jObjArray = new_detected_object_array(env, objects, frame_width, frame_height);
+    if (jObjArray)
+    {
+        env->CallVoidMethod(request.pending, g_method_pending_complete, (jint)request.id, (jint)frame_seq, (jfloat)inference_ms, jObjArray);
+        clear_jni_exception(env);
+        env->DeleteLocalRef(jObjArray);
+    }
+    env->DeleteGlobalRef(request.pending);
+}
 
 class MyNdkCamera : public NdkCameraWindow
 {
 public:
-    virtual void on_image_render(cv::Mat& rgb) const;
+    MyNdkCamera();
+
+    virtual void on_image_yuv(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const;
+    virtual void on_image_render(cv::Mat& rgba, int rotate_type) const;
+
+private:
+    // 本帧检测结果，在渲染时绘制
+    mutable std::vector<Object> objects;
+
+    // 相机帧序号
+    mutable int frame_seq;
 };
 
-void MyNdkCamera::on_image_render(cv::Mat& rgb) const
+MyNdkCamera::MyNdkCamera()
 {
+    frame_seq = -1;
+}
+
+void MyNdkCamera::on_image_yuv(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type) const
+{
+    frame_seq++;
+
+    // 每一帧都计入相机帧间隔，运动门限和跟踪器跳过的帧也算
+    g_scheduler.note_frame();
+
+    // 单次检测请求认领这一帧，检测标志为false时也要检测
+    bool single_shot = claim_single_shot(frame_seq);
+
     // 只有当检测标志为true时才执行检测
-    if (g_detection_enabled)
+    if (!g_detection_enabled && !single_shot)
+        return;
+
+    // 当前帧尺寸，即旋转后的roi尺寸
+    int frame_width = 0;
+    int frame_height = 0;
+    kanna_rotate_size(roi_w, roi_h, rotate_type, frame_width, frame_height);
+
+    // 被调度器放行的帧，只有这些帧向调度器报告耗时和完成，单次检测的帧不经过调度器
+    bool admitted = false;
+
+    if (!single_shot)
+    {
+        // 画面相对上一次推理的帧没有明显变化时直接沿用上一次的结果
+        const double now = ncnn::get_current_time();
+        {
+            ncnn::MutexLockGuard g(motion_lock);
+
+            if (g_motion_gate_enabled && !g_motion_gate.changed(frame.y, frame.y_stride, roi_x, roi_y, roi_w, roi_h, now))
+            {
+                g_pipeline_stats.add(PipelineStats::COUNTER_GATED);
+                return;
+            }
+        }
+
+        bool detect_now = true;
+        if (g_tracking_enabled)
+        {
+            ncnn::MutexLockGuard g(tracker_lock);
+
+            detect_now = g_tracker.need_detection(frame_seq);
+        }
+
+        // 上一帧还没处理完或超出节奏时在源头丢弃，不复制也不做预处理
+        if (detect_now)
+        {
+            admitted = g_scheduler.admit();
+            if (!admitted)
+            {
+                g_pipeline_stats.add(PipelineStats::COUNTER_DROPPED_BUSY);
+                detect_now = false;
+            }
+        }
+
+        // 不运行网络的帧使用跟踪器的预测，没有跟踪时保留上一次的结果
+        if (!detect_now)
+        {
+            if (!g_tracking_enabled)
+                return;
+
+            {
+                ncnn::MutexLockGuard g(tracker_lock);
+
+                g_tracker.predict(frame_seq, objects);
+            }
+
+            if (g_async_inference)
+            {
+                ncnn::MutexLockGuard g(result_lock);
+
+                g_result_objects = objects;
+                g_result_seq = frame_seq;
+            }
+
+            notify_detection_listener(objects, frame_width, frame_height, frame_seq);
+            return;
+        }
+
+        if (g_tracking_enabled)
+        {
+            ncnn::MutexLockGuard g(tracker_lock);
+
+            g_tracker.mark_detection(frame_seq);
+        }
+
+        // 这一帧成为运动门的参考帧
+        {
+            ncnn::MutexLockGuard g(motion_lock);
+
+            if (g_motion_gate_enabled)
+                g_motion_gate.accept(now);
+        }
+    }
+
+    if (g_async_inference)
+    {
+        // 复制roi到信箱，未被取走的旧帧直接被替换
+        double start = ncnn::get_current_time();
+        MailboxFrame& mf = g_mailbox.begin_write();
+        mf.yuv.create(roi_h + roi_h / 2, roi_w, CV_8UC1);
+        for (int i = 0; i < roi_h; i++)
+        {
+            memcpy(mf.yuv.ptr(i), frame.y + (roi_y + i) * frame.y_stride + roi_x, roi_w);
+        }
+        for (int i = 0; i < roi_h / 2; i++)
+        {
+            memcpy(mf.yuv.ptr(roi_h + i), frame.uv + (roi_y / 2 + i) * frame.uv_stride + roi_x, roi_w);
+        }
+        mf.roi_w = roi_w;
+        mf.roi_h = roi_h;
+        mf.rotate_type = rotate_type;
+        mf.nv12 = frame.nv12;
+        mf.seq = frame_seq;
+        mf.full_frame = single_shot;
+        mf.admitted = admitted;
+
+        if (admitted)
+            g_scheduler.report(FrameScheduler::STAGE_COPY, ncnn::get_current_time() - start);
+
+        const MailboxFrame* replaced = g_mailbox.publish();
+        if (replaced)
+        {
+            g_pipeline_stats.add(PipelineStats::COUNTER_DROPPED_MAILBOX);
+
+            // 被替换的帧不会再推理，由它占用的调度名额随之释放
+            if (replaced->admitted)
+                g_scheduler.complete();
+        }
+        return;
+    }
+
+    objects.clear();
+    double inference_ms = 0;
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        std::shared_ptr<Yolo> yolo = current_yolo();
+        if (!yolo)
+        {
+            if (admitted)
+                g_scheduler.complete();
+            return;
+        }
+
+        // 单次检测总是检测整帧，其余帧可能只检测目标附近的区域
+        cv::Rect crop;
+        g_roi_focus.crop_size = yolo->input_size();
+        bool cropped = !single_shot && g_roi_focus.select(frame_width, frame_height, crop);
+
+        // 直接从nv21检测，不需要先转换出全分辨率rgb
+        double start = ncnn::get_current_time();
+        if (cropped)
+            yolo->detect(frame, roi_x, roi_y, roi_w, roi_h, rotate_type, crop, objects, g_nms_params);
+        else
+            yolo->detect(frame, roi_x, roi_y, roi_w, roi_h, rotate_type, objects, g_nms_params);
+        inference_ms = ncnn::get_current_time() - start;
+
+        record_detect_timings(yolo->last_timings());
+
+        g_roi_focus.update(objects, cropped);
+    }
+
+    if (admitted)
+    {
+        g_scheduler.report(FrameScheduler::STAGE_DETECT, inference_ms);
+        g_scheduler.complete();
+    }
+
+    if (g_tracking_enabled)
     {
+        ncnn::MutexLockGuard g(tracker_lock);
+
+        g_tracker.update(objects, frame_seq);
+    }
+
+    notify_detection_listener(objects, frame_width, frame_height, frame_seq);
+    complete_single_shot(objects, frame_width, frame_height, frame_seq, inference_ms);
+}
+
+void MyNdkCamera::on_image_render(cv::Mat& rgba, int rotate_type) const
+{
+    if (!g_detection_enabled)
+    {
+        objects.clear();
+    }
+    else if (g_async_inference)
+    {
+        // 绘制推理线程最新发布的结果
+        ncnn::MutexLockGuard g(result_lock);
+
+        objects = g_result_objects;
+    }
+
+    if (!objects.empty())
+    {
+        std::shared_ptr<Yolo> yolo = current_yolo();
+
         ncnn::MutexLockGuard g(lock);
 
-        if (g_yolo)
+        if (yolo)
+        {
+            yolo->draw(rgba, objects, rotate_type);
+        }
+    }
+}
+
+// 用灰色合成帧推理一次的耗时，尺寸和方向与后置摄像头竖屏预览一致
+static double synthetic_detect_ms(Yolo& yolo)
+{
+    const int w = 640;
+    const int h = 480;
+    std::vector<unsigned char> nv21(w * h * 3 / 2, 128);
+
+    YuvFrame frame;
+    frame.y = nv21.data();
+    frame.uv = nv21.data() + w * h;
+    frame.y_stride = w;
+    frame.uv_stride = w;
+    frame.width = w;
+    frame.height = h;
+    frame.nv12 = false;
+
+    std::vector<Object> objects;
+
+    double start = ncnn::get_current_time();
+    yolo.detect(frame, 0, 0, w, h, 6, objects, NmsParams());
+    return ncnn::get_current_time() - start;
+}
+
+// 首次推理的内存池分配和ncnn的延迟初始化在发布前完成，新模型的第一帧即为稳定耗时
+static void warm_up(Yolo& yolo)
+{
+    double ms = synthetic_detect_ms(yolo);
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "warm up %d %.2f ms", yolo.input_size(), ms);
+}
+
+// 自动选择输入尺寸时的候选，从小到大
+static const int AUTO_INPUT_SIZES[] = {320, 416, 512, 640};
+
+// 从小到大测量候选尺寸，选出合成帧耗时不超过latency_budget_ms的最大尺寸，都超出时使用最小的尺寸
+static int calibrate_input_size(Yolo& yolo, float latency_budget_ms)
+{
+    const int count = sizeof(AUTO_INPUT_SIZES) / sizeof(AUTO_INPUT_SIZES[0]);
+
+    int chosen = AUTO_INPUT_SIZES[0];
+    for (int i = 0; i < count; i++)
+    {
+        yolo.set_input_size(AUTO_INPUT_SIZES[i]);
+
+        // 第一次包含这个尺寸的内存分配，取之后三次的中位数
+        synthetic_detect_ms(yolo);
+
+        double t[3];
+        for (int k = 0; k < 3; k++)
         {
-            std::vector<Object> objects;
-            g_yolo->detect(rgb, objects);
-
-            g_yolo->draw(rgb, objects);
-            
-            // 移除调用Java方法渲染汉字的代码，让原生C++代码完成所有渲染
-            // 仅保留检测结果回调部分
-            if (g_detection_listener && g_jvm)
+            t[k] = synthetic_detect_ms(yolo);
+        }
+        std::sort(t, t + 3);
+
+        __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "calibrate %d %.2f ms", AUTO_INPUT_SIZES[i], t[1]);
+
+        // 耗时随尺寸单调增加，超出后不再尝试更大的尺寸
+        if (t[1] > latency_budget_ms)
+            break;
+
+        chosen = AUTO_INPUT_SIZES[i];
+    }
+
+    yolo.set_input_size(chosen);
+    return chosen;
+}
+
+static void* inference_worker(void* /*args*/)
+{
+    std::vector<Object> objects;
+
+    const MailboxFrame* mf = 0;
+    while ((mf = g_mailbox.take()) != 0)
+    {
+        int frame_width = 0;
+        int frame_height = 0;
+        kanna_rotate_size(mf->roi_w, mf->roi_h, mf->rotate_type, frame_width, frame_height);
+
+        objects.clear();
+        double inference_ms = 0;
+        {
+            ncnn::MutexLockGuard g(inference_lock);
+
+            // 推理期间持有这一份引用，模型被替换时这一帧仍在旧模型上完成
+            std::shared_ptr<Yolo> yolo = current_yolo();
+            if (!yolo)
             {
-                JNIEnv* env = 0;
-                int status = 0;
-                
-                // 获取JNIEnv
-                status = g_jvm->GetEnv((void**)&env, JNI_VERSION_1_6);
-                if (status == JNI_EDETACHED) {
-                    // 附加当前线程到VM
-                    if (g_jvm->AttachCurrentThread(&env, NULL) != JNI_OK) {
-                        __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to attach thread");
-                        return;
-                    }
-                } else if (status != JNI_OK) {
-                    __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to get JNIEnv");
-                    return;
-                }
-                
-                // 如果已设置监听器和相关方法
-                if (g_method_on_objects_detected && g_detected_object_class && g_method_create_detected_object) {
-                    // 创建Java对象数组
-                    jobjectArray jObjArray = env->NewObjectArray(objects.size(), g_detected_object_class, NULL);
-                    
-                    // 当前帧尺寸
-                    int frame_width = rgb.cols;
-                    int frame_height = rgb.rows;
-                    
-                    // 填充对象数组
-                    for (size_t i = 0; i < objects.size(); i++) {
-                        const Object& obj = objects[i];
-                        
-                        // 使用Java方法创建Java对象
-                        jobject jObj = env->CallStaticObjectMethod(g_detected_object_class, 
-                                g_method_create_detected_object, 
-                                (jfloat)obj.rect.x, 
-                                (jfloat)obj.rect.y, 
-                                (jfloat)obj.rect.width, 
-                                (jfloat)obj.rect.height, 
-                                (jint)obj.label, 
-                                (jfloat)obj.prob,
-                                (jint)frame_width,
-                                (jint)frame_height);
-                                
-                        // 设置到数组
-                        env->SetObjectArrayElement(jObjArray, i, jObj);
-                        
-                        // 释放局部引用
-                        env->DeleteLocalRef(jObj);
-                    }
-                    
-                    // 调用onObjectsDetected方法
-                    env->CallVoidMethod(g_detection_listener, g_method_on_objects_detected, jObjArray);
-                    
-                    // 释放局部引用
-                    env->DeleteLocalRef(jObjArray);
-                }
-                
-                // 如果当前线程是动态附加的，释放它
-                if (status == JNI_EDETACHED) {
-                    g_jvm->DetachCurrentThread();
-                }
+                if (mf->admitted)
+                    g_scheduler.complete();
+                continue;
             }
+
+            cv::Rect crop;
+            g_roi_focus.crop_size = yolo->input_size();
+            bool cropped = !mf->full_frame && g_roi_focus.select(frame_width, frame_height, crop);
+
+            double start = ncnn::get_current_time();
+            if (cropped)
+                yolo->detect(mf->frame(), 0, 0, mf->roi_w, mf->roi_h, mf->rotate_type, crop, objects, g_nms_params);
+            else
+                yolo->detect(mf->frame(), 0, 0, mf->roi_w, mf->roi_h, mf->rotate_type, objects, g_nms_params);
+            inference_ms = ncnn::get_current_time() - start;
+
+            record_detect_timings(yolo->last_timings());
+
+            g_roi_focus.update(objects, cropped);
         }
+
+        // 单次检测的帧没有经过调度器，不影响节奏和在途状态
+        if (mf->admitted)
+        {
+            g_scheduler.report(FrameScheduler::STAGE_DETECT, inference_ms);
+            g_scheduler.complete();
+        }
+
+        if (g_tracking_enabled)
+        {
+            ncnn::MutexLockGuard g(tracker_lock);
+
+            g_tracker.update(objects, mf->seq);
+        }
+
+        // 发布结果，附带所属帧号，相机线程已经发布了更新帧的预测时不再回退
+        bool stale = false;
+        {
+            ncnn::MutexLockGuard g(result_lock);
+
+            stale = mf->seq < g_result_seq;
+            if (!stale)
+            {
+                g_result_objects = objects;
+                g_result_seq = mf->seq;
+            }
+        }
+
+        if (!stale)
+            notify_detection_listener(objects, frame_width, frame_height, mf->seq);
+
+        complete_single_shot(objects, frame_width, frame_height, mf->seq, inference_ms);
     }
 
-    draw_fps(rgb);
+    return 0;
 }
 
 static MyNdkCamera* g_camera = 0;
@@ -227,11 +922,22 @@ JNIEXPORT jint JNI_OnLoad(JavaVM* vm, void* reserved)
 
     // 存储JavaVM指针到全局变量
     g_jvm = vm;
+
+    pthread_key_create(&g_jni_env_key, detach_jni_thread);
+
+    JNIEnv* env = 0;
+    if (vm->GetEnv((void**)&env, JNI_VERSION_1_6) == JNI_OK)
+    {
+        cache_jni_ids(env);
+    }
     
     // 确保检测标志初始为禁用状态
     g_detection_enabled = false;
 
     g_camera = new MyNdkCamera;
+    g_camera->stats = &g_pipeline_stats;
+
+    g_inference_thread = new ncnn::Thread(inference_worker);
 
     return JNI_VERSION_1_4;
 }
@@ -240,41 +946,56 @@ JNIEXPORT void JNI_OnUnload(JavaVM* vm, void* reserved)
 {
     __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "JNI_OnUnload");
 
+    g_mailbox.close();
+    g_inference_thread->join();
+    delete g_inference_thread;
+    g_inference_thread = 0;
+
+    exchange_yolo(std::shared_ptr<Yolo>());
+
     {
-        ncnn::MutexLockGuard g(lock);
+        ncnn::MutexLockGuard g(load_lock);
 
-        delete g_yolo;
-        g_yolo = 0;
+        g_model_cache.clear();
     }
 
     delete g_camera;
     g_camera = 0;
-}
 
-// public native boolean loadModel(AssetManager mgr, int modelid, int cpugpu);
-JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_loadModel(JNIEnv* env, jobject thiz, jobject assetManager, jint modelid, jint cpugpu)
-{
-    if (modelid < 0 || modelid > 6 || cpugpu < 0 || cpugpu > 1)
+    JNIEnv* env = 0;
+    if (vm->GetEnv((void**)&env, JNI_VERSION_1_6) == JNI_OK)
     {
-        return JNI_FALSE;
-    }
+        ncnn::MutexLockGuard g(listener_lock);
 
-    AAssetManager* mgr = AAssetManager_fromJava(env, assetManager);
+        clear_detection_batch_listener(env);
+
+        SingleShotRequest request;
+        if (take_single_shot(0, -1, request) && request.pending)
+            env->DeleteGlobalRef(request.pending);
 
-    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "loadModel %p", mgr);
+        if (g_detection_listener)
+        {
+            env->DeleteGlobalRef(g_detection_listener);
+            g_detection_listener = 0;
+        }
+        if (g_detected_object_class)
+        {
+            env->DeleteGlobalRef(g_detected_object_class);
+            g_detected_object_class = 0;
+        }
+    }
+}
 
+// input_size为0时按latency_budget_ms自动选择输入尺寸，use_int8加载量化模型
+// 只有线程数/省电模式/light mode不同时直接修改已加载的模型，不重新加载
+static jboolean load_model(JNIEnv* env, jobject assetManager, int modelid, int cpugpu, int input_size, float latency_budget_ms, bool use_int8, const InferenceOptions& options)
+{
     const char* modeltypes[] =
     {
         "n",
         "s",
     };
 
-    const int target_sizes[] =
-    {
-        320,
-        320,
-    };
-
     const float mean_vals[][3] =
     {
         {103.53f, 116.28f, 123.675f},
@@ -287,28 +1008,192 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_loadModel(JNIE
         { 1 / 255.f, 1 / 255.f, 1 / 255.f },
     };
 
-    const char* modeltype = modeltypes[(int)modelid];
-    int target_size = target_sizes[(int)modelid];
-    bool use_gpu = (int)cpugpu == 1;
+    const int num_models = sizeof(modeltypes) / sizeof(modeltypes[0]);
+    if (modelid < 0 || modelid >= num_models || cpugpu < 0 || cpugpu > 1)
+    {
+        return JNI_FALSE;
+    }
+
+    // 32的倍数，与网络的最大步长对齐
+    if (input_size < 0 || input_size > 2048 || input_size % 32 != 0 || (input_size == 0 && latency_budget_ms <= 0.f))
+    {
+        return JNI_FALSE;
+    }
+
+    // 量化模型只能在cpu上运行
+    if (use_int8 && cpugpu == 1)
+    {
+        return JNI_FALSE;
+    }
+
+    if (options.num_threads < 0 || options.num_threads > 64 || options.powersave < 0 || options.powersave > 2)
+    {
+        return JNI_FALSE;
+    }
+
+    AAssetManager* mgr = AAssetManager_fromJava(env, assetManager);
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "loadModel %p %d %d %d %f %d", mgr, modelid, cpugpu, input_size, latency_budget_ms, use_int8);
+
+    const char* modeltype = modeltypes[modelid];
+    bool use_gpu = cpugpu == 1;
 
     // reload
+    // 新模型在一旁完整加载并预热后再替换指针，预览和检测在此期间继续使用旧模型
+    std::shared_ptr<Yolo> old_yolo;
     {
-        ncnn::MutexLockGuard g(lock);
+        ncnn::MutexLockGuard g(load_lock);
 
         if (use_gpu && ncnn::get_gpu_count() == 0)
         {
             // no gpu
-            delete g_yolo;
-            g_yolo = 0;
+            old_yolo = exchange_yolo(std::shared_ptr<Yolo>());
         }
         else
         {
-            if (!g_yolo)
-                g_yolo = new Yolo;
-            g_yolo->load(mgr, modeltype, target_size, mean_vals[(int)modelid], norm_vals[(int)modelid], use_gpu);
+            const ModelKey key(modeltype, input_size, use_gpu, input_size == 0 ? latency_budget_ms : 0.f, use_int8, options);
+
+            std::shared_ptr<Yolo> yolo = g_model_cache.find(key);
+
+            // 缓存的模型可能仍在检测，与检测互斥地修改运行选项
+            if (yolo)
+            {
+                ncnn::MutexLockGuard g2(inference_lock);
+
+                yolo->set_runtime_options(options);
+            }
+
+            // 启动页已经加载过同一个模型
+            if (yolo && yolo == current_yolo())
+            {
+                __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "loadModel %d %d already loaded", modelid, cpugpu);
+                return JNI_TRUE;
+            }
+
+            if (!yolo)
+            {
+                yolo = std::make_shared<Yolo>();
+                if (yolo->load(mgr, modeltype, input_size == 0 ? AUTO_INPUT_SIZES[0] : input_size, mean_vals[modelid], norm_vals[modelid], use_gpu, use_int8, options) != 0)
+                {
+                    // 加载失败时保留当前模型
+                    __android_log_print(ANDROID_LOG_WARN, "ncnn", "loadModel yolov8%s%s failed", modeltype, use_int8 ? "-int8" : "");
+                    return JNI_FALSE;
+                }
+
+                // 权重与输入尺寸无关，校准只改变输入尺寸
+                if (input_size == 0)
+                    calibrate_input_size(*yolo, latency_budget_ms);
+
+                warm_up(*yolo);
+
+                // 被淘汰的模型如果仍在使用，由使用者释放最后一份引用
+                g_model_cache.insert(key, yolo, yolo->memory_bytes());
+            }
+
+            // 与setUIOptions互斥，界面选项不会在替换前后丢失
+            {
+                ncnn::MutexLockGuard g2(lock);
+
+                yolo->setUIOptions(g_detection_enabled);
+                yolo->setLanguage(g_language_id);
+                old_yolo = exchange_yolo(yolo);
+            }
+
+            __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "loadModel cache %d models %zu / %zu bytes", g_model_cache.size(), g_model_cache.used_bytes(), g_model_cache.budget());
         }
     }
 
+    // 换模型后静止画面也要重新推理
+    {
+        ncnn::MutexLockGuard g(motion_lock);
+
+        g_motion_gate.reset();
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean loadModel(AssetManager mgr, int modelid, int cpugpu);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_loadModel(JNIEnv* env, jobject thiz, jobject assetManager, jint modelid, jint cpugpu)
+{
+    // 默认输入尺寸和推理选项
+    return load_model(env, assetManager, modelid, cpugpu, 320, 0.f, false, InferenceOptions());
+}
+
+// public native boolean loadModelSpec(AssetManager mgr, int modelid, int cpugpu, int inputSize, float latencyBudgetMs, boolean int8,
+//                                     int numThreads, int powersave, boolean lightMode, boolean fp16, boolean winograd, boolean sgemm, boolean packing);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_loadModelSpec(JNIEnv* env, jobject thiz, jobject assetManager, jint modelid, jint cpugpu, jint inputSize, jfloat latencyBudgetMs, jboolean int8,
+        jint numThreads, jint powersave, jboolean lightMode, jboolean fp16, jboolean winograd, jboolean sgemm, jboolean packing)
+{
+    InferenceOptions options;
+    options.num_threads = numThreads;
+    options.powersave = powersave;
+    options.light_mode = lightMode;
+    options.use_fp16 = fp16;
+    options.use_winograd = winograd;
+    options.use_sgemm = sgemm;
+    options.use_packing_layout = packing;
+
+    return load_model(env, assetManager, modelid, cpugpu, inputSize, latencyBudgetMs, int8, options);
+}
+
+// public native int[] nativeGetInferenceOptions();
+JNIEXPORT jintArray JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_nativeGetInferenceOptions(JNIEnv* env, jobject thiz)
+{
+    std::shared_ptr<Yolo> yolo = current_yolo();
+    if (!yolo)
+        return 0;
+
+    InferenceOptions options;
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        options = yolo->effective_options();
+    }
+
+    // 顺序需与Yolov8Ncnn.InferenceOptions.fromNative一致
+    const jint values[7] =
+    {
+        options.num_threads,
+        options.powersave,
+        options.light_mode,
+        options.use_fp16,
+        options.use_winograd,
+        options.use_sgemm,
+        options.use_packing_layout,
+    };
+
+    jintArray result = env->NewIntArray(7);
+    if (!result)
+        return 0;
+
+    env->SetIntArrayRegion(result, 0, 7, values);
+    return result;
+}
+
+// public native int getInputSize();
+JNIEXPORT jint JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_getInputSize(JNIEnv* env, jobject thiz)
+{
+    std::shared_ptr<Yolo> yolo = current_yolo();
+
+    return yolo ? yolo->input_size() : 0;
+}
+
+// public native boolean setModelCacheBudget(int megabytes);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setModelCacheBudget(JNIEnv* env, jobject thiz, jint megabytes)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setModelCacheBudget %d", megabytes);
+
+    if (megabytes < 0)
+        return JNI_FALSE;
+
+    {
+        ncnn::MutexLockGuard g(load_lock);
+
+        // 当前模型总是排在最前，不会被淘汰
+        g_model_cache.set_budget((size_t)megabytes * 1024 * 1024);
+    }
+
     return JNI_TRUE;
 }
 
@@ -320,6 +1205,26 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_openCamera(JNI
 
     __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "openCamera %d", facing);
 
+    {
+        ncnn::MutexLockGuard g(tracker_lock);
+
+        g_tracker.clear();
+    }
+
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        g_roi_focus.clear();
+    }
+
+    g_scheduler.reset();
+
+    {
+        ncnn::MutexLockGuard g(motion_lock);
+
+        g_motion_gate.reset();
+    }
+
     g_camera->open((int)facing);
 
     return JNI_TRUE;
@@ -358,15 +1263,154 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setUIOptions(J
     {
         ncnn::MutexLockGuard g(lock);
 
-        if (g_yolo)
+        std::shared_ptr<Yolo> yolo = current_yolo();
+        if (yolo)
         {
-            g_yolo->setUIOptions(showUI);
+            yolo->setUIOptions(showUI);
         }
     }
 
     return JNI_TRUE;
 }
 
+// public native boolean setAsyncInference(boolean enabled);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setAsyncInference(JNIEnv* env, jobject thiz, jboolean enabled)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setAsyncInference %d", enabled);
+
+    g_async_inference = enabled;
+
+    {
+        ncnn::MutexLockGuard g(result_lock);
+
+        g_result_objects.clear();
+        g_result_seq = -1;
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setNmsOptions(float probThreshold, float nmsThreshold, int topK, int maxDetections, boolean classAware);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setNmsOptions(JNIEnv* env, jobject thiz, jfloat probThreshold, jfloat nmsThreshold, jint topK, jint maxDetections, jboolean classAware)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setNmsOptions %f %f %d %d %d", probThreshold, nmsThreshold, topK, maxDetections, classAware);
+
+    if (probThreshold < 0.f || probThreshold > 1.f || nmsThreshold < 0.f || nmsThreshold > 1.f)
+        return JNI_FALSE;
+
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        g_nms_params.prob_threshold = probThreshold;
+        g_nms_params.nms_threshold = nmsThreshold;
+        g_nms_params.pre_nms_topk = topK;
+        g_nms_params.max_detections = maxDetections;
+        g_nms_params.class_aware = classAware;
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setClassFilter(int[] labels, boolean keepBestOther);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setClassFilter(JNIEnv* env, jobject thiz, jintArray labels, jboolean keepBestOther)
+{
+    // null或空数组表示不过滤
+    const int count = labels ? env->GetArrayLength(labels) : 0;
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setClassFilter %d %d", count, keepBestOther);
+
+    std::vector<jint> values(count);
+    if (count > 0)
+        env->GetIntArrayRegion(labels, 0, count, values.data());
+
+    for (int i = 0; i < count; i++)
+    {
+        if (values[i] < 0 || values[i] >= 80)
+            return JNI_FALSE;
+    }
+
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        ClassFilter& filter = g_nms_params.class_filter;
+        if (count > 0)
+            filter.set(values.data(), count);
+        else
+            filter.clear();
+        filter.keep_best_other = keepBestOther;
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setTrackerOptions(boolean enabled, int detectInterval);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setTrackerOptions(JNIEnv* env, jobject thiz, jboolean enabled, jint detectInterval)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setTrackerOptions %d %d", enabled, detectInterval);
+
+    if (detectInterval < 1)
+        return JNI_FALSE;
+
+    {
+        ncnn::MutexLockGuard g(tracker_lock);
+
+        g_tracking_enabled = enabled;
+        g_tracker.detect_interval = detectInterval;
+        g_tracker.clear();
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setRoiFocus(int targetLabel, int fullFrameInterval);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setRoiFocus(JNIEnv* env, jobject thiz, jint targetLabel, jint fullFrameInterval)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setRoiFocus %d %d", targetLabel, fullFrameInterval);
+
+    if (targetLabel >= 80 || fullFrameInterval < 1)
+        return JNI_FALSE;
+
+    {
+        ncnn::MutexLockGuard g(inference_lock);
+
+        g_roi_focus.target_label = targetLabel;
+        g_roi_focus.full_interval = fullFrameInterval;
+        g_roi_focus.clear();
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setMotionGate(boolean enabled, float blockThreshold, int maxStaleMs);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setMotionGate(JNIEnv* env, jobject thiz, jboolean enabled, jfloat blockThreshold, jint maxStaleMs)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setMotionGate %d %f %d", enabled, blockThreshold, maxStaleMs);
+
+    if (blockThreshold < 0.f || blockThreshold > 255.f)
+        return JNI_FALSE;
+
+    {
+        ncnn::MutexLockGuard g(motion_lock);
+
+        g_motion_gate_enabled = enabled;
+        g_motion_gate.block_threshold = blockThreshold;
+        g_motion_gate.max_stale_ms = maxStaleMs;
+        g_motion_gate.reset();
+    }
+
+    return JNI_TRUE;
+}
+
+// public native boolean setFramePacing(float targetFps, float latencyBudgetMs);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setFramePacing(JNIEnv* env, jobject thiz, jfloat targetFps, jfloat latencyBudgetMs)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setFramePacing %f %f", targetFps, latencyBudgetMs);
+
+    g_scheduler.set_pacing(targetFps, latencyBudgetMs);
+
+    return JNI_TRUE;
+}
+
 // public native boolean setLanguage(int languageID);
 JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setLanguage(JNIEnv* env, jobject thiz, jint languageID)
 {
@@ -375,9 +1419,12 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setLanguage(JN
     {
         ncnn::MutexLockGuard g(lock);
 
-        if (g_yolo)
+        g_language_id = languageID;
+
+        std::shared_ptr<Yolo> yolo = current_yolo();
+        if (yolo)
         {
-            g_yolo->setLanguage(languageID);
+            yolo->setLanguage(languageID);
         }
     }
 
@@ -389,69 +1436,79 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_setDetectionLi
 {
     __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setDetectionListener %p", listener);
     
+    ncnn::MutexLockGuard g(listener_lock);
+    
     // 释放之前的全局引用
     if (g_detection_listener) {
         env->DeleteGlobalRef(g_detection_listener);
         g_detection_listener = 0;
     }
     
-    // 如果参数不为null，创建全局引用并获取方法ID
+    // 方法ID已在JNI_OnLoad中缓存
+    if (!g_method_on_objects_detected || !g_method_create_detected_object)
+        return JNI_FALSE;
+    
+    // 如果参数不为null，创建全局引用
     if (listener) {
         g_detection_listener = env->NewGlobalRef(listener);
-        
-        // 获取DetectionListener类
-        jclass listenerClass = env->GetObjectClass(listener);
-        if (!listenerClass) {
-            __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to get DetectionListener class");
-            return JNI_FALSE;
-        }
-        
-        // 获取onObjectsDetected方法ID
-        g_method_on_objects_detected = env->GetMethodID(
-            listenerClass, 
-            "onObjectsDetected", 
-            "([Lcom/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject;)V"
-        );
-        if (!g_method_on_objects_detected) {
-            __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to get onObjectsDetected method");
-            return JNI_FALSE;
-        }
-        
-        // 获取DetectedObject类
-        jclass objClass = env->FindClass("com/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject");
-        if (!objClass) {
-            __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to find DetectedObject class");
-            return JNI_FALSE;
-        }
-        g_detected_object_class = (jclass)env->NewGlobalRef(objClass);
-        
-        // 获取create方法
-        g_method_create_detected_object = env->GetStaticMethodID(
-            g_detected_object_class, 
-            "create", 
-            "(FFFFIFII)Lcom/tencent/yolov8ncnn/Yolov8Ncnn$DetectedObject;"
-        );
-        if (!g_method_create_detected_object) {
-            __android_log_print(ANDROID_LOG_ERROR, "ncnn", "Failed to get create method");
-            return JNI_FALSE;
-        }
-        
-        // 释放局部引用
-        env->DeleteLocalRef(listenerClass);
-        env->DeleteLocalRef(objClass);
-    } else {
-        // 如果传入null，清理全局引用和方法ID
-        g_method_on_objects_detected = 0;
-        if (g_detected_object_class) {
-            env->DeleteGlobalRef(g_detected_object_class);
-            g_detected_object_class = 0;
-        }
-        g_method_create_detected_object = 0;
     }
     
     return JNI_TRUE;
 }
 
+// private native boolean nativeSetDetectionBatchListener(DetectionBatchListener listener, DetectionBatch batch0, DetectionBatch batch1);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_nativeSetDetectionBatchListener(JNIEnv* env, jobject thiz, jobject listener, jobject batch0, jobject batch1)
+{
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setDetectionBatchListener %p", listener);
+
+    ncnn::MutexLockGuard g(listener_lock);
+
+    clear_detection_batch_listener(env);
+
+    if (!listener)
+        return JNI_TRUE;
+
+    // 方法ID和字段ID已在JNI_OnLoad中缓存
+    if (!g_method_on_detections || !g_field_batch_data)
+        return JNI_FALSE;
+
+    jobject batches[2] = {batch0, batch1};
+    for (int i = 0; i < 2; i++) {
+        jfloatArray data = (jfloatArray)env->GetObjectField(batches[i], g_field_batch_data);
+        g_batches[i] = env->NewGlobalRef(batches[i]);
+        g_batch_data[i] = (jfloatArray)env->NewGlobalRef(data);
+        env->DeleteLocalRef(data);
+    }
+
+    // 两个缓冲容量相同，由数组长度推出
+    g_batch_capacity = (env->GetArrayLength(g_batch_data[0]) - BATCH_HEADER_SIZE) / BATCH_COLUMN_COUNT;
+    g_batch_staging.reserve(BATCH_HEADER_SIZE + BATCH_COLUMN_COUNT * g_batch_capacity);
+
+    g_batch_listener = env->NewGlobalRef(listener);
+
+    return JNI_TRUE;
+}
+
+// public native long[] getPipelineStats();
+JNIEXPORT jlongArray JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_getPipelineStats(JNIEnv* env, jobject thiz)
+{
+    int64_t values[PipelineStats::SNAPSHOT_SIZE];
+    g_pipeline_stats.snapshot(values);
+
+    jlongArray result = env->NewLongArray(PipelineStats::SNAPSHOT_SIZE);
+    if (!result)
+        return 0;
+
+    env->SetLongArrayRegion(result, 0, PipelineStats::SNAPSHOT_SIZE, (const jlong*)values);
+    return result;
+}
+
+// public native void resetPipelineStats();
+JNIEXPORT void JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_resetPipelineStats(JNIEnv* env, jobject thiz)
+{
+    g_pipeline_stats.reset();
+}
+
 // public native int[] getFrameSize();
 JNIEXPORT jintArray JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_getFrameSize(JNIEnv* env, jobject thiz)
 {
@@ -498,30 +1555,46 @@ JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_resumeCameraPr
     return JNI_TRUE;
 }
 
-// 添加检测当前帧的JNI实现
+// 添加检测当前帧的JNI实现，只发起请求，结果通过监听器送达
 JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_detectCurrentFrame(JNIEnv* env, jobject thiz)
 {
-    if (!g_camera || !g_yolo)
+    if (!g_camera || !current_yolo())
         return JNI_FALSE;
     
-    // 保存当前检测状态
-    bool previous_detection_state = g_detection_enabled;
-    
-    // 临时开启检测
-    g_detection_enabled = true;
+    if (begin_single_shot(env, 0) < 0)
+        return JNI_FALSE;
     
     // 请求捕获和处理一帧
     g_camera->request_capture();
     
-    // 等待短暂时间确保检测完成
-    struct timespec ts;
-    ts.tv_sec = 0;
-    ts.tv_nsec = 100 * 1000000; // 100毫秒
-    nanosleep(&ts, NULL);
-    
-    // 恢复之前的检测状态
-    g_detection_enabled = previous_detection_state;
-    
+    return JNI_TRUE;
+}
+
+// private native int nativeDetectNextFrame(Object pending);
+JNIEXPORT jint JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_nativeDetectNextFrame(JNIEnv* env, jobject thiz, jobject pending)
+{
+    if (!g_camera || !current_yolo() || !g_method_pending_complete)
+        return -1;
+
+    int id = begin_single_shot(env, pending);
+    if (id < 0)
+        return -1;
+
+    g_camera->request_capture();
+
+    return id;
+}
+
+// private static native boolean nativeCancelDetection(int requestId);
+JNIEXPORT jboolean JNICALL Java_com_tencent_yolov8ncnn_Yolov8Ncnn_nativeCancelDetection(JNIEnv* env, jclass clazz, jint requestId)
+{
+    SingleShotRequest request;
+    if (!take_single_shot(requestId, -1, request))
+        return JNI_FALSE;
+
+    if (request.pending)
+        env->DeleteGlobalRef(request.pending);
+
     return JNI_TRUE;
 }
 
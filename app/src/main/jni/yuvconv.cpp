@@ -0,0 +1,286 @@
+#include "yuvconv.h"
+
+#include <algorithm>
+#include <vector>
+
+void kanna_rotate_size(int w, int h, int type, int& outw, int& outh)
+{
+    if (type >= 5)
+    {
+        outw = h;
+        outh = w;
+    }
+    else
+    {
+        outw = w;
+        outh = h;
+    }
+}
+
+void kanna_rotate_rect_inverse(int w, int h, int type, int x, int y, int rw, int rh, int& outx, int& outy, int& outw, int& outh)
+{
+    // same axis walk and mirroring as yuv420sp_roi_to_tensor
+    if (type >= 5)
+    {
+        // rotated columns walk along source y, rows along source x
+        const bool col_mirror = type == 6 || type == 7;
+        const bool row_mirror = type == 7 || type == 8;
+        outx = row_mirror ? w - y - rh : y;
+        outy = col_mirror ? h - x - rw : x;
+        outw = rh;
+        outh = rw;
+    }
+    else
+    {
+        const bool col_mirror = type == 2 || type == 3;
+        const bool row_mirror = type == 3 || type == 4;
+        outx = col_mirror ? w - x - rw : x;
+        outy = row_mirror ? h - y - rh : y;
+        outw = rw;
+        outh = rh;
+    }
+}
+
+int kanna_rotate_compose(int type_a, int type_b)
+{
+    static const int table[8][8] = {
+        {1, 2, 3, 4, 5, 6, 7, 8},
+        {2, 1, 4, 3, 8, 7, 6, 5},
+        {3, 4, 1, 2, 7, 8, 5, 6},
+        {4, 3, 2, 1, 6, 5, 8, 7},
+        {5, 6, 7, 8, 1, 2, 3, 4},
+        {6, 5, 8, 7, 4, 3, 2, 1},
+        {7, 8, 5, 6, 3, 4, 1, 2},
+        {8, 7, 6, 5, 2, 1, 4, 3}
+    };
+
+    return table[type_a - 1][type_b - 1];
+}
+
+void kanna_rotate_rect(int w, int h, int type, int x, int y, int rw, int rh, int& outx, int& outy, int& outw, int& outh)
+{
+    // rotating the rotated image back by the inverse type, only 90 and 270 degrees are not their own inverse
+    const int inverse_type = type == 6 ? 8 : type == 8 ? 6 : type;
+
+    int rotated_w = 0;
+    int rotated_h = 0;
+    kanna_rotate_size(w, h, type, rotated_w, rotated_h);
+
+    kanna_rotate_rect_inverse(rotated_w, rotated_h, inverse_type, x, y, rw, rh, outx, outy, outw, outh);
+}
+
+// same fixed point approximation as ncnn::yuv420sp2rgb
+static inline unsigned char saturate_cast_uchar(int v)
+{
+    return (unsigned char)std::min(std::max(v, 0), 255);
+}
+
+static inline void store_rgba(int y, int ruv, int guv, int buv, unsigned char* rgba)
+{
+    int yy = y << 6;
+    rgba[0] = saturate_cast_uchar((yy + ruv) >> 6);
+    rgba[1] = saturate_cast_uchar((yy + guv) >> 6);
+    rgba[2] = saturate_cast_uchar((yy + buv) >> 6);
+    rgba[3] = 255;
+}
+
+void yuv420sp_roi_to_rgba(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type,
+                          unsigned char* dst, int dst_stride)
+{
+    int dst_w = 0;
+    int dst_h = 0;
+    kanna_rotate_size(roi_w, roi_h, rotate_type, dst_w, dst_h);
+
+    // same axis walk and mirroring as yuv420sp_roi_to_tensor
+    const bool swap = rotate_type >= 5;
+    const bool col_mirror = swap ? (rotate_type == 6 || rotate_type == 7) : (rotate_type == 2 || rotate_type == 3);
+    const bool row_mirror = swap ? (rotate_type == 7 || rotate_type == 8) : (rotate_type == 3 || rotate_type == 4);
+
+    // source offsets of one step along a dst row and down a dst column, a uv sample covers 2 x 2 pixels
+    int y_col_step;
+    int y_row_step;
+    int uv_col_step;
+    int uv_row_step;
+    if (swap)
+    {
+        y_col_step = col_mirror ? -frame.y_stride : frame.y_stride;
+        y_row_step = row_mirror ? -1 : 1;
+        uv_col_step = col_mirror ? -frame.uv_stride : frame.uv_stride;
+        uv_row_step = row_mirror ? -2 : 2;
+    }
+    else
+    {
+        y_col_step = col_mirror ? -1 : 1;
+        y_row_step = row_mirror ? -frame.y_stride : frame.y_stride;
+        uv_col_step = col_mirror ? -2 : 2;
+        uv_row_step = row_mirror ? -frame.uv_stride : frame.uv_stride;
+    }
+
+    // source pixel of dst (0, 0)
+    const int sx = roi_x + ((swap ? row_mirror : col_mirror) ? roi_w - 1 : 0);
+    const int sy = roi_y + ((swap ? col_mirror : row_mirror) ? roi_h - 1 : 0);
+    const unsigned char* y00 = frame.y + sy * frame.y_stride + sx;
+    const unsigned char* uv00 = frame.uv + (sy / 2) * frame.uv_stride + (sx & ~1);
+
+    const int u_index = frame.nv12 ? 0 : 1;
+    const int v_index = frame.nv12 ? 1 : 0;
+
+    // 2 x 2 dst blocks share one uv sample
+    for (int i = 0; i < dst_h; i += 2)
+    {
+        const unsigned char* yptr0 = y00 + i * y_row_step;
+        const unsigned char* yptr1 = yptr0 + y_row_step;
+        const unsigned char* uvptr = uv00 + (i / 2) * uv_row_step;
+        unsigned char* outptr0 = dst + i * dst_stride;
+        unsigned char* outptr1 = outptr0 + dst_stride;
+
+        for (int j = 0; j < dst_w; j += 2)
+        {
+            int u = uvptr[u_index] - 128;
+            int v = uvptr[v_index] - 128;
+
+            int ruv = 90 * v;
+            int guv = -46 * v + -22 * u;
+            int buv = 113 * u;
+
+            store_rgba(yptr0[0], ruv, guv, buv, outptr0);
+            store_rgba(yptr0[y_col_step], ruv, guv, buv, outptr0 + 4);
+            store_rgba(yptr1[0], ruv, guv, buv, outptr1);
+            store_rgba(yptr1[y_col_step], ruv, guv, buv, outptr1 + 4);
+
+            yptr0 += 2 * y_col_step;
+            yptr1 += 2 * y_col_step;
+            uvptr += uv_col_step;
+            outptr0 += 8;
+            outptr1 += 8;
+        }
+    }
+}
+
+// bilinear sample position along one source axis
+struct BilinearTap
+{
+    int i0;
+    int i1;
+    float a;
+};
+
+// dst pixel centers of a dst_n resize mapped onto a source axis of length n, optionally mirrored
+static void resolve_bilinear_taps(int n, int dst_n, bool mirror, BilinearTap* taps)
+{
+    const float scale = (float)n / dst_n;
+    for (int i = 0; i < dst_n; i++)
+    {
+        float f = (i + 0.5f) * scale - 0.5f;
+        f = std::min(std::max(f, 0.f), (float)(n - 1));
+        if (mirror)
+            f = (n - 1) - f;
+
+        int i0 = (int)f;
+        taps[i].i0 = i0;
+        taps[i].i1 = std::min(i0 + 1, n - 1);
+        taps[i].a = f - i0;
+    }
+}
+
+static inline void yuv2bgr(int y, int u, int v, float* bgr)
+{
+    int yy = y << 6;
+    bgr[0] = saturate_cast_uchar((yy + 113 * u) >> 6);
+    bgr[1] = saturate_cast_uchar((yy - 46 * v - 22 * u) >> 6);
+    bgr[2] = saturate_cast_uchar((yy + 90 * v) >> 6);
+}
+
+static inline void sample_bgr(const YuvFrame& frame, int x, int y, float* bgr)
+{
+    const unsigned char* uvptr = frame.uv + (y / 2) * frame.uv_stride + (x & ~1);
+    int u = (frame.nv12 ? uvptr[0] : uvptr[1]) - 128;
+    int v = (frame.nv12 ? uvptr[1] : uvptr[0]) - 128;
+    yuv2bgr(frame.y[y * frame.y_stride + x], u, v, bgr);
+}
+
+void yuv420sp_roi_to_tensor(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type,
+                            ncnn::Mat& out, int dst_x, int dst_y, int dst_w, int dst_h,
+                            const float* mean_vals, const float* norm_vals)
+{
+    const bool swap = rotate_type >= 5;
+
+    // axis taps in roi coordinates, columns of dst walk along source x unless rotated by 90 degrees
+    static thread_local std::vector<BilinearTap> col_taps;
+    static thread_local std::vector<BilinearTap> row_taps;
+    col_taps.resize(dst_w);
+    row_taps.resize(dst_h);
+    {
+        const bool col_mirror = swap ? (rotate_type == 6 || rotate_type == 7) : (rotate_type == 2 || rotate_type == 3);
+        const bool row_mirror = swap ? (rotate_type == 7 || rotate_type == 8) : (rotate_type == 3 || rotate_type == 4);
+        resolve_bilinear_taps(swap ? roi_h : roi_w, dst_w, col_mirror, col_taps.data());
+        resolve_bilinear_taps(swap ? roi_w : roi_h, dst_h, row_mirror, row_taps.data());
+    }
+
+    float mean[3] = {0.f, 0.f, 0.f};
+    if (mean_vals)
+    {
+        mean[0] = mean_vals[0];
+        mean[1] = mean_vals[1];
+        mean[2] = mean_vals[2];
+    }
+
+    for (int q = 0; q < 3; q++)
+    {
+        float* ptr = out.channel(q);
+
+        // fill the letterbox border only, a zero pixel after normalization
+        const float border = -mean[q] * norm_vals[q];
+        std::fill(ptr, ptr + out.w * dst_y, border);
+        std::fill(ptr + out.w * (dst_y + dst_h), ptr + out.w * out.h, border);
+        for (int i = dst_y; i < dst_y + dst_h; i++)
+        {
+            std::fill(ptr + out.w * i, ptr + out.w * i + dst_x, border);
+            std::fill(ptr + out.w * i + dst_x + dst_w, ptr + out.w * (i + 1), border);
+        }
+    }
+
+    float* outptr0 = out.channel(0);
+    float* outptr1 = out.channel(1);
+    float* outptr2 = out.channel(2);
+
+    for (int i = 0; i < dst_h; i++)
+    {
+        const BilinearTap& rt = row_taps[i];
+
+        const int offset = (dst_y + i) * out.w + dst_x;
+        float* ptr0 = outptr0 + offset;
+        float* ptr1 = outptr1 + offset;
+        float* ptr2 = outptr2 + offset;
+
+        for (int j = 0; j < dst_w; j++)
+        {
+            const BilinearTap& ct = col_taps[j];
+            const BilinearTap& xt = swap ? rt : ct;
+            const BilinearTap& yt = swap ? ct : rt;
+
+            const int x0 = roi_x + xt.i0;
+            const int x1 = roi_x + xt.i1;
+            const int y0 = roi_y + yt.i0;
+            const int y1 = roi_y + yt.i1;
+
+            float p00[3];
+            float p01[3];
+            float p10[3];
+            float p11[3];
+            sample_bgr(frame, x0, y0, p00);
+            sample_bgr(frame, x1, y0, p01);
+            sample_bgr(frame, x0, y1, p10);
+            sample_bgr(frame, x1, y1, p11);
+
+            const float w00 = (1.f - xt.a) * (1.f - yt.a);
+            const float w01 = xt.a * (1.f - yt.a);
+            const float w10 = (1.f - xt.a) * yt.a;
+            const float w11 = xt.a * yt.a;
+
+            ptr0[j] = (p00[0] * w00 + p01[0] * w01 + p10[0] * w10 + p11[0] * w11 - mean[0]) * norm_vals[0];
+            ptr1[j] = (p00[1] * w00 + p01[1] * w01 + p10[1] * w10 + p11[1] * w11 - mean[1]) * norm_vals[1];
+            ptr2[j] = (p00[2] * w00 + p01[2] * w01 + p10[2] * w10 + p11[2] * w11 - mean[2]) * norm_vals[2];
+        }
+    }
+}
@@ -0,0 +1,45 @@
+#ifndef YUVCONV_H
+#define YUVCONV_H
+
+#include <mat.h>
+
+// yuv420sp image planes with row strides
+// uv is vu interleaved for nv21 and uv interleaved for nv12
+struct YuvFrame
+{
+    const unsigned char* y;
+    const unsigned char* uv;
+    int y_stride;
+    int uv_stride;
+    int width;
+    int height;
+    bool nv12;
+};
+
+// size of a w x h image after kanna rotate, type 5~8 swap width and height
+void kanna_rotate_size(int w, int h, int type, int& outw, int& outh);
+
+// rect of a w x h roi that kanna rotate by type maps onto the rect (x, y, rw, rh) of the rotated image
+void kanna_rotate_rect_inverse(int w, int h, int type, int x, int y, int rw, int rh, int& outx, int& outy, int& outw, int& outh);
+
+// kanna rotate type equal to rotating by type_a and then by type_b
+int kanna_rotate_compose(int type_a, int type_b);
+
+// rect of the rotated image that kanna rotate by type maps the rect (x, y, rw, rh) of a w x h image onto
+void kanna_rotate_rect(int w, int h, int type, int x, int y, int rw, int rh, int& outx, int& outy, int& outw, int& outh);
+
+// fused roi crop + kanna rotate + yuv2rgb into rgba with alpha 255, one pass over the roi
+// dst is kanna_rotate_size(roi_w, roi_h) with dst_stride bytes per row, e.g. a locked ANativeWindow buffer
+// same pixels as kanna_rotate_c1/c2 of the roi followed by yuv420sp2rgb, roi_x, roi_y, roi_w and roi_h must be even
+void yuv420sp_roi_to_rgba(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type,
+                          unsigned char* dst, int dst_stride);
+
+// fused roi crop + kanna rotate + bilinear resize + yuv2bgr + normalize
+// the roi of frame is rotated by rotate_type, resized to dst_w x dst_h and written at (dst_x, dst_y)
+// into the preallocated 3-channel float tensor out, channel order is bgr like PIXEL_RGB2BGR
+// the rest of out is (0 - mean) * norm like copy_make_border with 0 followed by substract_mean_normalize, mean_vals may be 0
+void yuv420sp_roi_to_tensor(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type,
+                            ncnn::Mat& out, int dst_x, int dst_y, int dst_w, int dst_h,
+                            const float* mean_vals, const float* norm_vals);
+
+#endif // YUVCONV_H
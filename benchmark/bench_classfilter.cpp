@@ -0,0 +1,141 @@
+// class filtered decode against the full decode
+// checks that the filtered proposals are exactly the anchors whose best selected class passes,
+// that keep_best_other yields the top box of the full decode when no selected class passes,
+// and reports decode plus nms time and the number of boxes left for the jni transfer
+//
+// usage: bench_classfilter [loop_count]
+
+#include "postprocess.h"
+
+#include <float.h>
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <chrono>
+#include <vector>
+
+static double get_current_time()
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+// random logits with about one anchor in ten passing for some class
+static void make_pred(int num_points, int num_class, std::vector<float>& pred)
+{
+    const int pred_stride = 4 * YOLO_REG_MAX + num_class;
+    pred.resize((size_t)num_points * pred_stride);
+
+    srand(7767517);
+    for (int i = 0; i < num_points; i++)
+    {
+        float* ptr = &pred[(size_t)i * pred_stride];
+        for (int j = 0; j < 4 * YOLO_REG_MAX; j++)
+        {
+            ptr[j] = (rand() % 1000) / 100.f - 5.f;
+        }
+        for (int k = 0; k < num_class; k++)
+        {
+            ptr[4 * YOLO_REG_MAX + k] = -4.f - (rand() % 100) / 100.f;
+        }
+        if (rand() % 10 == 0)
+            ptr[4 * YOLO_REG_MAX + rand() % num_class] = (rand() % 400) / 100.f - 1.f;
+    }
+}
+
+static double run(const std::vector<GridAndStride>& grid_strides, const std::vector<float>& pred, int pred_stride, int num_class, const NmsParams& params, int loop_count, std::vector<Object>& proposals, std::vector<int>& picked)
+{
+    NmsEngine nms;
+
+    double time_min = DBL_MAX;
+    for (int i = 0; i < loop_count; i++)
+    {
+        proposals.clear();
+
+        double start = get_current_time();
+        generate_proposals(grid_strides, pred.data(), pred_stride, num_class, params.prob_threshold, params.class_filter, proposals);
+        nms.run(proposals, picked, params);
+        double end = get_current_time();
+
+        time_min = std::min(time_min, end - start);
+    }
+
+    return time_min;
+}
+
+int main(int argc, char** argv)
+{
+    const int loop_count = argc > 1 ? atoi(argv[1]) : 200;
+
+    const int target_size = 320;
+    const int num_class = 80;
+
+    std::vector<int> strides = {8, 16, 32};
+    std::vector<GridAndStride> grid_strides;
+    generate_grids_and_stride(target_size, target_size, strides, grid_strides);
+
+    const int num_points = grid_strides.size();
+    const int pred_stride = 4 * YOLO_REG_MAX + num_class;
+
+    std::vector<float> pred;
+    make_pred(num_points, num_class, pred);
+
+    NmsParams params;
+    const float logit_threshold = -logf(1.f / params.prob_threshold - 1.f);
+
+    std::vector<Object> proposals;
+    std::vector<int> picked;
+
+    double full_ms = run(grid_strides, pred, pred_stride, num_class, params, loop_count, proposals, picked);
+    const Object full_top = proposals[0];
+    fprintf(stderr, "full        proposals = %5d  kept = %3d  min = %7.3f ms\n", (int)proposals.size(), (int)picked.size(), full_ms);
+
+    int errors = 0;
+
+    // targets only, checked against a plain scan of the selected columns
+    const int labels[] = {0, 2, 7};
+    params.class_filter.set(labels, 3);
+
+    double filtered_ms = run(grid_strides, pred, pred_stride, num_class, params, loop_count, proposals, picked);
+    fprintf(stderr, "targets     proposals = %5d  kept = %3d  min = %7.3f ms\n", (int)proposals.size(), (int)picked.size(), filtered_ms);
+
+    int expected = 0;
+    for (int i = 0; i < num_points; i++)
+    {
+        const float* scores = &pred[(size_t)i * pred_stride + 4 * YOLO_REG_MAX];
+        float best = -FLT_MAX;
+        for (int k = 0; k < 3; k++)
+        {
+            best = std::max(best, scores[labels[k]]);
+        }
+        if (best > logit_threshold + 1e-3f)
+            expected++;
+    }
+    for (size_t i = 0; i < proposals.size(); i++)
+    {
+        if (!params.class_filter.test(proposals[i].label))
+            errors++;
+    }
+    if ((int)proposals.size() != expected)
+        errors++;
+
+    // a label that never passes with keep_best_other gives the top box of the full decode
+    const int absent = num_class - 1;
+    for (int i = 0; i < num_points; i++)
+    {
+        pred[(size_t)i * pred_stride + 4 * YOLO_REG_MAX + absent] = -10.f;
+    }
+    params.class_filter.set(&absent, 1);
+    params.class_filter.keep_best_other = true;
+
+    double other_ms = run(grid_strides, pred, pred_stride, num_class, params, loop_count, proposals, picked);
+    fprintf(stderr, "best other  proposals = %5d  kept = %3d  min = %7.3f ms\n", (int)proposals.size(), (int)picked.size(), other_ms);
+
+    if (proposals.size() != 1 || proposals[0].label != full_top.label || proposals[0].prob != full_top.prob || proposals[0].rect != full_top.rect)
+        errors++;
+
+    fprintf(stderr, "errors = %d\n", errors);
+
+    return errors == 0 ? 0 : 1;
+}
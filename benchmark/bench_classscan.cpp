@@ -0,0 +1,200 @@
+// class score scan of generate_proposals, logit space threshold with a vectorized argmax
+// against the scalar argmax + sigmoid loop it replaces
+// timed from the typical frame where every anchor is rejected to the crowded one where every anchor passes
+//
+// usage: bench_classscan [loop_count]
+
+#include "postprocess.h"
+
+#include <float.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <chrono>
+#include <vector>
+
+static double get_current_time()
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+// the original per anchor code, kept here as the reference
+static float fast_exp(float x)
+{
+    union {
+        uint32_t i;
+        float f;
+    } v{};
+    v.i = (1 << 23) * (1.4426950409 * x + 126.93490512f);
+    return v.f;
+}
+
+static float sigmoid(float x)
+{
+    return 1.0f / (1.0f + fast_exp(-x));
+}
+
+static int class_score_argmax_ref(const float* scores, int num_class, float prob_threshold, float& box_prob)
+{
+    int label = -1;
+    float score = -FLT_MAX;
+    for (int k = 0; k < num_class; k++)
+    {
+        float confidence = scores[k];
+        if (confidence > score)
+        {
+            label = k;
+            score = confidence;
+        }
+    }
+    box_prob = sigmoid(score);
+    return box_prob >= prob_threshold ? label : -1;
+}
+
+static int class_score_argmax_opt(const float* scores, int num_class, float logit_threshold, float prob_threshold, float& box_prob)
+{
+    float score;
+    int label = class_score_argmax(scores, num_class, logit_threshold, score);
+    if (label < 0)
+        return -1;
+    box_prob = sigmoid(score);
+    return box_prob >= prob_threshold ? label : -1;
+}
+
+static float random_logit(float lo, float hi)
+{
+    return lo + (hi - lo) * (rand() / (float)RAND_MAX);
+}
+
+// every float logit around the threshold, plus random rows with ties
+static int verify(int num_class)
+{
+    const float thresholds[] = {0.01f, 0.1f, 0.25f, 0.4f, 0.45f, 0.5f, 0.6f, 0.9f, 0.99f};
+
+    int mismatch = 0;
+    std::vector<float> scores(num_class);
+
+    for (size_t t = 0; t < sizeof(thresholds) / sizeof(float); t++)
+    {
+        const float prob_threshold = thresholds[t];
+        const float logit_threshold = prob_to_logit_threshold(prob_threshold);
+
+        // walk 1<<16 adjacent floats on either side of the threshold logit
+        union {
+            float f;
+            int32_t i;
+        } v;
+        v.f = logit_threshold;
+        for (int d = -65536; d <= 65536; d++)
+        {
+            union {
+                float f;
+                int32_t i;
+            } w;
+            w.i = v.i + (v.f >= 0 ? d : -d);
+
+            std::fill(scores.begin(), scores.end(), -10.f);
+            scores[(d & 63) % num_class] = w.f;
+
+            float prob_ref = 0.f;
+            float prob_opt = 0.f;
+            int label_ref = class_score_argmax_ref(scores.data(), num_class, prob_threshold, prob_ref);
+            int label_opt = class_score_argmax_opt(scores.data(), num_class, logit_threshold, prob_threshold, prob_opt);
+            if (label_ref != label_opt || (label_ref >= 0 && prob_ref != prob_opt))
+                mismatch++;
+        }
+
+        for (int i = 0; i < 100000; i++)
+        {
+            for (int k = 0; k < num_class; k++)
+            {
+                // coarse values make ties between classes common
+                scores[k] = (int)random_logit(-12.f, 6.f) * 0.5f;
+            }
+
+            float prob_ref = 0.f;
+            float prob_opt = 0.f;
+            int label_ref = class_score_argmax_ref(scores.data(), num_class, prob_threshold, prob_ref);
+            int label_opt = class_score_argmax_opt(scores.data(), num_class, logit_threshold, prob_threshold, prob_opt);
+            if (label_ref != label_opt || (label_ref >= 0 && prob_ref != prob_opt))
+                mismatch++;
+        }
+    }
+
+    return mismatch;
+}
+
+int main(int argc, char** argv)
+{
+    const int loop_count = argc > 1 ? atoi(argv[1]) : 200;
+
+    const int num_points = 2100; // 320 x 320 input
+    const int num_class = 80;
+    const float prob_threshold = 0.4f;
+
+    // the model class count, and counts that end in the 4 wide and scalar remainders
+    const int verify_num_class_list[] = {num_class, 1, 3, 4, 7, 12, 13};
+
+    int mismatch = 0;
+    for (size_t i = 0; i < sizeof(verify_num_class_list) / sizeof(int); i++)
+    {
+        mismatch += verify(verify_num_class_list[i]);
+    }
+    fprintf(stderr, "verify %s, %d mismatch\n", mismatch == 0 ? "ok" : "FAILED", mismatch);
+
+    const int num_pass_list[] = {0, 20, 200, num_points};
+    const char* case_names[] = {"all reject", "typical", "busy", "all pass"};
+
+    std::vector<float> pred((size_t)num_points * num_class);
+
+    for (size_t t = 0; t < sizeof(num_pass_list) / sizeof(int); t++)
+    {
+        const int num_pass = num_pass_list[t];
+
+        srand(7767517);
+        for (size_t i = 0; i < pred.size(); i++)
+        {
+            pred[i] = random_logit(-12.f, -3.f);
+        }
+        for (int n = 0; n < num_pass; n++)
+        {
+            pred[(size_t)n * num_points / num_pass * num_class + n % num_class] = 2.f;
+        }
+
+        double time_ref = DBL_MAX;
+        double time_opt = DBL_MAX;
+        int count_ref = 0;
+        int count_opt = 0;
+        for (int i = 0; i < loop_count; i++)
+        {
+            count_ref = 0;
+            double start = get_current_time();
+            for (int j = 0; j < num_points; j++)
+            {
+                float box_prob;
+                if (class_score_argmax_ref(&pred[(size_t)j * num_class], num_class, prob_threshold, box_prob) >= 0)
+                    count_ref++;
+            }
+            double end = get_current_time();
+            time_ref = std::min(time_ref, end - start);
+
+            count_opt = 0;
+            start = get_current_time();
+            const float logit_threshold = prob_to_logit_threshold(prob_threshold);
+            for (int j = 0; j < num_points; j++)
+            {
+                float box_prob;
+                if (class_score_argmax_opt(&pred[(size_t)j * num_class], num_class, logit_threshold, prob_threshold, box_prob) >= 0)
+                    count_opt++;
+            }
+            end = get_current_time();
+            time_opt = std::min(time_opt, end - start);
+        }
+
+        fprintf(stderr, "%-10s  pass = %4d/%4d  scalar = %7.3f ms  logit+simd = %7.3f ms  speedup = %.2fx\n", case_names[t], count_opt, count_ref, time_ref, time_opt, time_ref / time_opt);
+    }
+
+    return mismatch == 0 ? 0 : 1;
+}
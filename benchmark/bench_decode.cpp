@@ -0,0 +1,95 @@
+// decode time of generate_proposals against the number of anchors passing the threshold
+//
+// usage: bench_decode [loop_count]
+
+#include "postprocess.h"
+
+#include <float.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <chrono>
+#include <vector>
+
+static double get_current_time()
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+// synthetic network output where exactly num_pass anchors have a class logit above the threshold
+static void make_pred(int num_points, int num_class, int num_pass, std::vector<float>& pred)
+{
+    const int pred_stride = 4 * YOLO_REG_MAX + num_class;
+    pred.resize((size_t)num_points * pred_stride);
+
+    srand(7767517);
+    for (int i = 0; i < num_points; i++)
+    {
+        float* ptr = &pred[(size_t)i * pred_stride];
+        for (int j = 0; j < 4 * YOLO_REG_MAX; j++)
+        {
+            ptr[j] = (rand() % 1000) / 100.f - 5.f;
+        }
+        for (int k = 0; k < num_class; k++)
+        {
+            ptr[4 * YOLO_REG_MAX + k] = -4.f - (rand() % 100) / 100.f;
+        }
+    }
+
+    // spread the passing anchors over all strides
+    for (int n = 0; n < num_pass; n++)
+    {
+        const int i = (int)((long)n * num_points / num_pass);
+        pred[(size_t)i * pred_stride + 4 * YOLO_REG_MAX + n % num_class] = 2.f;
+    }
+}
+
+int main(int argc, char** argv)
+{
+    const int loop_count = argc > 1 ? atoi(argv[1]) : 200;
+
+    const int target_size = 320;
+    const int num_class = 80;
+    const float prob_threshold = 0.4f;
+
+    std::vector<int> strides = {8, 16, 32};
+    std::vector<GridAndStride> grid_strides;
+    generate_grids_and_stride(target_size, target_size, strides, grid_strides);
+
+    const int num_points = grid_strides.size();
+    const int pred_stride = 4 * YOLO_REG_MAX + num_class;
+
+    fprintf(stderr, "anchors = %d  loop_count = %d\n", num_points, loop_count);
+
+    const int num_pass_list[] = {0, 10, 50, 100, 200, 500, 1000, num_points};
+
+    std::vector<float> pred;
+    std::vector<Object> proposals;
+    proposals.reserve(num_points);
+
+    for (size_t t = 0; t < sizeof(num_pass_list) / sizeof(int); t++)
+    {
+        const int num_pass = num_pass_list[t];
+        make_pred(num_points, num_class, num_pass, pred);
+
+        double time_min = DBL_MAX;
+        double time_avg = 0;
+        for (int i = 0; i < loop_count; i++)
+        {
+            proposals.clear();
+
+            double start = get_current_time();
+            generate_proposals(grid_strides, pred.data(), pred_stride, num_class, prob_threshold, proposals);
+            double end = get_current_time();
+
+            time_min = std::min(time_min, end - start);
+            time_avg += end - start;
+        }
+        time_avg /= loop_count;
+
+        fprintf(stderr, "proposals = %5d  min = %8.3f ms  avg = %8.3f ms\n", (int)proposals.size(), time_min, time_avg);
+    }
+
+    return 0;
+}
@@ -0,0 +1,153 @@
+// NmsEngine against the full quicksort + class agnostic nms scan it replaces
+//
+// usage: bench_nms [loop_count]
+
+#include "postprocess.h"
+
+#include <float.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <chrono>
+#include <vector>
+
+static double get_current_time()
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+static float random_float(float lo, float hi)
+{
+    return lo + (hi - lo) * (rand() / (float)RAND_MAX);
+}
+
+// clustered boxes in a 320 x 320 input, like the many overlapping anchors around each object on a busy frame
+static void make_proposals(int count, std::vector<Object>& proposals)
+{
+    proposals.resize(count);
+
+    const int num_cluster = std::max(count / 20, 1);
+    std::vector<cv::Rect_<float> > clusters(num_cluster);
+    for (int i = 0; i < num_cluster; i++)
+    {
+        float w = random_float(10.f, 120.f);
+        float h = random_float(10.f, 120.f);
+        clusters[i] = cv::Rect_<float>(random_float(0.f, 320.f - w), random_float(0.f, 320.f - h), w, h);
+    }
+
+    for (int i = 0; i < count; i++)
+    {
+        const cv::Rect_<float>& c = clusters[rand() % num_cluster];
+        Object& obj = proposals[i];
+        obj.rect.x = c.x + random_float(-0.1f, 0.1f) * c.width;
+        obj.rect.y = c.y + random_float(-0.1f, 0.1f) * c.height;
+        obj.rect.width = c.width * random_float(0.8f, 1.2f);
+        obj.rect.height = c.height * random_float(0.8f, 1.2f);
+        obj.label = rand() % 80;
+        // distinct scores so both sorts agree on the order
+        obj.prob = 0.25f + 0.75f * (float)(count - i) / count;
+    }
+    std::random_shuffle(proposals.begin(), proposals.end());
+}
+
+static int nms_ref(std::vector<Object>& proposals, std::vector<int>& picked, float nms_threshold)
+{
+    qsort_descent_inplace(proposals);
+    nms_sorted_bboxes(proposals, picked, nms_threshold);
+    return picked.size();
+}
+
+static bool same_objects(const std::vector<Object>& a, const std::vector<int>& pa, const std::vector<Object>& b, const std::vector<int>& pb)
+{
+    if (pa.size() != pb.size())
+        return false;
+
+    for (size_t i = 0; i < pa.size(); i++)
+    {
+        const Object& oa = a[pa[i]];
+        const Object& ob = b[pb[i]];
+        if (oa.prob != ob.prob || oa.label != ob.label || oa.rect != ob.rect)
+            return false;
+    }
+
+    return true;
+}
+
+int main(int argc, char** argv)
+{
+    const int loop_count = argc > 1 ? atoi(argv[1]) : 100;
+
+    const int count_list[] = {100, 500, 2100, 8400};
+
+    NmsEngine nms;
+
+    // without top-k and cap the binned nms must pick exactly what the full scan picks
+    NmsParams exact;
+    exact.pre_nms_topk = 0;
+    exact.max_detections = 0;
+
+    NmsParams capped;
+
+    NmsParams per_class;
+    per_class.class_aware = true;
+
+    srand(7767517);
+
+    int mismatch = 0;
+
+    for (size_t t = 0; t < sizeof(count_list) / sizeof(int); t++)
+    {
+        const int count = count_list[t];
+
+        std::vector<Object> input;
+        make_proposals(count, input);
+
+        std::vector<Object> proposals;
+        std::vector<Object> proposals_ref;
+        std::vector<int> picked;
+        std::vector<int> picked_ref;
+
+        double time_ref = DBL_MAX;
+        double time_exact = DBL_MAX;
+        double time_capped = DBL_MAX;
+        double time_per_class = DBL_MAX;
+        int kept_per_class = 0;
+        int kept_capped = 0;
+        for (int i = 0; i < loop_count; i++)
+        {
+            proposals_ref = input;
+            double start = get_current_time();
+            nms_ref(proposals_ref, picked_ref, exact.nms_threshold);
+            time_ref = std::min(time_ref, get_current_time() - start);
+
+            proposals = input;
+            start = get_current_time();
+            nms.run(proposals, picked, exact);
+            time_exact = std::min(time_exact, get_current_time() - start);
+
+            if (i == 0 && !same_objects(proposals, picked, proposals_ref, picked_ref))
+                mismatch++;
+
+            proposals = input;
+            start = get_current_time();
+            nms.run(proposals, picked, capped);
+            time_capped = std::min(time_capped, get_current_time() - start);
+            kept_capped = picked.size();
+
+            proposals = input;
+            start = get_current_time();
+            nms.run(proposals, picked, per_class);
+            time_per_class = std::min(time_per_class, get_current_time() - start);
+            kept_per_class = picked.size();
+        }
+
+        fprintf(stderr, "proposals = %5d  kept = %4d  reference = %8.3f ms  binned = %8.3f ms  top%d/max%d = %7.3f ms (%d)  per-class = %7.3f ms (%d)\n",
+                count, (int)picked_ref.size(), time_ref, time_exact,
+                capped.pre_nms_topk, capped.max_detections, time_capped, kept_capped, time_per_class, kept_per_class);
+    }
+
+    fprintf(stderr, "verify %s, %d mismatch\n", mismatch == 0 ? "ok" : "FAILED", mismatch);
+
+    return mismatch == 0 ? 0 : 1;
+}
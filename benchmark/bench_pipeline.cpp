@@ -0,0 +1,245 @@
+// per stage latency of the detection pipeline on a 640 x 480 nv21 camera frame, built against a host ncnn
+// the display path stages nv21 rotate, yuv2rgb, resize/pad, then extract, proposal decode and nms of Yolo,
+// plus the fused nv21 to tensor preprocessing of the inference path for comparison
+// ncnn preprocess is the rotate, yuv2rgb and resize/pad the fused kernel replaces, with ncnn's own simd paths
+//
+// usage: bench_pipeline <model_dir> [n|s] [input_size] [loop_count] [num_threads] [image]
+//
+// model_dir holds yolov8n.param/.bin, e.g. app/src/main/assets
+// without image the frame is a synthetic pattern, decode and nms then see few proposals
+
+#include "yolo.h"
+#include "yuvconv.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include <algorithm>
+#include <vector>
+
+#include <opencv2/core/core.hpp>
+#include <opencv2/highgui/highgui.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+
+#include <benchmark.h>
+#include <mat.h>
+
+// rear camera sensor frame rotated to portrait like NdkCameraWindow
+static const int FRAME_W = 640;
+static const int FRAME_H = 480;
+static const int ROTATE_TYPE = 6;
+
+static void make_nv21(const char* imagepath, std::vector<unsigned char>& nv21)
+{
+    const int w = FRAME_W;
+    const int h = FRAME_H;
+    nv21.resize(w * h * 3 / 2);
+
+    cv::Mat bgr;
+    if (imagepath)
+    {
+        bgr = cv::imread(imagepath, 1);
+        if (bgr.empty())
+            fprintf(stderr, "imread %s failed, using the synthetic frame\n", imagepath);
+        else
+            cv::resize(bgr, bgr, cv::Size(w, h));
+    }
+
+    if (bgr.empty())
+    {
+        // checkerboard with a few solid blocks
+        bgr.create(h, w, CV_8UC3);
+        for (int i = 0; i < h; i++)
+        {
+            for (int j = 0; j < w; j++)
+            {
+                unsigned char v = ((i / 32 + j / 32) % 2) ? 200 : 60;
+                bgr.at<cv::Vec3b>(i, j) = cv::Vec3b(v, (unsigned char)(j * 255 / w), (unsigned char)(i * 255 / h));
+            }
+        }
+        cv::rectangle(bgr, cv::Rect(200, 120, 160, 240), cv::Scalar(40, 80, 160), -1);
+        cv::rectangle(bgr, cv::Rect(420, 200, 120, 90), cv::Scalar(180, 40, 40), -1);
+    }
+
+    // i420 planes repacked to vu interleaved
+    cv::Mat i420;
+    cv::cvtColor(bgr, i420, cv::COLOR_BGR2YUV_I420);
+
+    const unsigned char* y = i420.data;
+    const unsigned char* u = y + w * h;
+    const unsigned char* v = u + w * h / 4;
+    memcpy(nv21.data(), y, w * h);
+
+    unsigned char* vu = nv21.data() + w * h;
+    for (int i = 0; i < w * h / 4; i++)
+    {
+        vu[0] = v[i];
+        vu[1] = u[i];
+        vu += 2;
+    }
+}
+
+struct Stage
+{
+    Stage(const char* _name)
+        : name(_name)
+    {
+    }
+
+    const char* name;
+    std::vector<double> ms;
+};
+
+static double percentile(const std::vector<double>& sorted, double p)
+{
+    return sorted[std::min((size_t)(p * sorted.size()), sorted.size() - 1)];
+}
+
+static double median(const Stage& s)
+{
+    std::vector<double> sorted = s.ms;
+    std::sort(sorted.begin(), sorted.end());
+    return percentile(sorted, 0.50);
+}
+
+static void print_stage(const Stage& s)
+{
+    std::vector<double> sorted = s.ms;
+    std::sort(sorted.begin(), sorted.end());
+
+    double sum = 0;
+    for (size_t i = 0; i < sorted.size(); i++)
+    {
+        sum += sorted[i];
+    }
+
+    fprintf(stderr, "%-16s  p50 = %8.3f  p95 = %8.3f  p99 = %8.3f  avg = %8.3f  ms\n", s.name,
+            percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), sum / sorted.size());
+}
+
+int main(int argc, char** argv)
+{
+    if (argc < 2)
+    {
+        fprintf(stderr, "usage: %s <model_dir> [n|s] [input_size] [loop_count] [num_threads] [image]\n", argv[0]);
+        return -1;
+    }
+
+    const char* modeldir = argv[1];
+    const char* modeltype = argc > 2 ? argv[2] : "n";
+    const int input_size = argc > 3 ? atoi(argv[3]) : 320;
+    const int loop_count = argc > 4 ? atoi(argv[4]) : 200;
+    const int num_threads = argc > 5 ? atoi(argv[5]) : 0;
+    const char* imagepath = argc > 6 ? argv[6] : 0;
+
+    const float mean_vals[3] = {103.53f, 116.28f, 123.675f};
+    const float norm_vals[3] = {1 / 255.f, 1 / 255.f, 1 / 255.f};
+
+    InferenceOptions options;
+    options.num_threads = num_threads;
+    options.powersave = 0;
+
+    Yolo yolo;
+    if (yolo.load(modeldir, modeltype, input_size, mean_vals, norm_vals, false, false, options) != 0)
+    {
+        fprintf(stderr, "load %s/yolov8%s failed\n", modeldir, modeltype);
+        return -1;
+    }
+
+    std::vector<unsigned char> nv21;
+    make_nv21(imagepath, nv21);
+
+    YuvFrame frame;
+    frame.y = nv21.data();
+    frame.uv = nv21.data() + FRAME_W * FRAME_H;
+    frame.y_stride = FRAME_W;
+    frame.uv_stride = FRAME_W;
+    frame.width = FRAME_W;
+    frame.height = FRAME_H;
+    frame.nv12 = false;
+
+    int roi_w = 0;
+    int roi_h = 0;
+    kanna_rotate_size(FRAME_W, FRAME_H, ROTATE_TYPE, roi_w, roi_h);
+
+    std::vector<unsigned char> rotated(roi_w * roi_h * 3 / 2);
+    cv::Mat rgb(roi_h, roi_w, CV_8UC3);
+
+    NmsParams nms_params;
+    std::vector<Object> objects;
+
+    Stage rotate("nv21 rotate");
+    Stage yuv2rgb("yuv2rgb");
+    Stage resize_pad("resize/pad");
+    Stage extract("extract");
+    Stage decode("decode");
+    Stage nms("nms");
+    Stage total("total");
+    Stage ncnn_preprocess("ncnn preprocess");
+    Stage fused("fused nv21");
+    Stage fused_total("fused total");
+
+    // the first rounds pay for the pool allocations and the lazy ncnn setup
+    const int warmup = 5;
+
+    int num_objects = 0;
+    for (int i = 0; i < warmup + loop_count; i++)
+    {
+        double t0 = ncnn::get_current_time();
+
+        ncnn::kanna_rotate_c1(frame.y, FRAME_W, FRAME_H, frame.y_stride, rotated.data(), roi_w, roi_h, roi_w, ROTATE_TYPE);
+        ncnn::kanna_rotate_c2(frame.uv, FRAME_W / 2, FRAME_H / 2, frame.uv_stride, rotated.data() + roi_w * roi_h, roi_w / 2, roi_h / 2, roi_w, ROTATE_TYPE);
+
+        double t1 = ncnn::get_current_time();
+
+        ncnn::yuv420sp2rgb(rotated.data(), roi_w, roi_h, rgb.data);
+
+        double t2 = ncnn::get_current_time();
+
+        yolo.detect(rgb, objects, nms_params);
+
+        double t3 = ncnn::get_current_time();
+
+        const DetectTimings display = yolo.last_timings();
+
+        yolo.detect(frame, 0, 0, FRAME_W, FRAME_H, ROTATE_TYPE, objects, nms_params);
+
+        double t4 = ncnn::get_current_time();
+
+        const DetectTimings inference = yolo.last_timings();
+
+        if (i < warmup)
+            continue;
+
+        rotate.ms.push_back(t1 - t0);
+        yuv2rgb.ms.push_back(t2 - t1);
+        resize_pad.ms.push_back(display.preprocess_ms);
+        extract.ms.push_back(display.extract_ms);
+        decode.ms.push_back(display.decode_ms);
+        nms.ms.push_back(display.nms_ms);
+        total.ms.push_back(t3 - t0);
+        ncnn_preprocess.ms.push_back(t2 - t0 + display.preprocess_ms);
+        fused.ms.push_back(inference.preprocess_ms);
+        fused_total.ms.push_back(t4 - t3);
+
+        num_objects = objects.size();
+    }
+
+    fprintf(stderr, "yolov8%s  input_size = %d  loop_count = %d  threads = %d  objects = %d\n", modeltype, input_size, loop_count, yolo.effective_options().num_threads, num_objects);
+
+    print_stage(rotate);
+    print_stage(yuv2rgb);
+    print_stage(resize_pad);
+    print_stage(extract);
+    print_stage(decode);
+    print_stage(nms);
+    print_stage(total);
+    print_stage(ncnn_preprocess);
+    print_stage(fused);
+    print_stage(fused_total);
+
+    fprintf(stderr, "fused preprocess speedup p50 = %.2fx\n", median(ncnn_preprocess) / median(fused));
+
+    return 0;
+}
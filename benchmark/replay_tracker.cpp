@@ -0,0 +1,303 @@
+// replay a recorded box sequence through the tracker at several detect intervals
+// reports identity switches and how well the predicted boxes of the skipped frames cover the recorded ones
+// and fails when they exceed the limits below, or when predict reports a tentative or departed track
+//
+// usage: replay_tracker [sequence.txt]
+//
+// exits with 1 when a check fails
+//
+// sequence.txt holds one box per line: frame object_id x y w h label prob
+// object_id is the ground truth identity, frames are numbered from 0 in increasing order
+// without a file a synthetic sequence of objects moving across a 320 x 240 roi is replayed
+
+#include "tracker.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <map>
+#include <vector>
+
+struct RecordedBox
+{
+    int object_id;
+    Object obj;
+};
+
+typedef std::vector<std::vector<RecordedBox> > Sequence;
+
+static bool load_sequence(const char* path, Sequence& seq)
+{
+    FILE* fp = fopen(path, "rb");
+    if (!fp)
+    {
+        fprintf(stderr, "fopen %s failed\n", path);
+        return false;
+    }
+
+    int frame;
+    RecordedBox b;
+    while (fscanf(fp, "%d %d %f %f %f %f %d %f", &frame, &b.object_id, &b.obj.rect.x, &b.obj.rect.y, &b.obj.rect.width, &b.obj.rect.height, &b.obj.label, &b.obj.prob) == 8)
+    {
+        b.obj.track_id = -1;
+        if ((int)seq.size() <= frame)
+            seq.resize(frame + 1);
+        seq[frame].push_back(b);
+    }
+
+    fclose(fp);
+    return true;
+}
+
+static float random_float(float lo, float hi)
+{
+    return lo + (hi - lo) * (rand() / (float)RAND_MAX);
+}
+
+// objects on straight paths with detector jitter, a few cross each other and some miss detections
+static void make_sequence(Sequence& seq)
+{
+    const int num_frames = 300;
+    const int num_objects = 6;
+
+    srand(7767517);
+
+    struct Path
+    {
+        float x, y, w, h, vx, vy;
+        int label;
+    };
+    std::vector<Path> paths(num_objects);
+    for (int i = 0; i < num_objects; i++)
+    {
+        Path& p = paths[i];
+        p.w = random_float(30.f, 80.f);
+        p.h = random_float(40.f, 100.f);
+        p.x = random_float(0.f, 320.f - p.w);
+        p.y = random_float(0.f, 240.f - p.h);
+        p.vx = random_float(-2.f, 2.f);
+        p.vy = random_float(-1.5f, 1.5f);
+        p.label = i % 3;
+    }
+
+    seq.resize(num_frames);
+    for (int f = 0; f < num_frames; f++)
+    {
+        for (int i = 0; i < num_objects; i++)
+        {
+            Path& p = paths[i];
+            p.x += p.vx;
+            p.y += p.vy;
+            if (p.x < 0 || p.x + p.w > 320)
+                p.vx = -p.vx;
+            if (p.y < 0 || p.y + p.h > 240)
+                p.vy = -p.vy;
+
+            // missed detection
+            if (rand() % 20 == 0)
+                continue;
+
+            RecordedBox b;
+            b.object_id = i;
+            b.obj.rect.x = p.x + random_float(-1.5f, 1.5f);
+            b.obj.rect.y = p.y + random_float(-1.5f, 1.5f);
+            b.obj.rect.width = p.w * random_float(0.96f, 1.04f);
+            b.obj.rect.height = p.h * random_float(0.96f, 1.04f);
+            b.obj.label = p.label;
+            b.obj.prob = random_float(0.5f, 0.95f);
+            b.obj.track_id = -1;
+            seq[f].push_back(b);
+        }
+    }
+}
+
+static float iou(const cv::Rect_<float>& a, const cv::Rect_<float>& b)
+{
+    float inter = (a & b).area();
+    return inter / (a.area() + b.area() - inter);
+}
+
+struct ReplayStats
+{
+    int id_switches;
+    int predicted_count;
+    int predicted_missing;
+    double mean_iou;
+};
+
+static ReplayStats replay(const Sequence& seq, int detect_interval)
+{
+    Tracker tracker;
+    tracker.detect_interval = detect_interval;
+
+    // last track id seen for every ground truth object
+    std::map<int, int> last_track;
+    int id_switches = 0;
+    int detections = 0;
+
+    double predicted_iou = 0;
+    int predicted_count = 0;
+    int predicted_missing = 0;
+
+    std::vector<Object> objects;
+    for (int f = 0; f < (int)seq.size(); f++)
+    {
+        const std::vector<RecordedBox>& boxes = seq[f];
+
+        if (tracker.need_detection(f))
+        {
+            tracker.mark_detection(f);
+
+            objects.resize(boxes.size());
+            for (size_t i = 0; i < boxes.size(); i++)
+            {
+                objects[i] = boxes[i].obj;
+            }
+            tracker.update(objects, f);
+            detections++;
+
+            for (size_t i = 0; i < boxes.size(); i++)
+            {
+                std::map<int, int>::iterator it = last_track.find(boxes[i].object_id);
+                if (it != last_track.end() && it->second != objects[i].track_id)
+                    id_switches++;
+                last_track[boxes[i].object_id] = objects[i].track_id;
+            }
+            continue;
+        }
+
+        // predicted frame, score every recorded box against the prediction carrying its track
+        tracker.predict(f, objects);
+        for (size_t i = 0; i < boxes.size(); i++)
+        {
+            std::map<int, int>::iterator it = last_track.find(boxes[i].object_id);
+
+            const Object* match = 0;
+            for (size_t j = 0; it != last_track.end() && j < objects.size(); j++)
+            {
+                if (objects[j].track_id == it->second)
+                    match = &objects[j];
+            }
+
+            if (!match)
+            {
+                predicted_missing++;
+                continue;
+            }
+
+            predicted_iou += iou(match->rect, boxes[i].obj.rect);
+            predicted_count++;
+        }
+    }
+
+    ReplayStats stats;
+    stats.id_switches = id_switches;
+    stats.predicted_count = predicted_count;
+    stats.predicted_missing = predicted_missing;
+    stats.mean_iou = predicted_count ? predicted_iou / predicted_count : 1.0;
+
+    fprintf(stderr, "interval = %2d  network runs = %4d/%4d  id switches = %3d  predicted boxes = %5d  mean iou = %.3f  missing = %d\n",
+            detect_interval, detections, (int)seq.size(), id_switches, predicted_count, stats.mean_iou, predicted_missing);
+
+    return stats;
+}
+
+// a box seen once is tentative and a box that left the view stops at the next detection, predict reports neither
+static int check_unreported_tracks()
+{
+    Tracker tracker;
+    tracker.detect_interval = 3;
+
+    Object obj;
+    obj.rect = cv::Rect_<float>(100.f, 80.f, 40.f, 60.f);
+    obj.label = 0;
+    obj.prob = 0.9f;
+    obj.track_id = -1;
+
+    std::vector<Object> objects(1, obj);
+    tracker.update(objects, 0);
+
+    std::vector<Object> predicted;
+    tracker.predict(1, predicted);
+    if (!predicted.empty())
+    {
+        fprintf(stderr, "tentative track predicted\n");
+        return -1;
+    }
+
+    objects.assign(1, obj);
+    tracker.update(objects, 3);
+
+    tracker.predict(4, predicted);
+    if (predicted.size() != 1 || predicted[0].track_id != objects[0].track_id)
+    {
+        fprintf(stderr, "confirmed track not predicted\n");
+        return -1;
+    }
+
+    // the object left the view
+    objects.clear();
+    tracker.update(objects, 6);
+
+    tracker.predict(7, predicted);
+    if (!predicted.empty())
+    {
+        fprintf(stderr, "departed track predicted\n");
+        return -1;
+    }
+
+    return 0;
+}
+
+int main(int argc, char** argv)
+{
+    Sequence seq;
+    if (argc > 1)
+    {
+        if (!load_sequence(argv[1], seq))
+            return -1;
+    }
+    else
+    {
+        make_sequence(seq);
+    }
+
+    // limits for the synthetic sequence, fast crossing objects may swap identities at long intervals
+    const int intervals[] = {1, 2, 3, 5, 8};
+    const int max_id_switches[] = {0, 0, 0, 1, 4};
+    const double min_mean_iou = 0.85;
+
+    // recorded boxes of the skipped frames without a predicted box, the objects missed at the last detection
+    const double max_missing_ratio = 0.1;
+
+    int failed = 0;
+    for (size_t i = 0; i < sizeof(intervals) / sizeof(int); i++)
+    {
+        const ReplayStats stats = replay(seq, intervals[i]);
+
+        const int scored = stats.predicted_count + stats.predicted_missing;
+        const double missing_ratio = scored ? (double)stats.predicted_missing / scored : 0.0;
+
+        if (stats.id_switches > max_id_switches[i])
+        {
+            fprintf(stderr, "interval %d: %d id switches, limit %d\n", intervals[i], stats.id_switches, max_id_switches[i]);
+            failed = 1;
+        }
+        if (stats.mean_iou < min_mean_iou)
+        {
+            fprintf(stderr, "interval %d: mean iou %.3f below %.3f\n", intervals[i], stats.mean_iou, min_mean_iou);
+            failed = 1;
+        }
+        if (missing_ratio > max_missing_ratio)
+        {
+            fprintf(stderr, "interval %d: %.1f%% of the skipped boxes not predicted, limit %.1f%%\n", intervals[i], missing_ratio * 100, max_missing_ratio * 100);
+            failed = 1;
+        }
+    }
+
+    if (check_unreported_tracks() != 0)
+        failed = 1;
+
+    return failed;
+}
@@ -0,0 +1,269 @@
+// frame scheduler driven by a fake clock, a 30 fps camera feeding one inference worker
+// compares pushing every frame into the latest wins mailbox against the paced scheduler
+// then checks the admitted rate against the target, also when only some frames ask, dropping while in flight and the in flight timeout
+//
+// usage: sim_scheduler
+//
+// exits with 1 when a check fails
+
+#include "framescheduler.h"
+
+#include <math.h>
+#include <stdio.h>
+
+#include <algorithm>
+
+// same as IN_FLIGHT_TIMEOUT_MS in framescheduler.cpp
+static const double IN_FLIGHT_TIMEOUT_MS = 2000.0;
+
+class FakeClock : public Clock
+{
+public:
+    FakeClock()
+        : t(0.0)
+    {
+    }
+
+    virtual double now_ms() const
+    {
+        return t;
+    }
+
+    double t;
+};
+
+struct SimResult
+{
+    int inferences;
+    int copies;
+    int replaced;
+    double busy_ms;
+    double result_latency_ms;
+};
+
+// camera frames every 33.3 ms for duration_ms, inference takes infer_ms, the roi copy copy_ms
+// only every detect_every-th frame asks admit, like the tracker predicting the frames in between
+// without a scheduler every asking frame is copied and the worker always takes the newest one
+static SimResult simulate(FrameScheduler* scheduler, FakeClock& clock, double infer_ms, double copy_ms, double duration_ms, int detect_every = 1)
+{
+    const double frame_interval = 1000.0 / 30;
+
+    SimResult r = {0, 0, 0, 0.0, 0.0};
+
+    bool running = false;
+    double finish_time = 0.0;
+    double running_capture = 0.0;
+
+    bool mailbox_full = false;
+    double mailbox_capture = 0.0;
+
+    int frame_index = -1;
+    for (double t = 0.0; t < duration_ms; t += frame_interval)
+    {
+        frame_index++;
+
+        // worker completions up to now, each one takes the mailbox frame if any
+        while (running && finish_time <= t)
+        {
+            r.inferences++;
+            r.result_latency_ms += finish_time - running_capture;
+
+            if (scheduler)
+            {
+                clock.t = finish_time;
+                scheduler->report(FrameScheduler::STAGE_DETECT, infer_ms);
+                scheduler->complete();
+            }
+
+            running = mailbox_full;
+            if (mailbox_full)
+            {
+                running_capture = mailbox_capture;
+                finish_time += infer_ms;
+                r.busy_ms += infer_ms;
+                mailbox_full = false;
+            }
+        }
+
+        clock.t = t;
+        if (scheduler)
+            scheduler->note_frame();
+
+        if (frame_index % detect_every != 0)
+            continue;
+
+        if (scheduler && !scheduler->admit())
+            continue;
+
+        r.copies++;
+        r.busy_ms += copy_ms;
+        if (scheduler)
+            scheduler->report(FrameScheduler::STAGE_COPY, copy_ms);
+
+        if (!running)
+        {
+            running = true;
+            running_capture = t;
+            finish_time = t + copy_ms + infer_ms;
+            r.busy_ms += infer_ms;
+        }
+        else
+        {
+            if (mailbox_full)
+                r.replaced++;
+            mailbox_full = true;
+            mailbox_capture = t;
+        }
+    }
+
+    return r;
+}
+
+static void print(const char* name, const SimResult& r, double duration_ms)
+{
+    fprintf(stderr, "  %-26s inference fps = %5.1f  copies = %3d  wasted = %3d  busy = %5.1f%%  result latency = %6.1f ms\n",
+            name, r.inferences * 1000.0 / duration_ms, r.copies, r.replaced, r.busy_ms * 100.0 / duration_ms,
+            r.inferences ? r.result_latency_ms / r.inferences : 0.0);
+}
+
+static int failed = 0;
+
+static void expect(bool ok, const char* what)
+{
+    if (!ok)
+    {
+        fprintf(stderr, "FAILED: %s\n", what);
+        failed = 1;
+    }
+}
+
+static double fps(const SimResult& r, double duration_ms)
+{
+    return r.inferences * 1000.0 / duration_ms;
+}
+
+// admitted rate of a fast worker follows the target fps of a 30 fps camera
+static void check_admitted_rate(double duration_ms)
+{
+    const float targets[] = {10.f, 15.f, 30.f};
+    const char* names[] = {"10 fps target admits 10 fps", "15 fps target admits 15 fps", "30 fps target admits every frame"};
+
+    for (int i = 0; i < 3; i++)
+    {
+        FakeClock clock;
+        FrameScheduler scheduler(&clock);
+        scheduler.set_pacing(targets[i], 0.f);
+
+        const SimResult r = simulate(&scheduler, clock, 20.0, 1.0, duration_ms);
+        expect(fabs(fps(r, duration_ms) - targets[i]) < 0.5, names[i]);
+        expect(r.replaced == 0, "paced frames never wait in the mailbox");
+    }
+
+    // over the latency budget the interval stretches below what the worker could do
+    FakeClock clock;
+    FrameScheduler in_flight_only(&clock);
+    const SimResult unpaced = simulate(&in_flight_only, clock, 150.0, 1.0, duration_ms);
+
+    FakeClock budget_clock;
+    FrameScheduler budget(&budget_clock);
+    budget.set_pacing(15.f, 60.f);
+    const SimResult paced = simulate(&budget, budget_clock, 150.0, 1.0, duration_ms);
+
+    expect(fps(paced, duration_ms) < fps(unpaced, duration_ms) * 0.9, "latency over budget backs off the rate");
+}
+
+// with the tracker asking only every few frames the target is still a cap, not the asking rate
+static void check_admitted_rate_sparse(double duration_ms)
+{
+    const float targets[] = {10.f, 5.f, 10.f};
+    const int detect_every[] = {2, 4, 8};
+
+    for (int i = 0; i < 3; i++)
+    {
+        FakeClock clock;
+        FrameScheduler scheduler(&clock);
+        scheduler.set_pacing(targets[i], 0.f);
+
+        const SimResult r = simulate(&scheduler, clock, 20.0, 1.0, duration_ms, detect_every[i]);
+        const double asking_fps = 30.0 / detect_every[i];
+
+        fprintf(stderr, "  %4.1f fps target, admit every %d frames: %5.1f fps\n", targets[i], detect_every[i], fps(r, duration_ms));
+        expect(fps(r, duration_ms) < targets[i] + 0.5, "sparse admit calls do not exceed the target fps");
+        expect(fps(r, duration_ms) > std::min((double)targets[i], asking_fps) * 0.5 - 0.5, "sparse admit calls still admit frames");
+    }
+}
+
+// frames are refused while one is in flight and admitted again after complete
+static void check_in_flight()
+{
+    FakeClock clock;
+    FrameScheduler scheduler(&clock);
+
+    expect(scheduler.admit(), "first frame admitted");
+
+    for (int i = 1; i <= 5; i++)
+    {
+        clock.t = i * 33.3;
+        expect(!scheduler.admit(), "frame refused while one is in flight");
+    }
+    expect(scheduler.dropped_count() == 5, "refused frames counted as dropped");
+
+    scheduler.complete();
+    clock.t += 33.3;
+    expect(scheduler.admit(), "frame admitted after complete");
+}
+
+// an admitted frame that never completes stops blocking after IN_FLIGHT_TIMEOUT_MS
+static void check_in_flight_timeout()
+{
+    FakeClock clock;
+    FrameScheduler scheduler(&clock);
+
+    expect(scheduler.admit(), "first frame admitted");
+
+    clock.t = IN_FLIGHT_TIMEOUT_MS - 1.0;
+    expect(!scheduler.admit(), "abandoned frame blocks until the timeout");
+
+    clock.t = IN_FLIGHT_TIMEOUT_MS + 1.0;
+    expect(scheduler.admit(), "frame admitted after the in flight timeout");
+
+    clock.t += 33.3;
+    expect(!scheduler.admit(), "the recovered frame is in flight again");
+}
+
+int main()
+{
+    const double duration_ms = 10000.0;
+    const double copy_ms = 1.0;
+    const double infer_ms_list[] = {20.0, 45.0, 80.0, 150.0};
+
+    for (size_t i = 0; i < sizeof(infer_ms_list) / sizeof(double); i++)
+    {
+        const double infer_ms = infer_ms_list[i];
+        fprintf(stderr, "inference = %.0f ms\n", infer_ms);
+
+        FakeClock clock;
+        print("every frame", simulate(0, clock, infer_ms, copy_ms, duration_ms), duration_ms);
+
+        FrameScheduler in_flight_only(&clock);
+        print("drop while in flight", simulate(&in_flight_only, clock, infer_ms, copy_ms, duration_ms), duration_ms);
+
+        FrameScheduler capped(&clock);
+        capped.set_pacing(10.f, 0.f);
+        print("10 fps cap", simulate(&capped, clock, infer_ms, copy_ms, duration_ms), duration_ms);
+
+        FrameScheduler budget(&clock);
+        budget.set_pacing(15.f, 60.f);
+        print("15 fps cap, 60 ms budget", simulate(&budget, clock, infer_ms, copy_ms, duration_ms), duration_ms);
+    }
+
+    check_admitted_rate(duration_ms);
+    check_admitted_rate_sparse(duration_ms);
+    check_in_flight();
+    check_in_flight_timeout();
+
+    if (!failed)
+        fprintf(stderr, "all checks passed\n");
+
+    return failed;
+}
@@ -0,0 +1,208 @@
+// checks the fused nv21 roi to network input kernel against the ncnn path it replaces
+// kanna_rotate_c1/c2 of the roi, yuv420sp2rgb, from_pixels_resize, copy_make_border and substract_mean_normalize
+// for every rotate type, several rois, nv21 and nv12 and two input sizes
+// ncnn resizes in fixed point on 8 bit pixels and the kernel in float, so values are compared in 8 bit levels
+//
+// usage: test_roi_tensor
+//
+// exits with 1 when a case is out of tolerance
+
+#include "yuvconv.h"
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <vector>
+
+#include <mat.h>
+
+// largest and mean absolute difference allowed, in 8 bit pixel levels
+static const float MAX_LEVEL_ERROR = 3.f;
+static const float MEAN_LEVEL_ERROR = 0.5f;
+
+struct Frame
+{
+    std::vector<unsigned char> y;
+    std::vector<unsigned char> uv;
+    YuvFrame yuv;
+};
+
+// smooth gradients with noise on top, like a camera frame with sensor noise
+static void make_frame(int w, int h, bool nv12, Frame& f)
+{
+    const int y_stride = w + 16;
+    const int uv_stride = w + 8;
+
+    f.y.resize(y_stride * h);
+    f.uv.resize(uv_stride * h / 2);
+
+    for (int i = 0; i < h; i++)
+    {
+        for (int j = 0; j < w; j++)
+        {
+            int v = (i * 255 / h + j * 255 / w) / 2 + (rand() % 33) - 16;
+            f.y[i * y_stride + j] = (unsigned char)std::min(std::max(v, 0), 255);
+        }
+    }
+    for (int i = 0; i < h / 2; i++)
+    {
+        for (int j = 0; j < w; j++)
+        {
+            int v = ((j & 1) ? i * 511 / h : j * 255 / w) + (rand() % 17) - 8;
+            f.uv[i * uv_stride + j] = (unsigned char)std::min(std::max(v, 0), 255);
+        }
+    }
+
+    f.yuv.y = f.y.data();
+    f.yuv.uv = f.uv.data();
+    f.yuv.y_stride = y_stride;
+    f.yuv.uv_stride = uv_stride;
+    f.yuv.width = w;
+    f.yuv.height = h;
+    f.yuv.nv12 = nv12;
+}
+
+// letterbox of Yolo::detect, the long side scaled to target_size and both sides padded to a multiple of 32
+static void letterbox(int width, int height, int target_size, int& w, int& h, int& wpad, int& hpad)
+{
+    w = width;
+    h = height;
+    if (w > h)
+    {
+        float scale = (float)target_size / w;
+        w = target_size;
+        h = h * scale;
+    }
+    else
+    {
+        float scale = (float)target_size / h;
+        h = target_size;
+        w = w * scale;
+    }
+
+    wpad = (w + 31) / 32 * 32 - w;
+    hpad = (h + 31) / 32 * 32 - h;
+}
+
+static int check(const Frame& f, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, int target_size, const float* mean_vals, const float* norm_vals)
+{
+    int width = 0;
+    int height = 0;
+    kanna_rotate_size(roi_w, roi_h, rotate_type, width, height);
+
+    int w = 0;
+    int h = 0;
+    int wpad = 0;
+    int hpad = 0;
+    letterbox(width, height, target_size, w, h, wpad, hpad);
+
+    // the replaced path
+    std::vector<unsigned char> rotated(width * height * 3 / 2);
+    ncnn::kanna_rotate_c1(f.yuv.y + roi_y * f.yuv.y_stride + roi_x, roi_w, roi_h, f.yuv.y_stride, rotated.data(), width, height, width, rotate_type);
+    ncnn::kanna_rotate_c2(f.yuv.uv + roi_y / 2 * f.yuv.uv_stride + roi_x, roi_w / 2, roi_h / 2, f.yuv.uv_stride, rotated.data() + width * height, width / 2, height / 2, width, rotate_type);
+
+    std::vector<unsigned char> rgb(width * height * 3);
+    if (f.yuv.nv12)
+        ncnn::yuv420sp2rgb_nv12(rotated.data(), width, height, rgb.data());
+    else
+        ncnn::yuv420sp2rgb(rotated.data(), width, height, rgb.data());
+
+    ncnn::Mat in = ncnn::Mat::from_pixels_resize(rgb.data(), ncnn::Mat::PIXEL_RGB2BGR, width, height, w, h);
+
+    ncnn::Mat expected;
+    ncnn::copy_make_border(in, expected, hpad / 2, hpad - hpad / 2, wpad / 2, wpad - wpad / 2, ncnn::BORDER_CONSTANT, 0.f);
+    expected.substract_mean_normalize(mean_vals, norm_vals);
+
+    // the fused kernel into a tensor holding garbage, every element must be written
+    ncnn::Mat fused;
+    fused.create(w + wpad, h + hpad, 3);
+    fused.fill(12345.f);
+    yuv420sp_roi_to_tensor(f.yuv, roi_x, roi_y, roi_w, roi_h, rotate_type, fused, wpad / 2, hpad / 2, w, h, mean_vals, norm_vals);
+
+    double sum_error = 0.0;
+    float max_error = 0.f;
+    int max_q = 0;
+    int max_i = 0;
+    int max_j = 0;
+    for (int q = 0; q < 3; q++)
+    {
+        const float* ptr0 = expected.channel(q);
+        const float* ptr1 = fused.channel(q);
+        for (int i = 0; i < fused.h; i++)
+        {
+            for (int j = 0; j < fused.w; j++)
+            {
+                const float e = fabsf(ptr0[i * fused.w + j] - ptr1[i * fused.w + j]) / norm_vals[q];
+                sum_error += e;
+                if (e > max_error)
+                {
+                    max_error = e;
+                    max_q = q;
+                    max_i = i;
+                    max_j = j;
+                }
+            }
+        }
+    }
+
+    const float mean_error = (float)(sum_error / (fused.w * fused.h * 3));
+    if (max_error > MAX_LEVEL_ERROR || mean_error > MEAN_LEVEL_ERROR)
+    {
+        fprintf(stderr, "mismatch %s roi %d,%d %dx%d rotate %d size %d: max error %.2f at channel %d row %d col %d, mean error %.3f\n",
+                f.yuv.nv12 ? "nv12" : "nv21", roi_x, roi_y, roi_w, roi_h, rotate_type, target_size, max_error, max_q, max_i, max_j, mean_error);
+        return -1;
+    }
+
+    return 0;
+}
+
+int main()
+{
+    srand(0);
+
+    // Yolo normalization, and one with a mean so the border value is checked too
+    const float zero_mean[3] = {0.f, 0.f, 0.f};
+    const float yolo_norm[3] = {1 / 255.f, 1 / 255.f, 1 / 255.f};
+    const float mean_vals[3] = {103.53f, 116.28f, 123.675f};
+    const float norm_vals[3] = {0.017429f, 0.017507f, 0.017125f};
+
+    // whole frame, centered crop like the preview roi, an off-center focus crop and a small upscaled one
+    const int rois[4][4] = {
+        {0, 0, 640, 480},
+        {80, 0, 480, 480},
+        {322, 100, 256, 192},
+        {40, 60, 96, 64}
+    };
+    const int target_sizes[2] = {320, 640};
+
+    int num_checked = 0;
+    int num_failed = 0;
+    for (int nv12 = 0; nv12 < 2; nv12++)
+    {
+        Frame f;
+        make_frame(640, 480, nv12 == 1, f);
+
+        for (int r = 0; r < 4; r++)
+        {
+            for (int rotate_type = 1; rotate_type <= 8; rotate_type++)
+            {
+                for (int s = 0; s < 2; s++)
+                {
+                    if (check(f, rois[r][0], rois[r][1], rois[r][2], rois[r][3], rotate_type, target_sizes[s], zero_mean, yolo_norm) != 0)
+                        num_failed++;
+                    num_checked++;
+                }
+
+                if (check(f, rois[r][0], rois[r][1], rois[r][2], rois[r][3], rotate_type, 320, mean_vals, norm_vals) != 0)
+                    num_failed++;
+                num_checked++;
+            }
+        }
+    }
+
+    fprintf(stderr, "%d/%d cases within %.1f levels max, %.1f mean\n", num_checked - num_failed, num_checked, MAX_LEVEL_ERROR, MEAN_LEVEL_ERROR);
+
+    return num_failed ? 1 : 0;
+}
@@ -0,0 +1,214 @@
+// checks the fused nv21 to rgba window blit against the multi-step preview path it replaces
+// kanna_rotate_c1/c2 of the roi, yuv420sp2rgb, kanna_rotate_c3 to the window orientation, rgb to rgba
+// for every camera rotate type and window rotate type, nv21 and nv12, padded source and window strides
+// then times both paths on a 640 x 480 frame in the rear camera portrait orientation
+//
+// usage: test_window_blit [loop_count]
+//
+// exits with 1 on the first mismatch
+
+#include "yuvconv.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include <algorithm>
+#include <vector>
+
+#include <benchmark.h>
+#include <mat.h>
+
+struct Frame
+{
+    std::vector<unsigned char> y;
+    std::vector<unsigned char> uv;
+    YuvFrame yuv;
+};
+
+static void make_frame(int w, int h, int y_stride, int uv_stride, bool nv12, Frame& f)
+{
+    f.y.resize(y_stride * h);
+    f.uv.resize(uv_stride * h / 2);
+
+    // full range noise, the saturating ends of the conversion are hit too
+    for (size_t i = 0; i < f.y.size(); i++)
+    {
+        f.y[i] = (unsigned char)(rand() & 255);
+    }
+    for (size_t i = 0; i < f.uv.size(); i++)
+    {
+        f.uv[i] = (unsigned char)(rand() & 255);
+    }
+
+    f.yuv.y = f.y.data();
+    f.yuv.uv = f.uv.data();
+    f.yuv.y_stride = y_stride;
+    f.yuv.uv_stride = uv_stride;
+    f.yuv.width = w;
+    f.yuv.height = h;
+    f.yuv.nv12 = nv12;
+}
+
+// the preview path before the fused blit, buffers are reused by the caller
+static void multi_step(const YuvFrame& frame, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, int render_rotate_type,
+                       std::vector<unsigned char>& rotated, std::vector<unsigned char>& rgb, std::vector<unsigned char>& rgb_render,
+                       unsigned char* dst, int dst_stride)
+{
+    int w = 0;
+    int h = 0;
+    kanna_rotate_size(roi_w, roi_h, rotate_type, w, h);
+
+    rotated.resize(w * h * 3 / 2);
+    ncnn::kanna_rotate_c1(frame.y + roi_y * frame.y_stride + roi_x, roi_w, roi_h, frame.y_stride, rotated.data(), w, h, w, rotate_type);
+    ncnn::kanna_rotate_c2(frame.uv + roi_y / 2 * frame.uv_stride + roi_x, roi_w / 2, roi_h / 2, frame.uv_stride, rotated.data() + w * h, w / 2, h / 2, w, rotate_type);
+
+    rgb.resize(w * h * 3);
+    if (frame.nv12)
+        ncnn::yuv420sp2rgb_nv12(rotated.data(), w, h, rgb.data());
+    else
+        ncnn::yuv420sp2rgb(rotated.data(), w, h, rgb.data());
+
+    int render_w = 0;
+    int render_h = 0;
+    kanna_rotate_size(w, h, render_rotate_type, render_w, render_h);
+
+    rgb_render.resize(render_w * render_h * 3);
+    ncnn::kanna_rotate_c3(rgb.data(), w, h, rgb_render.data(), render_w, render_h, render_rotate_type);
+
+    for (int i = 0; i < render_h; i++)
+    {
+        const unsigned char* ptr = rgb_render.data() + i * render_w * 3;
+        unsigned char* outptr = dst + i * dst_stride;
+        for (int j = 0; j < render_w; j++)
+        {
+            outptr[0] = ptr[0];
+            outptr[1] = ptr[1];
+            outptr[2] = ptr[2];
+            outptr[3] = 255;
+
+            ptr += 3;
+            outptr += 4;
+        }
+    }
+}
+
+static int check(const Frame& f, int roi_x, int roi_y, int roi_w, int roi_h, int rotate_type, int render_rotate_type, int dst_padding)
+{
+    int render_w = 0;
+    int render_h = 0;
+    kanna_rotate_size(roi_w, roi_h, kanna_rotate_compose(rotate_type, render_rotate_type), render_w, render_h);
+
+    const int dst_stride = render_w * 4 + dst_padding;
+
+    // the padding bytes must stay untouched, like the rest of a window buffer row
+    std::vector<unsigned char> expected(dst_stride * render_h, 0xcd);
+    std::vector<unsigned char> fused(dst_stride * render_h, 0xcd);
+
+    std::vector<unsigned char> rotated;
+    std::vector<unsigned char> rgb;
+    std::vector<unsigned char> rgb_render;
+    multi_step(f.yuv, roi_x, roi_y, roi_w, roi_h, rotate_type, render_rotate_type, rotated, rgb, rgb_render, expected.data(), dst_stride);
+
+    yuv420sp_roi_to_rgba(f.yuv, roi_x, roi_y, roi_w, roi_h, kanna_rotate_compose(rotate_type, render_rotate_type), fused.data(), dst_stride);
+
+    for (int i = 0; i < render_h; i++)
+    {
+        for (int j = 0; j < dst_stride; j++)
+        {
+            const int k = i * dst_stride + j;
+            if (expected[k] != fused[k])
+            {
+                fprintf(stderr, "mismatch %s roi %d,%d %dx%d rotate %d render %d at row %d byte %d: expected %d got %d\n",
+                        f.yuv.nv12 ? "nv12" : "nv21", roi_x, roi_y, roi_w, roi_h, rotate_type, render_rotate_type, i, j, expected[k], fused[k]);
+                return -1;
+            }
+        }
+    }
+
+    return 0;
+}
+
+int main(int argc, char** argv)
+{
+    const int loop_count = argc > 1 ? atoi(argv[1]) : 200;
+
+    srand(0);
+
+    // odd sized frame with padded rows, the roi is an even sized crop off the corner
+    const int w = 71;
+    const int h = 47;
+    const int roi_x = 4;
+    const int roi_y = 6;
+    const int roi_w = 40;
+    const int roi_h = 30;
+
+    int num_checked = 0;
+    for (int nv12 = 0; nv12 < 2; nv12++)
+    {
+        Frame f;
+        make_frame(w, h, w + 10, w + 6, nv12 == 1, f);
+
+        for (int rotate_type = 1; rotate_type <= 8; rotate_type++)
+        {
+            for (int render_rotate_type = 1; render_rotate_type <= 8; render_rotate_type++)
+            {
+                // whole frame, crop, and a window stride wider than the row
+                if (check(f, 0, 0, w / 2 * 2, h / 2 * 2, rotate_type, render_rotate_type, 0) != 0)
+                    return 1;
+                if (check(f, roi_x, roi_y, roi_w, roi_h, rotate_type, render_rotate_type, 0) != 0)
+                    return 1;
+                if (check(f, roi_x, roi_y, roi_w, roi_h, rotate_type, render_rotate_type, 36) != 0)
+                    return 1;
+
+                num_checked += 3;
+            }
+        }
+    }
+
+    fprintf(stderr, "%d cases match\n", num_checked);
+
+    // rear camera portrait preview, camera rotate 6 and no window rotation
+    {
+        const int fw = 640;
+        const int fh = 480;
+
+        Frame f;
+        make_frame(fw, fh, fw, fw, false, f);
+
+        const int dst_stride = fh * 4;
+        std::vector<unsigned char> dst(dst_stride * fw);
+
+        std::vector<unsigned char> rotated;
+        std::vector<unsigned char> rgb;
+        std::vector<unsigned char> rgb_render;
+
+        std::vector<double> multi_ms;
+        std::vector<double> fused_ms;
+        for (int i = 0; i < 5 + loop_count; i++)
+        {
+            double t0 = ncnn::get_current_time();
+
+            multi_step(f.yuv, 0, 0, fw, fh, 6, 1, rotated, rgb, rgb_render, dst.data(), dst_stride);
+
+            double t1 = ncnn::get_current_time();
+
+            yuv420sp_roi_to_rgba(f.yuv, 0, 0, fw, fh, kanna_rotate_compose(6, 1), dst.data(), dst_stride);
+
+            double t2 = ncnn::get_current_time();
+
+            if (i < 5)
+                continue;
+
+            multi_ms.push_back(t1 - t0);
+            fused_ms.push_back(t2 - t1);
+        }
+
+        std::sort(multi_ms.begin(), multi_ms.end());
+        std::sort(fused_ms.begin(), fused_ms.end());
+
+        fprintf(stderr, "%dx%d rotate 6  multi-step p50 = %.3f ms  fused p50 = %.3f ms\n", fw, fh, multi_ms[multi_ms.size() / 2], fused_ms[fused_ms.size() / 2]);
+    }
+
+    return 0;
+}
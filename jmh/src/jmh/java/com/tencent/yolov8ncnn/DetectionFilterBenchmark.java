@@ -0,0 +1,50 @@
+package com.tencent.yolov8ncnn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MainActivity每帧的结果处理：筛选目标、检查是否全部为目标、为目标创建DetectedObject
+ */
+@State(Scope.Thread)
+public class DetectionFilterBenchmark {
+
+    @Param({"0", "1", "10", "100", "300"})
+    public int count;
+
+    // 0存在于结果中，79不存在时走置信度最高的分支
+    @Param({"0", "79"})
+    public int targetLabel;
+
+    private DetectionBatch batch;
+    private Yolov8Ncnn.DetectedObject[] objects;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        batch = Detections.batch(count);
+        objects = Detections.objects(batch);
+    }
+
+    @Benchmark
+    public Yolov8Ncnn.DetectedObject[] selectTargets() {
+        return DetectionFilter.selectTargets(batch, targetLabel);
+    }
+
+    @Benchmark
+    public boolean allMatch() {
+        return DetectionFilter.allMatch(objects, targetLabel);
+    }
+
+    // 每个目标一个对象，与native通过DetectedObject.create回传的旧接口分配相同
+    @Benchmark
+    public void toDetectedObject(Blackhole bh) {
+        final int n = batch.size();
+        for (int i = 0; i < n; i++) {
+            bh.consume(batch.toDetectedObject(i));
+        }
+    }
+}
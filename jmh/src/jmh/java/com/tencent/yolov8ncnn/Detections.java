@@ -0,0 +1,60 @@
+package com.tencent.yolov8ncnn;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成检测结果
+ */
+final class Detections {
+
+    static final int FRAME_WIDTH = 480;
+    static final int FRAME_HEIGHT = 640;
+
+    // 标签循环取0~LABEL_PERIOD-1，目标类别0约占1/8
+    static final int LABEL_PERIOD = 8;
+
+    private Detections() {
+    }
+
+    /**
+     * 按native的布局填充count个目标，native通过字段名写入data，这里用反射
+     */
+    static DetectionBatch batch(int count) throws ReflectiveOperationException {
+        DetectionBatch batch = new DetectionBatch(Math.max(count, 1));
+        Field field = DetectionBatch.class.getDeclaredField("data");
+        field.setAccessible(true);
+        float[] data = (float[]) field.get(batch);
+
+        final int capacity = batch.capacity();
+        Random random = new Random(7767517);
+
+        data[DetectionBatch.HEADER_COUNT] = Float.intBitsToFloat(count);
+        data[DetectionBatch.HEADER_FRAME_WIDTH] = Float.intBitsToFloat(FRAME_WIDTH);
+        data[DetectionBatch.HEADER_FRAME_HEIGHT] = Float.intBitsToFloat(FRAME_HEIGHT);
+        data[DetectionBatch.HEADER_FRAME_SEQ] = Float.intBitsToFloat(1);
+
+        for (int i = 0; i < count; i++) {
+            float w = 20 + random.nextInt(200);
+            float h = 20 + random.nextInt(200);
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_X * capacity + i] = random.nextInt(FRAME_WIDTH - (int) w);
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_Y * capacity + i] = random.nextInt(FRAME_HEIGHT - (int) h);
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_WIDTH * capacity + i] = w;
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_HEIGHT * capacity + i] = h;
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_PROB * capacity + i] = 0.25f + random.nextFloat() * 0.75f;
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_LABEL * capacity + i] = Float.intBitsToFloat(i % LABEL_PERIOD);
+            data[DetectionBatch.HEADER_SIZE + DetectionBatch.COLUMN_TRACK_ID * capacity + i] = Float.intBitsToFloat(i);
+        }
+
+        return batch;
+    }
+
+    // 全部目标的独立对象，与DetectedObject.create的结果相同
+    static Yolov8Ncnn.DetectedObject[] objects(DetectionBatch batch) {
+        Yolov8Ncnn.DetectedObject[] objects = new Yolov8Ncnn.DetectedObject[batch.size()];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = batch.toDetectedObject(i);
+        }
+        return objects;
+    }
+}
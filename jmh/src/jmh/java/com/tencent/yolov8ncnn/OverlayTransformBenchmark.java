@@ -0,0 +1,41 @@
+package com.tencent.yolov8ncnn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * DetectionOverlayView.onDraw中每个检测框的坐标转换，不含Canvas绘制
+ */
+@State(Scope.Thread)
+public class OverlayTransformBenchmark {
+
+    @Param({"0", "1", "10", "100", "300"})
+    public int count;
+
+    @Param({"false", "true"})
+    public boolean flipHorizontal;
+
+    private Yolov8Ncnn.DetectedObject[] objects;
+    private final OverlayTransform transform = new OverlayTransform();
+    private final float[] rect = new float[4];
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        objects = Detections.objects(Detections.batch(count));
+    }
+
+    @Benchmark
+    public float mapAll() {
+        // 1080x1920的视图，边距20
+        float sum = 0.f;
+        for (Yolov8Ncnn.DetectedObject obj : objects) {
+            transform.set(1080, 1920, 20, 20, obj.frameWidth, obj.frameHeight, flipHorizontal);
+            transform.map(obj.x, obj.y, obj.width, obj.height, rect, 0);
+            sum += rect[0] + rect[1] + rect[2] + rect[3];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,275 @@
+// latency and detection agreement of an int8 model against its fp32 source on the same images
+//
+// usage: compare <fp32.param> <fp32.bin> <int8.param> <int8.bin> <image_dir> [input_size] [num_threads]
+//
+// preprocessing and postprocessing follow the app: the long side is resized to input_size and padded to a multiple of 32,
+// bgr pixels divided by 255, then the shared generate_proposals and nms
+// the fp32 detections are the reference, int8 boxes are matched greedily by prob to unmatched fp32 boxes of the same label with iou >= 0.5
+
+#include "postprocess.h"
+
+#include <float.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <chrono>
+#include <string>
+#include <vector>
+
+#include <opencv2/core/core.hpp>
+#include <opencv2/highgui/highgui.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+
+#include <net.h>
+
+static double get_current_time()
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+class Detector
+{
+public:
+    Detector()
+    {
+        grid_w = 0;
+        grid_h = 0;
+    }
+
+    int load(const char* parampath, const char* modelpath, int num_threads)
+    {
+        net.opt.num_threads = num_threads;
+
+        if (net.load_param(parampath) != 0 || net.load_model(modelpath) != 0)
+        {
+            fprintf(stderr, "load %s %s failed\n", parampath, modelpath);
+            return -1;
+        }
+
+        return 0;
+    }
+
+    // returns the time of preprocessing, inference and postprocessing in ms
+    double detect(const cv::Mat& bgr, int target_size, std::vector<Object>& objects)
+    {
+        double start = get_current_time();
+
+        const int width = bgr.cols;
+        const int height = bgr.rows;
+
+        int w = width;
+        int h = height;
+        float scale = 1.f;
+        if (w > h)
+        {
+            scale = (float)target_size / w;
+            w = target_size;
+            h = h * scale;
+        }
+        else
+        {
+            scale = (float)target_size / h;
+            h = target_size;
+            w = w * scale;
+        }
+
+        ncnn::Mat in = ncnn::Mat::from_pixels_resize(bgr.data, ncnn::Mat::PIXEL_BGR, width, height, w, h);
+
+        const int wpad = (w + 31) / 32 * 32 - w;
+        const int hpad = (h + 31) / 32 * 32 - h;
+        ncnn::Mat in_pad;
+        ncnn::copy_make_border(in, in_pad, hpad / 2, hpad - hpad / 2, wpad / 2, wpad - wpad / 2, ncnn::BORDER_CONSTANT, 0.f);
+
+        const float norm_vals[3] = {1 / 255.f, 1 / 255.f, 1 / 255.f};
+        in_pad.substract_mean_normalize(0, norm_vals);
+
+        ncnn::Extractor ex = net.create_extractor();
+        ex.input("images", in_pad);
+
+        ncnn::Mat out;
+        ex.extract("output", out);
+
+        if (in_pad.w != grid_w || in_pad.h != grid_h)
+        {
+            std::vector<int> strides = {8, 16, 32};
+            grid_strides.clear();
+            generate_grids_and_stride(in_pad.w, in_pad.h, strides, grid_strides);
+            grid_w = in_pad.w;
+            grid_h = in_pad.h;
+        }
+
+        NmsParams params;
+        proposals.clear();
+        generate_proposals(grid_strides, out.row(0), out.w, 80, params.prob_threshold, proposals);
+        nms.run(proposals, picked, params);
+
+        objects.resize(picked.size());
+        for (size_t i = 0; i < picked.size(); i++)
+        {
+            Object obj = proposals[picked[i]];
+
+            float x0 = std::max(std::min((obj.rect.x - (wpad / 2)) / scale, (float)(width - 1)), 0.f);
+            float y0 = std::max(std::min((obj.rect.y - (hpad / 2)) / scale, (float)(height - 1)), 0.f);
+            float x1 = std::max(std::min((obj.rect.x + obj.rect.width - (wpad / 2)) / scale, (float)(width - 1)), 0.f);
+            float y1 = std::max(std::min((obj.rect.y + obj.rect.height - (hpad / 2)) / scale, (float)(height - 1)), 0.f);
+
+            obj.rect = cv::Rect_<float>(x0, y0, x1 - x0, y1 - y0);
+            objects[i] = obj;
+        }
+
+        return get_current_time() - start;
+    }
+
+private:
+    ncnn::Net net;
+
+    std::vector<GridAndStride> grid_strides;
+    int grid_w;
+    int grid_h;
+
+    NmsEngine nms;
+    std::vector<Object> proposals;
+    std::vector<int> picked;
+};
+
+static float iou(const cv::Rect_<float>& a, const cv::Rect_<float>& b)
+{
+    float inter = (a & b).area();
+    float uni = a.area() + b.area() - inter;
+    return uni > 0.f ? inter / uni : 0.f;
+}
+
+struct Agreement
+{
+    int reference;
+    int candidate;
+    int matched;
+    double iou_sum;
+};
+
+// candidate boxes in prob order matched to the best unmatched reference box of the same label
+static void match(const std::vector<Object>& reference, std::vector<Object> candidate, Agreement& a)
+{
+    struct
+    {
+        bool operator()(const Object& x, const Object& y) const
+        {
+            return x.prob > y.prob;
+        }
+    } prob_greater;
+    std::sort(candidate.begin(), candidate.end(), prob_greater);
+
+    std::vector<char> used(reference.size(), 0);
+    for (size_t i = 0; i < candidate.size(); i++)
+    {
+        int best = -1;
+        float best_iou = 0.5f;
+        for (size_t j = 0; j < reference.size(); j++)
+        {
+            if (used[j] || reference[j].label != candidate[i].label)
+                continue;
+
+            float v = iou(reference[j].rect, candidate[i].rect);
+            if (v >= best_iou)
+            {
+                best = j;
+                best_iou = v;
+            }
+        }
+
+        if (best >= 0)
+        {
+            used[best] = 1;
+            a.matched++;
+            a.iou_sum += best_iou;
+        }
+    }
+
+    a.reference += reference.size();
+    a.candidate += candidate.size();
+}
+
+static double percentile(std::vector<double> v, double p)
+{
+    std::sort(v.begin(), v.end());
+    return v[std::min((size_t)(p * v.size()), v.size() - 1)];
+}
+
+static void print_latency(const char* name, const std::vector<double>& t)
+{
+    double sum = 0;
+    for (size_t i = 0; i < t.size(); i++)
+    {
+        sum += t[i];
+    }
+
+    fprintf(stderr, "%-5s  avg = %8.2f ms  p50 = %8.2f ms  p90 = %8.2f ms\n", name, sum / t.size(), percentile(t, 0.5), percentile(t, 0.9));
+}
+
+int main(int argc, char** argv)
+{
+    if (argc < 6)
+    {
+        fprintf(stderr, "usage: %s <fp32.param> <fp32.bin> <int8.param> <int8.bin> <image_dir> [input_size] [num_threads]\n", argv[0]);
+        return -1;
+    }
+
+    const int target_size = argc > 6 ? atoi(argv[6]) : 320;
+    const int num_threads = argc > 7 ? atoi(argv[7]) : 4;
+
+    Detector fp32;
+    Detector int8;
+    if (fp32.load(argv[1], argv[2], num_threads) != 0 || int8.load(argv[3], argv[4], num_threads) != 0)
+        return -1;
+
+    std::vector<cv::String> paths;
+    cv::glob(std::string(argv[5]) + "/*", paths, false);
+
+    std::vector<double> fp32_ms;
+    std::vector<double> int8_ms;
+    Agreement a = {0, 0, 0, 0.0};
+
+    std::vector<Object> fp32_objects;
+    std::vector<Object> int8_objects;
+
+    bool warm = false;
+    for (size_t i = 0; i < paths.size(); i++)
+    {
+        cv::Mat bgr = cv::imread(paths[i], 1);
+        if (bgr.empty())
+            continue;
+
+        // the first image pays for the allocations of both nets
+        if (!warm)
+        {
+            fp32.detect(bgr, target_size, fp32_objects);
+            int8.detect(bgr, target_size, int8_objects);
+            warm = true;
+        }
+
+        fp32_ms.push_back(fp32.detect(bgr, target_size, fp32_objects));
+        int8_ms.push_back(int8.detect(bgr, target_size, int8_objects));
+
+        match(fp32_objects, int8_objects, a);
+    }
+
+    if (fp32_ms.empty())
+    {
+        fprintf(stderr, "no images in %s\n", argv[5]);
+        return -1;
+    }
+
+    fprintf(stderr, "images = %d  input_size = %d  threads = %d\n", (int)fp32_ms.size(), target_size, num_threads);
+    print_latency("fp32", fp32_ms);
+    print_latency("int8", int8_ms);
+    fprintf(stderr, "speedup = %.2fx (p50)\n", percentile(fp32_ms, 0.5) / percentile(int8_ms, 0.5));
+
+    fprintf(stderr, "fp32 boxes = %d  int8 boxes = %d  matched = %d\n", a.reference, a.candidate, a.matched);
+    fprintf(stderr, "recall = %.3f  precision = %.3f  mean iou = %.3f\n",
+            a.reference ? (double)a.matched / a.reference : 1.0,
+            a.candidate ? (double)a.matched / a.candidate : 1.0,
+            a.matched ? a.iou_sum / a.matched : 0.0);
+
+    return 0;
+}
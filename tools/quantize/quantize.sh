@@ -0,0 +1,40 @@
+#!/bin/sh
+# calibrate yolov8n or yolov8s on a folder of sample images and write the int8 model into the app assets
+#
+# usage: tools/quantize/quantize.sh <n|s> <image_dir> [input_size]
+#
+# needs the host ncnn tools ncnnoptimize, ncnn2table and ncnn2int8 in PATH, build ncnn with NCNN_BUILD_TOOLS=ON
+# the preprocessing matches the app, bgr pixels divided by 255 without mean
+# run compare afterwards to check the int8 latency and detections against fp32 on the same images
+
+set -e
+
+if [ $# -lt 2 ]; then
+    echo "usage: $0 <n|s> <image_dir> [input_size]"
+    exit 1
+fi
+
+MODEL=$1
+IMAGES=$2
+SIZE=${3:-320}
+
+ASSETS=$(cd "$(dirname "$0")/../../app/src/main/assets" && pwd)
+WORK=$(mktemp -d)
+
+find "$IMAGES" -type f \( -iname '*.jpg' -o -iname '*.jpeg' -o -iname '*.png' -o -iname '*.bmp' \) > "$WORK/imagelist.txt"
+if [ ! -s "$WORK/imagelist.txt" ]; then
+    echo "no images in $IMAGES"
+    exit 1
+fi
+echo "$(wc -l < "$WORK/imagelist.txt") calibration images"
+
+# fp32 weights, the table and the int8 conversion work on the optimized graph
+ncnnoptimize "$ASSETS/yolov8$MODEL.param" "$ASSETS/yolov8$MODEL.bin" "$WORK/yolov8$MODEL-opt.param" "$WORK/yolov8$MODEL-opt.bin" 0
+
+ncnn2table "$WORK/yolov8$MODEL-opt.param" "$WORK/yolov8$MODEL-opt.bin" "$WORK/imagelist.txt" "$WORK/yolov8$MODEL.table" \
+    mean=[0,0,0] norm=[0.003921569,0.003921569,0.003921569] shape=[$SIZE,$SIZE,3] pixel=BGR thread=4 method=kl
+
+ncnn2int8 "$WORK/yolov8$MODEL-opt.param" "$WORK/yolov8$MODEL-opt.bin" "$ASSETS/yolov8$MODEL-int8.param" "$ASSETS/yolov8$MODEL-int8.bin" "$WORK/yolov8$MODEL.table"
+
+echo "wrote $ASSETS/yolov8$MODEL-int8.param and .bin, table in $WORK/yolov8$MODEL.table"
+echo "compare: compare $ASSETS/yolov8$MODEL.param $ASSETS/yolov8$MODEL.bin $ASSETS/yolov8$MODEL-int8.param $ASSETS/yolov8$MODEL-int8.bin $IMAGES $SIZE"